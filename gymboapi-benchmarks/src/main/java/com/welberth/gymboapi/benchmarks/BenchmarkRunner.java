@@ -0,0 +1,34 @@
+package com.welberth.gymboapi.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the JMH benchmarks and writes the results as JSON, so runs can be compared across commits.
+ * <p>
+ * Usage: BenchmarkRunner &lt;result.json&gt; [JMH options], e.g. "UserService -p members=100000".
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: BenchmarkRunner <result.json> [JMH options]");
+        }
+
+        CommandLineOptions commandLine = new CommandLineOptions(Arrays.copyOfRange(args, 1, args.length));
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .resultFormat(ResultFormatType.JSON)
+                .result(args[0])
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,107 @@
+package com.welberth.gymboapi.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import com.welberth.gymboapi.dtos.UserResponse;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the User/Plan entity graphs and of the response DTOs UserController returns,
+ * with the ObjectMapper configured like the API's (Blackbird, DTO field filters).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+    @Param({"100"})
+    public int rosterSize;
+
+    private ObjectMapper objectMapper;
+
+    private Plan plan;
+
+    private User user;
+
+    private List<User> roster;
+
+    private UserResponse userResponse;
+
+    private List<UserResponse> rosterResponse;
+
+    @Setup
+    public void setUp() {
+        this.objectMapper = Jackson2ObjectMapperBuilder.json()
+                .modulesToInstall(new BlackbirdModule())
+                .filters(new SimpleFilterProvider().setFailOnUnknownId(false))
+                .build();
+
+        this.plan = new Plan(1L, "Gold", "All areas, all day, personal trainer included", 149.9f);
+        this.user = new User(1L, "member-1", "secret-password", "member-1@gym.bo", this.plan, LocalDate.now().plusMonths(1));
+
+        this.roster = new ArrayList<>(this.rosterSize);
+        for (long i = 0; i < this.rosterSize; i++) {
+            this.roster.add(new User(i, "member-" + i, "secret-password", "member-" + i + "@gym.bo", this.plan, LocalDate.now().plusDays(i)));
+        }
+        this.plan.setUsers(this.roster);
+
+        this.userResponse = toResponse(this.user);
+        this.rosterResponse = new ArrayList<>(this.rosterSize);
+        for (User member : this.roster) {
+            this.rosterResponse.add(toResponse(member));
+        }
+    }
+
+    private static UserResponse toResponse(User user) {
+        return new UserResponse(user.getId(), user.getUsername(), user.getEmail(), user.getPlan().getId(), user.getPaidUntil(), user.getGymId());
+    }
+
+    @Benchmark
+    public byte[] serializeUser() throws JsonProcessingException {
+        return this.objectMapper.writeValueAsBytes(this.user);
+    }
+
+    @Benchmark
+    public byte[] serializePlan() throws JsonProcessingException {
+        return this.objectMapper.writeValueAsBytes(this.plan);
+    }
+
+    @Benchmark
+    public byte[] serializeRoster() throws JsonProcessingException {
+        return this.objectMapper.writeValueAsBytes(this.roster);
+    }
+
+    @Benchmark
+    public byte[] serializeUserResponse() throws JsonProcessingException {
+        return this.objectMapper.writeValueAsBytes(this.userResponse);
+    }
+
+    @Benchmark
+    public byte[] serializeRosterResponse() throws JsonProcessingException {
+        return this.objectMapper.writeValueAsBytes(this.rosterResponse);
+    }
+}
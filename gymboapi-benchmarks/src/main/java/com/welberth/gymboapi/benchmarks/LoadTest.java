@@ -0,0 +1,304 @@
+package com.welberth.gymboapi.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.welberth.gymboapi.GymboapiApplication;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test of the UserController HTTP endpoints, against the API booted on the bundled H2 database and
+ * filled by SyntheticData. The load is an open model: requests start at a fixed arrival rate whatever the latency,
+ * the way members and kiosks arrive in production, and each latency is measured from the request's scheduled start,
+ * so a stalled server shows in the tail rather than slowing the load down (coordinated omission). Requests that
+ * would exceed max-in-flight are not sent and count as errors.
+ * <p>
+ * The request mix is a list of operation:weight (OPERATIONS). Throughput and p50/p99/p999 latencies, overall and per
+ * operation, are written as JSON after the warmup is discarded. The run fails (exit status 1) when a threshold is
+ * exceeded; a threshold of 0 is not checked.
+ * <p>
+ * Usage: LoadTest &lt;result.json&gt; [key=value ...], keys and defaults in DEFAULTS.
+ */
+public class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("members", "50000");
+        DEFAULTS.put("plans", "2000");
+        DEFAULTS.put("rate", "50"); // requests per second, about a quarter of what one CPU saturates at
+        DEFAULTS.put("warmup", "15"); // seconds
+        DEFAULTS.put("duration", "60"); // seconds
+        DEFAULTS.put("mix", "payment:60,lookup:20,username:5,subscribe:10,roster:5");
+        DEFAULTS.put("max-in-flight", "1000");
+        DEFAULTS.put("max-p50-ms", "0");
+        DEFAULTS.put("max-p99-ms", "0");
+        DEFAULTS.put("max-p999-ms", "0");
+        DEFAULTS.put("max-error-rate", "0");
+        DEFAULTS.put("min-throughput", "0");
+    }
+
+    private static final List<String> OPERATIONS = List.of("payment", "lookup", "username", "subscribe", "roster");
+
+    private static final double[] PERCENTILES = { 0.5, 0.99, 0.999 };
+
+    private static final String[] PERCENTILE_NAMES = { "p50", "p99", "p999" };
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private final String baseUrl;
+
+    private final SyntheticData data;
+
+    private final Map<String, Recorder> recorders = new LinkedHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private LoadTest(String baseUrl, SyntheticData data) {
+        this.baseUrl = baseUrl;
+        this.data = data;
+        OPERATIONS.forEach(operation -> this.recorders.put(operation, new Recorder()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: LoadTest <result.json> [key=value ...]");
+        }
+        Map<String, String> config = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : Arrays.copyOfRange(args, 1, args.length)) {
+            int equals = arg.indexOf('=');
+            if (equals < 0 || !DEFAULTS.containsKey(arg.substring(0, equals))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + DEFAULTS.keySet());
+            }
+            config.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+
+        Map<String, Object> report;
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(GymboapiApplication.class)
+                .profiles("h2")
+                .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN")
+                .run()) {
+            long start = System.nanoTime();
+            SyntheticData data = SyntheticData.generate(context, intOf(config, "members"), intOf(config, "plans"));
+            System.out.println("Generated " + data.getMembers() + " members in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            report = new LoadTest(baseUrl, data).run(config);
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        objectMapper.writeValue(Path.of(args[0]).toFile(), report);
+        System.out.println(objectMapper.writeValueAsString(report));
+
+        if (!(Boolean) report.get("passed")) System.exit(1);
+    }
+
+    private Map<String, Object> run(Map<String, String> config) throws InterruptedException {
+        String[] schedule = schedule(config.get("mix"));
+        int rate = intOf(config, "rate");
+        int maxInFlight = intOf(config, "max-in-flight");
+        long intervalNanos = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + intOf(config, "warmup") * 1_000_000_000L;
+        long end = measureFrom + intOf(config, "duration") * 1_000_000_000L;
+
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * intervalNanos;
+            if (scheduled >= end) break;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+
+            String operation = schedule[ThreadLocalRandom.current().nextInt(schedule.length)];
+            Recorder recorder = scheduled >= measureFrom ? this.recorders.get(operation) : null; // warmup isn't recorded
+            if (this.inFlight.incrementAndGet() > maxInFlight) {
+                this.inFlight.decrementAndGet();
+                if (recorder != null) recorder.failed();
+                continue;
+            }
+            this.client.sendAsync(request(operation), HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                long latency = System.nanoTime() - scheduled;
+                this.inFlight.decrementAndGet();
+                if (recorder == null) return;
+
+                if (error == null && response.statusCode() < 400) {
+                    recorder.record(latency);
+                } else {
+                    recorder.failed();
+                }
+            });
+        }
+        while (this.inFlight.get() > 0) { // the last responses, still inside their latency
+            Thread.sleep(10);
+        }
+
+        return report(config, (end - measureFrom) / 1e9);
+    }
+
+    /**
+     * Builds the next request of an operation, on a random member or plan.
+     */
+    private HttpRequest request(String operation) {
+        long userId = this.data.randomUserId();
+        switch (operation) {
+            case "payment":
+                return get("/user/payment/" + userId);
+            case "lookup":
+                return get("/user/" + userId);
+            case "username":
+                return get("/user/member-" + userId);
+            case "subscribe":
+                String body = "{\"password\": \"secret-password\", \"email\": \"member-" + userId + "@gym.bo\", \"plan\": {\"id\": "
+                        + this.data.randomPlanId() + "}, \"paidUntil\": \"" + LocalDate.now().plusDays(30) + "\"}";
+                return HttpRequest.newBuilder(URI.create(this.baseUrl + "/user/plan/subscribe/" + userId))
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+            case "roster":
+                return get("/user/list/" + this.data.randomPlanId() + "/page?limit=100");
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(this.baseUrl + path)).GET().build();
+    }
+
+    private Map<String, Object> report(Map<String, String> config, double seconds) {
+        Recorder overall = new Recorder();
+        Map<String, Object> operations = new LinkedHashMap<>();
+        this.recorders.forEach((operation, recorder) -> {
+            if (recorder.count() == 0) return;
+            operations.put(operation, recorder.summary(seconds));
+            overall.addAll(recorder);
+        });
+        Map<String, Object> total = overall.summary(seconds);
+
+        List<String> violations = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        Map<String, Double> latencies = (Map<String, Double>) total.get("latencyMs");
+        checkAtMost(violations, config, "max-p50-ms", latencies.get("p50"));
+        checkAtMost(violations, config, "max-p99-ms", latencies.get("p99"));
+        checkAtMost(violations, config, "max-p999-ms", latencies.get("p999"));
+        checkAtMost(violations, config, "max-error-rate", (Double) total.get("errorRate"));
+        double minThroughput = Double.parseDouble(config.get("min-throughput"));
+        if (minThroughput > 0 && (Double) total.get("throughput") < minThroughput) {
+            violations.add("throughput " + total.get("throughput") + "/s is below min-throughput " + minThroughput + "/s");
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("measuredSeconds", seconds);
+        report.put("overall", total);
+        report.put("operations", operations);
+        report.put("violations", violations);
+        report.put("passed", violations.isEmpty());
+        return report;
+    }
+
+    private static void checkAtMost(List<String> violations, Map<String, String> config, String threshold, double value) {
+        double limit = Double.parseDouble(config.get(threshold));
+        if (limit > 0 && value > limit) violations.add(threshold + " exceeded: " + value + " > " + limit);
+    }
+
+    /**
+     * Expands "operation:weight,..." into an array picked from at random, each operation present weight times.
+     */
+    private static String[] schedule(String mix) {
+        List<String> schedule = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2 || !OPERATIONS.contains(parts[0])) {
+                throw new IllegalArgumentException("Bad mix entry " + entry + ", expected operation:weight with an operation of " + OPERATIONS);
+            }
+            for (int i = 0; i < Integer.parseInt(parts[1]); i++) {
+                schedule.add(parts[0]);
+            }
+        }
+        if (schedule.isEmpty()) throw new IllegalArgumentException("The mix is empty");
+        return schedule.toArray(String[]::new);
+    }
+
+    private static int intOf(Map<String, String> config, String key) {
+        return Integer.parseInt(config.get(key));
+    }
+
+    /**
+     * Latencies of the successful requests of an operation, and how many failed.
+     */
+    private static final class Recorder {
+
+        private long[] latencies = new long[1024]; // guarded by this
+
+        private int size; // guarded by this
+
+        private final AtomicLong errors = new AtomicLong();
+
+        synchronized void record(long latencyNanos) {
+            if (this.size == this.latencies.length) this.latencies = Arrays.copyOf(this.latencies, this.size * 2);
+            this.latencies[this.size++] = latencyNanos;
+        }
+
+        void failed() {
+            this.errors.incrementAndGet();
+        }
+
+        synchronized long count() {
+            return this.size + this.errors.get();
+        }
+
+        synchronized void addAll(Recorder other) {
+            synchronized (other) {
+                for (int i = 0; i < other.size; i++) {
+                    record(other.latencies[i]);
+                }
+                this.errors.addAndGet(other.errors.get());
+            }
+        }
+
+        synchronized Map<String, Object> summary(double seconds) {
+            long[] sorted = Arrays.copyOf(this.latencies, this.size);
+            Arrays.sort(sorted);
+
+            Map<String, Double> latencyMs = new LinkedHashMap<>();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                latencyMs.put(PERCENTILE_NAMES[i], sorted.length == 0 ? 0 : millis(sorted[(int) Math.ceil(PERCENTILES[i] * sorted.length) - 1]));
+            }
+            latencyMs.put("max", sorted.length == 0 ? 0 : millis(sorted[sorted.length - 1]));
+
+            long requests = count();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("requests", requests);
+            summary.put("errors", this.errors.get());
+            summary.put("errorRate", requests == 0 ? 0.0 : round((double) this.errors.get() / requests));
+            summary.put("throughput", round(this.size / seconds)); // successful requests per second
+            summary.put("latencyMs", latencyMs);
+            return summary;
+        }
+
+        private static double millis(long nanos) {
+            return round(nanos / 1e6);
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 1000) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.welberth.gymboapi.benchmarks;
+
+import com.welberth.gymboapi.dtos.MemberSearchResponse;
+import com.welberth.gymboapi.search.MemberSearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Member search (MemberSearchIndex) over generated members, for substring, prefix and short prefix queries,
+ * with the candidate cap of application.properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class MemberSearchBenchmark {
+
+    private static final int MAX_CANDIDATES = 2000;
+
+    @Param({"1000000"})
+    public int members;
+
+    @Param({"member123456", "er4242", "gym17.com", "me"})
+    public String query;
+
+    private MemberSearchIndex index;
+
+    @Setup
+    public void setUp() {
+        this.index = new MemberSearchIndex(16, this.members);
+        for (int i = 1; i <= this.members; i++) {
+            this.index.put(i, 0, "member" + i, "member" + i + "@gym" + (i % 100) + ".com");
+        }
+    }
+
+    @Benchmark
+    public MemberSearchResponse search() {
+        return this.index.search(this.query, 0, 20, MAX_CANDIDATES);
+    }
+}
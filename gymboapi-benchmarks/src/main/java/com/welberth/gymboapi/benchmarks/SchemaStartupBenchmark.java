@@ -0,0 +1,66 @@
+package com.welberth.gymboapi.benchmarks;
+
+import com.welberth.gymboapi.GymboapiApplication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Boot time of the API against an already seeded database: migrations plus ddl-auto=validate (the default)
+ * against the former ddl-auto=update, which inspects and alters the schema on every start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SchemaStartupBenchmark {
+
+    @Param({"validate", "update"})
+    public String ddlAuto;
+
+    @Param({"100000"})
+    public int members;
+
+    @Param({"20"})
+    public int plans;
+
+    private SeededApplication application;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // stays open so the in-memory database and its rows outlive the contexts started by the benchmark
+        this.application = new SeededApplication(this.members, this.plans);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.application.close();
+    }
+
+    @Benchmark
+    public void start() {
+        new SpringApplicationBuilder(GymboapiApplication.class)
+                .profiles("h2")
+                .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN",
+                        "spring.jpa.hibernate.ddl-auto=" + this.ddlAuto,
+                        "spring.flyway.enabled=" + "validate".equals(this.ddlAuto))
+                .run()
+                .close();
+    }
+}
@@ -0,0 +1,92 @@
+package com.welberth.gymboapi.benchmarks;
+
+import com.welberth.gymboapi.GymboapiApplication;
+import com.welberth.gymboapi.dtos.BulkResult;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The API booted on the bundled H2 database ("h2" profile), seeded with members spread over plans.
+ * Members are named member-0 .. member-(n-1), a third of them with a lapsed payment.
+ */
+public class SeededApplication implements AutoCloseable {
+
+    private static final int SEED_CHUNK = 10_000;
+
+    private final ConfigurableApplicationContext context;
+
+    private final long[] userIds;
+
+    private final long[] planIds;
+
+    public SeededApplication(int members, int plans) {
+        this.context = new SpringApplicationBuilder(GymboapiApplication.class)
+                .profiles("h2")
+                .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN")
+                .run();
+
+        PlanService planService = this.context.getBean(PlanService.class);
+        this.planIds = new long[plans];
+        for (int i = 0; i < plans; i++) {
+            Plan plan = planService.createPlan(new Plan(null, "Plan " + i, "Benchmark plan " + i, 50f + i));
+            this.planIds[i] = plan.getId();
+        }
+
+        UserService userService = this.context.getBean(UserService.class);
+        LocalDate today = LocalDate.now();
+        for (int from = 0; from < members; from += SEED_CHUNK) {
+            List<User> users = new ArrayList<>(SEED_CHUNK);
+            for (int i = from; i < Math.min(from + SEED_CHUNK, members); i++) {
+                Plan plan = new Plan(this.planIds[i % plans], null, null, null);
+                LocalDate paidUntil = i % 3 == 0 ? today.minusDays(i % 30 + 1) : today.plusDays(i % 30 + 1);
+                users.add(new User(null, "member-" + i, "secret-password", "member-" + i + "@gym.bo", plan, paidUntil));
+            }
+
+            BulkResult result = userService.createUsers(users);
+            if (!result.getFailures().isEmpty()) {
+                throw new IllegalStateException("Seeding failed: " + result.getFailures().get(0).getReason());
+            }
+        }
+
+        List<Long> ids = new ArrayList<>(members);
+        for (long planId : this.planIds) {
+            userService.streamResponsesByPlanId(planId, user -> ids.add(user.getId()));
+        }
+        this.userIds = ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    public ConfigurableApplicationContext getContext() {
+        return context;
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return this.context.getBean(type);
+    }
+
+    public long randomUserId() {
+        return this.userIds[ThreadLocalRandom.current().nextInt(this.userIds.length)];
+    }
+
+    public String randomUsername() {
+        return "member-" + ThreadLocalRandom.current().nextInt(this.userIds.length);
+    }
+
+    public long randomPlanId() {
+        return this.planIds[ThreadLocalRandom.current().nextInt(this.planIds.length)];
+    }
+
+    @Override
+    public void close() {
+        this.context.close();
+    }
+}
@@ -0,0 +1,178 @@
+package com.welberth.gymboapi.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of the API as a separate JVM, the way a new instance starts on a deploy or a scale out: time from
+ * launching the process to the first answered request, and the resident memory (RSS) of the process right after.
+ * <p>
+ * Two modes are measured against the same file-based H2 database, migrated by a first discarded run:
+ * "default", the exec jar with the default configuration, and "fast-startup", the plain jar of the fast-startup
+ * Maven profile with its AppCDS archive and the fast-startup Spring profile.
+ * <p>
+ * Usage: StartupBenchmark &lt;result.json&gt; &lt;exec jar&gt; &lt;plain jar&gt; &lt;CDS archive&gt; [runs]
+ */
+public class StartupBenchmark {
+
+    private static final String FIRST_REQUEST_PATH = "/user/1"; // goes through MVC, JPA and the error handler
+
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(3);
+
+    private static final long POLL_MILLIS = 5;
+
+    private final Path workDir;
+
+    private final String databaseUrl;
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+    private StartupBenchmark(Path workDir) {
+        this.workDir = workDir;
+        this.databaseUrl = "jdbc:h2:file:" + workDir.resolve("db").resolve("gymbo").toAbsolutePath()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER";
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            throw new IllegalArgumentException("Usage: StartupBenchmark <result.json> <exec jar> <plain jar> <CDS archive> [runs]");
+        }
+        Path result = Path.of(args[0]);
+        int runs = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        Path workDir = result.toAbsolutePath().getParent().resolve("startup-benchmark");
+        deleteRecursively(workDir);
+        Files.createDirectories(workDir);
+        StartupBenchmark benchmark = new StartupBenchmark(workDir);
+
+        List<String> defaultMode = List.of("-jar", args[1], "--spring.profiles.active=h2");
+        List<String> fastStartupMode = List.of("-XX:SharedArchiveFile=" + args[3], "-Xlog:cds=error", "-jar", args[2],
+                "--spring.profiles.active=h2,fast-startup", "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect");
+
+        benchmark.start("prepare", defaultMode); // migrates the database, so the measured runs only validate it
+
+        Map<String, Object> modes = new LinkedHashMap<>();
+        modes.put("default", benchmark.measure("default", defaultMode, runs));
+        modes.put("fast-startup", benchmark.measure("fast-startup", fastStartupMode, runs));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("runs", runs);
+        report.put("firstRequest", FIRST_REQUEST_PATH);
+        report.put("modes", modes);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(result.toFile(), report);
+        System.out.println(new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report));
+    }
+
+    private Map<String, Object> measure(String mode, List<String> arguments, int runs) throws Exception {
+        long[] millis = new long[runs];
+        long[] rssKb = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] run = start(mode + "-" + i, arguments);
+            millis[i] = run[0];
+            rssKb[i] = run[1];
+            System.out.println(mode + " run " + i + ": first request after " + run[0] + " ms, RSS " + run[1] / 1024 + " MB");
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timeToFirstRequestMs", summary(millis));
+        result.put("rssMb", summary(Arrays.stream(rssKb).map(kb -> kb / 1024).toArray()));
+        return result;
+    }
+
+    /**
+     * Starts the application, waits for its first answered request, reads its RSS and stops it.
+     *
+     * @return time to first request in ms and RSS in kB (-1 where /proc isn't available)
+     */
+    private long[] start(String name, List<String> arguments) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(arguments);
+        command.add("--server.port=" + port);
+        command.add("--spring.datasource.url=" + this.databaseUrl);
+        command.add("--logging.level.root=WARN");
+
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(this.workDir.resolve(name + ".log").toFile());
+        long start = System.nanoTime();
+        Process process = builder.start();
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + FIRST_REQUEST_PATH)).build();
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(name + " exited with " + process.exitValue() + ", see " + this.workDir.resolve(name + ".log"));
+                }
+                if (System.nanoTime() - start > START_TIMEOUT.toNanos()) {
+                    throw new IllegalStateException(name + " did not answer within " + START_TIMEOUT);
+                }
+                try {
+                    if (this.client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() < 500) break;
+                } catch (ConnectException e) {
+                    // not listening yet
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            return new long[] { millis, rssKb(process.pid()) };
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) process.destroyForcibly().waitFor();
+        }
+    }
+
+    private static long rssKb(long pid) throws IOException {
+        Path status = Path.of("/proc", String.valueOf(pid), "status");
+        if (!Files.exists(status)) return -1;
+
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("\\D", ""));
+        }
+        return -1;
+    }
+
+    private static Map<String, Long> summary(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("min", sorted[0]);
+        summary.put("median", sorted[sorted.length / 2]);
+        summary.put("max", sorted[sorted.length - 1]);
+        return summary;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+
+        try (var paths = Files.walk(dir)) {
+            for (Path path : paths.sorted((a, b) -> b.compareTo(a)).toArray(Path[]::new)) {
+                Files.delete(path);
+            }
+        }
+    }
+}
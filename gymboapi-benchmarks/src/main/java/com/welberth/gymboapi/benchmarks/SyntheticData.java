@@ -0,0 +1,93 @@
+package com.welberth.gymboapi.benchmarks;
+
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.LapsedMemberService;
+import com.welberth.gymboapi.services.PaymentSnapshotService;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.PlanStatsService;
+
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bulk generator of synthetic plans and members on the bundled H2 database, for the load test. Plans go through
+ * PlanService (a few thousand, with their stats rows). Members are generated by the database itself, INSERT ...
+ * SELECT over H2's SYSTEM_RANGE in chunks of CHUNK rows: no row crosses JDBC, millions take seconds.
+ * <p>
+ * The member id sequence is moved past the generated ids, then the derived state is built the way the scheduled
+ * jobs build it: plan stats recounted, lapsed members swept, payment snapshot rebuilt. Like SeededApplication,
+ * members are named member-1 .. member-n (id = n) and spread over the plans, a third of them with a lapsed payment.
+ */
+public class SyntheticData {
+
+    private static final int CHUNK = 100_000;
+
+    private static final String INSERT_MEMBERS_SQL = "insert into " + User.TABLE_NAME
+            + " (id, username, password, email, plan_id, paid_until, version, gym_id)"
+            + " select r.x, concat('member-', r.x), 'secret-password', concat('member-', r.x, '@gym.bo'), p.id,"
+            + " case when mod(r.x, 3) = 0 then dateadd(day, -(mod(r.x, 30) + 1), current_date)"
+            + " else dateadd(day, mod(r.x, 30) + 1, current_date) end, 0, 0"
+            + " from system_range(?, ?) r(x)"
+            + " join (select id, row_number() over (order by id) - 1 as n from " + Plan.TABLE_NAME + ") p on p.n = mod(r.x, ?)";
+
+    private static final int USER_ID_INCREMENT = 50; // allocation size of user_id_seq
+
+    private final int members;
+
+    private final long[] planIds;
+
+    private SyntheticData(int members, long[] planIds) {
+        this.members = members;
+        this.planIds = planIds;
+    }
+
+    /**
+     * Fills an empty database.
+     *
+     * @param context the application, on the "h2" profile
+     * @param members members to generate
+     * @param plans plans to create
+     * @return the generated ids
+     * @throws IOException if the payment snapshot can't be written
+     */
+    public static SyntheticData generate(ConfigurableApplicationContext context, int members, int plans) throws IOException {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        if (jdbcTemplate.queryForObject("select count(*) from " + User.TABLE_NAME, Long.class) > 0) {
+            throw new IllegalStateException("Synthetic members are generated into an empty database only");
+        }
+
+        PlanService planService = context.getBean(PlanService.class);
+        long[] planIds = new long[plans];
+        for (int i = 0; i < plans; i++) {
+            planIds[i] = planService.createPlan(new Plan(null, "Load plan " + i, "Load test plan " + i, 30f + i % 70)).getId();
+        }
+
+        for (long from = 1; from <= members; from += CHUNK) { // one statement, one commit per chunk
+            jdbcTemplate.update(INSERT_MEMBERS_SQL, from, Math.min(from + CHUNK - 1, members), plans);
+        }
+        jdbcTemplate.execute("alter sequence user_id_seq restart with " + (members + USER_ID_INCREMENT + 1));
+
+        context.getBean(PlanStatsService.class).reconcile();
+        context.getBean(LapsedMemberService.class).sweep(LocalDate.now());
+        context.getBean(PaymentSnapshotService.class).rebuild();
+
+        return new SyntheticData(members, planIds);
+    }
+
+    public int getMembers() {
+        return members;
+    }
+
+    public long randomUserId() {
+        return 1 + ThreadLocalRandom.current().nextInt(this.members);
+    }
+
+    public long randomPlanId() {
+        return this.planIds[ThreadLocalRandom.current().nextInt(this.planIds.length)];
+    }
+}
@@ -0,0 +1,75 @@
+package com.welberth.gymboapi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * The full Spring MVC path of the UserController read endpoints (routing, service, serialization)
+ * through MockMvc, against an embedded H2 seeded with -p members=... users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserControllerBenchmark {
+
+    @Param({"10000"})
+    public int members;
+
+    @Param({"20"})
+    public int plans;
+
+    private SeededApplication application;
+
+    private MockMvc mockMvc;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.application = new SeededApplication(this.members, this.plans);
+        this.mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) this.application.getContext()).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.application.close();
+    }
+
+    @Benchmark
+    public byte[] getPaymentStatus() throws Exception {
+        return perform("/user/payment/" + this.application.randomUserId());
+    }
+
+    @Benchmark
+    public byte[] getActivePlan() throws Exception {
+        return perform("/user/plan/" + this.application.randomUserId());
+    }
+
+    @Benchmark
+    public byte[] getUsersByPlanIdPage() throws Exception {
+        return perform("/user/list/" + this.application.randomPlanId() + "/page?limit=100");
+    }
+
+    private byte[] perform(String uri) throws Exception {
+        return this.mockMvc.perform(get(uri)).andReturn().getResponse().getContentAsByteArray();
+    }
+}
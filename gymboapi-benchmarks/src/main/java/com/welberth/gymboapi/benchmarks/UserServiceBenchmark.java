@@ -0,0 +1,85 @@
+package com.welberth.gymboapi.benchmarks;
+
+import com.welberth.gymboapi.dtos.UserResponse;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.UserService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserService read paths against an embedded H2 seeded with -p members=... users over -p plans=... plans.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    @Param({"10000"})
+    public int members;
+
+    @Param({"20"})
+    public int plans;
+
+    private SeededApplication application;
+
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.application = new SeededApplication(this.members, this.plans);
+        this.userService = this.application.getBean(UserService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.application.close();
+    }
+
+    @Benchmark
+    public boolean isPaymentUpToDate() {
+        return this.userService.isPaymentUpToDate(this.application.randomUserId());
+    }
+
+    @Benchmark
+    public User findByUsername() {
+        return this.userService.findByUsername(this.application.randomUsername());
+    }
+
+    @Benchmark
+    public List<User> findByPlanId() {
+        return this.userService.findByPlanId(this.application.randomPlanId());
+    }
+
+    @Benchmark
+    public List<UserResponse> findResponsesByPlanId() {
+        return this.userService.findResponsesByPlanId(this.application.randomPlanId());
+    }
+
+    @Benchmark
+    public List<UserResponse> findResponsesByPlanIdPage() {
+        return this.userService.findResponsesByPlanId(this.application.randomPlanId(), null, 100);
+    }
+
+    @Benchmark
+    public UserResponse findResponseByUsername() {
+        return this.userService.findResponseByUsername(this.application.randomUsername());
+    }
+}
@@ -0,0 +1,99 @@
+package com.welberth.gymboapi.configs;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.jcache.CacheManagerImpl;
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.spi.CachingProvider;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.Properties;
+
+/**
+ * In-process caches. Every cache is a bounded Caffeine cache with its own spec (size, TTL) taken
+ * from the gymbo.cache.* properties, and records statistics so hits, misses and evictions are
+ * published by the actuator as cache.gets / cache.evictions.
+ * <p>
+ * Hibernate's second-level cache is a separate set of Caffeine caches behind JCache, one per region
+ * (User and Plan entities, username to User id), sized from the gymbo.cache.entity.* properties.
+ * Its hits and misses are published from the Hibernate statistics as hibernate.second.level.cache.requests
+ * and hibernate.cache.natural.id.requests.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    public static final String PLANS = "plans";
+
+    public static final String PLANS_BY_TITLE = "plansByTitle";
+
+    public static final String PAYMENT_STATUS = "paymentStatus";
+
+    public static final String MISSING_USERS = "missingUsers";
+
+    @Bean
+    public CacheManager cacheManager(@Value("${gymbo.cache.plans.spec}") String plansSpec,
+                                     @Value("${gymbo.cache.payment-status.spec}") String paymentStatusSpec,
+                                     @Value("${gymbo.cache.missing-users.spec}") String missingUsersSpec) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+
+        cacheManager.registerCustomCache(PLANS, Caffeine.from(plansSpec).build());
+        cacheManager.registerCustomCache(PLANS_BY_TITLE, Caffeine.from(plansSpec).build());
+        cacheManager.registerCustomCache(PAYMENT_STATUS, Caffeine.from(paymentStatusSpec).build());
+        cacheManager.registerCustomCache(MISSING_USERS, Caffeine.from(missingUsersSpec).build());
+
+        return cacheManager;
+    }
+
+    /**
+     * Second-level cache regions, created up front so Hibernate never falls back to an unbounded default.
+     */
+    @Bean(destroyMethod = "close")
+    public javax.cache.CacheManager hibernateCacheManager(@Value("${gymbo.cache.entity.user.maximum-size}") long userMaximumSize,
+                                                          @Value("${gymbo.cache.entity.user.expire-after-write}") Duration userExpireAfterWrite,
+                                                          @Value("${gymbo.cache.entity.plan.maximum-size}") long planMaximumSize,
+                                                          @Value("${gymbo.cache.entity.plan.expire-after-write}") Duration planExpireAfterWrite) {
+        CachingProvider provider = new CaffeineCachingProvider();
+        // not through provider.getCacheManager(): that one is shared by every application context of the JVM
+        javax.cache.CacheManager cacheManager = new CacheManagerImpl(provider, provider.getDefaultURI(), getClass().getClassLoader(), new Properties());
+
+        cacheManager.createCache(User.CACHE_REGION, regionConfiguration(userMaximumSize, userExpireAfterWrite));
+        cacheManager.createCache(User.USERNAME_CACHE_REGION, regionConfiguration(userMaximumSize, userExpireAfterWrite));
+        cacheManager.createCache(Plan.CACHE_REGION, regionConfiguration(planMaximumSize, planExpireAfterWrite));
+
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCacheCustomizer(javax.cache.CacheManager hibernateCacheManager) {
+        return properties -> {
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+            properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+            // one entity or natural id per region, the bare id is enough of a key
+            properties.put(AvailableSettings.CACHE_KEYS_FACTORY, "simple");
+        };
+    }
+
+    private static CaffeineConfiguration<Object, Object> regionConfiguration(long maximumSize, Duration expireAfterWrite) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(OptionalLong.of(maximumSize));
+        configuration.setExpireAfterWrite(OptionalLong.of(expireAfterWrite.toNanos()));
+        configuration.setStoreByValue(false); // Hibernate caches disassembled state, no need to copy it
+        return configuration;
+    }
+}
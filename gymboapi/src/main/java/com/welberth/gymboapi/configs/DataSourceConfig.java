@@ -0,0 +1,77 @@
+package com.welberth.gymboapi.configs;
+
+import com.welberth.gymboapi.datasource.ReadWriteRoutingDataSource;
+import com.welberth.gymboapi.datasource.ReplicaLagMonitor;
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Read/write splitting, on when gymbo.datasource.replica.url is set: the primary comes from spring.datasource.*,
+ * the replica from gymbo.datasource.replica.*, each with its own Hikari pool. Everything that injects a DataSource
+ * (JPA, JdbcTemplate, Flyway) gets the routing one, so writes and migrations stay on the primary and read-only
+ * transactions go to the replica while it keeps up.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "gymbo.datasource.replica", name = "url")
+public class DataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("gymbo.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                              @Value("${gymbo.datasource.replica.url}") String url,
+                                              @Value("${gymbo.datasource.replica.username}") String username,
+                                              @Value("${gymbo.datasource.replica.password}") String password) {
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .driverClassName(properties.determineDriverClassName())
+                .url(url)
+                .username(username)
+                .password(password)
+                .build();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(@Qualifier("primaryDataSource") DataSource primary,
+                                               @Qualifier("replicaDataSource") DataSource replica,
+                                               @Value("${gymbo.datasource.replica.max-lag}") Duration maxLag) {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(primary, replica, maxLag);
+        monitor.check();
+        return monitor;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                 @Qualifier("replicaDataSource") DataSource replica,
+                                 ReplicaLagMonitor replicaLagMonitor) {
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, replica, replicaLagMonitor);
+        routing.afterPropertiesSet();
+
+        // defers the physical connection to the first statement, when the transaction's read-only flag is known
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
@@ -0,0 +1,41 @@
+package com.welberth.gymboapi.configs;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in virtual thread execution (gymbo.execution.virtual-threads=true, needs a JDK 21 runtime): Tomcat runs
+ * every request on its own virtual thread instead of its bounded worker pool, so requests blocked on JPA no
+ * longer exhaust the request threads. Concurrency is then bounded by AdmissionControlAspect and the
+ * connection pool instead.
+ */
+@Configuration
+@ConditionalOnProperty(name = "gymbo.execution.virtual-threads", havingValue = "true")
+public class ExecutionConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandler() {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    /**
+     * Looked up reflectively: the build targets Java 17 (Spring Framework 5.3 can't read newer class files),
+     * the method only exists on a JDK 21+ runtime.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("gymbo.execution.virtual-threads=true needs a JDK 21+ runtime, running on "
+                    + Runtime.version(), e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.welberth.gymboapi.configs;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Customizations of the ObjectMapper Spring Boot builds for the API.
+ */
+@Configuration
+public class JacksonConfig {
+
+    /**
+     * Blackbird replaces reflective getter/setter calls with generated lambdas (LambdaMetafactory),
+     * which takes most of the reflection cost out of (de)serializing the DTOs.
+     */
+    @Bean
+    public Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+
+    /**
+     * DTOs annotated with @JsonFilter are serialized whole unless a request sets a filter for them.
+     */
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer fieldFilters() {
+        return builder -> builder.filters(new SimpleFilterProvider().setFailOnUnknownId(false));
+    }
+}
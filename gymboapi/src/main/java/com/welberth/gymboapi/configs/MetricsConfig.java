@@ -0,0 +1,35 @@
+package com.welberth.gymboapi.configs;
+
+import com.welberth.gymboapi.metrics.QueryCounter;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Metrics beyond what Spring Boot records on its own (http.server.requests per endpoint, hikaricp.* for the
+ * connection pool, cache.* for the caches), all published on /actuator/prometheus.
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Times every method of the classes annotated with @Timed (the services), tagged by class and method.
+     */
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+
+    /**
+     * Lets QueryCounter see every statement Hibernate prepares, for the per-request query counts.
+     */
+    @Bean
+    public HibernatePropertiesCustomizer queryCounterCustomizer() {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, new QueryCounter());
+    }
+}
@@ -0,0 +1,12 @@
+package com.welberth.gymboapi.configs;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Background jobs (@Scheduled), run on the single-threaded scheduler configured by spring.task.scheduling.*.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,103 @@
+package com.welberth.gymboapi.configs;
+
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.sharding.ShardRoutingDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Members sharded by gym, on when gymbo.sharding.urls lists the shard databases (shard 0 first, the home shard).
+ * Each shard has its own Hikari pool, sized like spring.datasource.hikari. Everything that injects a DataSource
+ * (JPA, JdbcTemplate) gets the routing one, which follows ShardContext; Flyway migrates every shard in turn.
+ * Plans are written on the home shard and copied to the others (PlanService), once more at startup so a new
+ * shard gets them.
+ * <p>
+ * Not combined with the read replica (gymbo.datasource.replica.url): set one or the other.
+ */
+@Configuration
+@ConditionalOnExpression("'${gymbo.sharding.urls:}' != ''")
+public class ShardingConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardingConfig.class);
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariConfig shardPoolConfig() {
+        return new HikariConfig();
+    }
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(DataSourceProperties properties,
+                                                         HikariConfig shardPoolConfig,
+                                                         @Value("${gymbo.sharding.urls}") List<String> urls,
+                                                         @Value("${gymbo.sharding.username}") String username,
+                                                         @Value("${gymbo.sharding.password}") String password) {
+        List<DataSource> shards = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .driverClassName(properties.determineDriverClassName())
+                    .url(url.trim())
+                    .username(username)
+                    .password(password)
+                    .build();
+            dataSource.setMaximumPoolSize(shardPoolConfig.getMaximumPoolSize());
+            dataSource.setMinimumIdle(shardPoolConfig.getMinimumIdle());
+            dataSource.setConnectionTimeout(shardPoolConfig.getConnectionTimeout());
+            dataSource.setMaxLifetime(shardPoolConfig.getMaxLifetime());
+            dataSource.setPoolName("shard-" + shards.size());
+            shards.add(dataSource);
+        }
+
+        ShardRoutingDataSource routing = new ShardRoutingDataSource(shards);
+        routing.afterPropertiesSet();
+        return routing;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        // defers the physical connection to the first statement, when the shard of the call is set
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+
+    @Bean
+    public FlywayMigrationStrategy migrateEveryShard(ShardRoutingDataSource shardRoutingDataSource) {
+        return flyway -> {
+            List<DataSource> shards = shardRoutingDataSource.getShards();
+            for (int shard = 0; shard < shards.size(); shard++) {
+                Flyway.configure()
+                        .configuration(flyway.getConfiguration())
+                        .dataSource(shards.get(shard))
+                        .load()
+                        .migrate();
+                LOGGER.info("Migrated shard {}", shard);
+            }
+        };
+    }
+
+    @Bean
+    public ApplicationListener<ApplicationReadyEvent> replicatePlans(PlanService planService) {
+        return event -> LOGGER.info("Copied {} plans to the other shards", planService.replicatePlans());
+    }
+}
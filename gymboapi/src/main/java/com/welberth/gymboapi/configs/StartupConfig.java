@@ -0,0 +1,78 @@
+package com.welberth.gymboapi.configs;
+
+import com.welberth.gymboapi.execution.CheckInWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+/**
+ * Support for the fast-startup profile (application-fast-startup.properties). It turns on lazy bean initialization,
+ * but the beans doing background work (scheduled jobs, the check-in flusher and its journal replay) are still
+ * created at startup, or they would only start with the first request that happens to need them.
+ * <p>
+ * Also runs the AppCDS training run of the fast-startup Maven profile (gymbo.startup.training-run=true): once
+ * ready, the application serves one request per TRAINING_PATHS, so the classes of the request path get
+ * archived as well as the startup ones, and exits.
+ */
+@Configuration
+public class StartupConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupConfig.class);
+
+    private static final List<String> TRAINING_PATHS = List.of("/user/1", "/user/training-run", "/user/list/1/page",
+            "/plan/1/stats", "/search/user?q=training", "/actuator/health");
+
+    @Bean
+    public static LazyInitializationExcludeFilter backgroundWorkIsEager() {
+        return (beanName, beanDefinition, beanType) -> beanType != null
+                && (CheckInWriter.class.isAssignableFrom(beanType) || hasScheduledMethods(beanType));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "gymbo.startup.training-run", havingValue = "true")
+    public ApplicationListener<ApplicationReadyEvent> trainingRun() {
+        return event -> {
+            ConfigurableApplicationContext context = event.getApplicationContext();
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient client = HttpClient.newHttpClient();
+
+            for (String path : TRAINING_PATHS) {
+                try {
+                    HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build(),
+                            HttpResponse.BodyHandlers.discarding());
+                    LOGGER.info("Training request {} answered {}", path, response.statusCode());
+                } catch (IOException e) {
+                    LOGGER.warn("Training request {} failed", path, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            System.exit(SpringApplication.exit(context)); // the class list is archived as the JVM exits
+        };
+    }
+
+    private static boolean hasScheduledMethods(Class<?> beanType) {
+        return !MethodIntrospector.selectMethods(beanType, (MethodIntrospector.MetadataLookup<Scheduled>) method ->
+                AnnotatedElementUtils.findMergedAnnotation(method, Scheduled.class)).isEmpty();
+    }
+}
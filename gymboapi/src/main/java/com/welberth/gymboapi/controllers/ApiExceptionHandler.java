@@ -0,0 +1,41 @@
+package com.welberth.gymboapi.controllers;
+
+import com.welberth.gymboapi.dtos.ErrorResponse;
+import com.welberth.gymboapi.exceptions.ApiException;
+import com.welberth.gymboapi.exceptions.ServiceOverloadedException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Turns the exceptions of every controller into their status, so controllers only handle the happy path.
+ * The response is written right here: a @ResponseStatus exception would go through sendError and
+ * a second dispatch to /error, too much work for a miss or for shedding load.
+ */
+@RestControllerAdvice
+public class ApiExceptionHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApiExceptionHandler.class);
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    @ExceptionHandler(ApiException.class)
+    public ResponseEntity<ErrorResponse> handleApiException(ApiException e) {
+        HttpStatus status = e.getStatus();
+        if (status.is5xxServerError()) LOGGER.error("Request failed: {}", e.getMessage(), e.getCause());
+
+        return ResponseEntity.status(status).body(new ErrorResponse(status.value(), e.getMessage()));
+    }
+
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity<ErrorResponse> handleServiceOverloaded(ServiceOverloadedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage()));
+    }
+}
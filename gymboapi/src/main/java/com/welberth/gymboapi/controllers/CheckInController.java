@@ -0,0 +1,52 @@
+package com.welberth.gymboapi.controllers;
+
+import com.welberth.gymboapi.dtos.OccupancyResponse;
+import com.welberth.gymboapi.models.CheckIn;
+import com.welberth.gymboapi.models.CheckInResult;
+import com.welberth.gymboapi.services.CheckInService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.util.List;
+
+@RestController
+@RequestMapping("/checkin")
+public class CheckInController {
+
+    @Autowired
+    private CheckInService checkInService;
+
+    @PostMapping("/{userId}")
+    public ResponseEntity<CheckInResult> checkIn(@PathVariable Long userId) {
+        CheckInResult result = this.checkInService.checkIn(userId); // a full queue is a 503, see CheckInWriter
+        return ResponseEntity.ok().body(result);
+    }
+
+    @GetMapping("/history/{userId}")
+    public ResponseEntity<List<CheckIn>> getHistory(@PathVariable Long userId,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant before,
+                                                    @RequestParam(defaultValue = "100") int limit) {
+        int pageSize = Math.max(1, Math.min(limit, UserController.MAX_PAGE_SIZE));
+        List<CheckIn> checkIns = this.checkInService.findHistory(userId, before, pageSize);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (checkIns.size() == pageSize) {
+            response.header(UserController.NEXT_CURSOR_HEADER, checkIns.get(checkIns.size() - 1).getCheckedInAt().toString());
+        }
+        return response.body(checkIns);
+    }
+
+    @GetMapping("/occupancy")
+    public ResponseEntity<OccupancyResponse> getOccupancy() {
+        return ResponseEntity.ok().body(this.checkInService.findOccupancy());
+    }
+}
@@ -0,0 +1,24 @@
+package com.welberth.gymboapi.controllers;
+
+import com.welberth.gymboapi.dtos.PlanStatsResponse;
+import com.welberth.gymboapi.services.PlanStatsService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/plan")
+public class PlanController {
+
+    @Autowired
+    private PlanStatsService planStatsService;
+
+    @GetMapping("/{id}/stats")
+    public ResponseEntity<PlanStatsResponse> getPlanStats(@PathVariable Long id) {
+        return ResponseEntity.ok().body(this.planStatsService.findStats(id));
+    }
+}
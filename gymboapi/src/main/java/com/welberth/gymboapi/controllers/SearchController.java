@@ -0,0 +1,37 @@
+package com.welberth.gymboapi.controllers;
+
+import com.welberth.gymboapi.dtos.MemberSearchResponse;
+import com.welberth.gymboapi.exceptions.BadRequestException;
+import com.welberth.gymboapi.services.MemberSearchService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Member search for the front desk, by part of a username or email. Not under /user, where any
+ * non-numeric path is a username.
+ */
+@RestController
+@RequestMapping("/search")
+public class SearchController {
+
+    public static final int MAX_OFFSET = 10_000; // every search ranks offset + limit matches, deep pages aren't worth it
+
+    @Autowired
+    private MemberSearchService memberSearchService;
+
+    @GetMapping("/user")
+    public ResponseEntity<MemberSearchResponse> searchUsers(@RequestParam String q,
+                                                            @RequestParam(defaultValue = "0") int offset,
+                                                            @RequestParam(defaultValue = "20") int limit) {
+        if (q.isBlank()) throw new BadRequestException("The search query must not be blank.");
+
+        int pageSize = Math.max(1, Math.min(limit, UserController.MAX_PAGE_SIZE));
+        MemberSearchResponse matches = this.memberSearchService.search(q, Math.max(0, Math.min(offset, MAX_OFFSET)), pageSize);
+        return ResponseEntity.ok().body(matches); // a 503 until the index is loaded, see MemberSearchService
+    }
+}
@@ -1,133 +1,419 @@
 package com.welberth.gymboapi.controllers;
 
-import com.welberth.gymboapi.exceptions.ApiException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.welberth.gymboapi.dtos.BulkResult;
+import com.welberth.gymboapi.dtos.PlanResponse;
+import com.welberth.gymboapi.dtos.SubscriptionRequest;
+import com.welberth.gymboapi.dtos.UserResponse;
+import com.welberth.gymboapi.exceptions.BadRequestException;
+import com.welberth.gymboapi.exceptions.ConcurrentUpdateException;
+import com.welberth.gymboapi.feed.MemberChangeFeed;
+import com.welberth.gymboapi.models.LapsedMember;
 import com.welberth.gymboapi.models.Plan;
 import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.LapsedMemberService;
+import com.welberth.gymboapi.services.PaymentSnapshotService;
 import com.welberth.gymboapi.services.UserService;
+import com.welberth.gymboapi.snapshot.PaymentChanges;
+import com.welberth.gymboapi.snapshot.PaymentSnapshot;
+import com.welberth.gymboapi.utils.UserCsv;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
 
+/**
+ * Errors are answered by ApiExceptionHandler: a missing user is a 404, a version conflict a 409.
+ */
 @RestController
 @RequestMapping("/user")
 @Validated
 public class UserController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
+    public static final String SNAPSHOT_VERSION_HEADER = "X-Snapshot-Version";
+
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    public static final int MAX_FEED_FILTER_SIZE = 1000;
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
     @Autowired // DI - could also be done on the constructor of UserController class
     private UserService userService;
 
-    @GetMapping("/{id}")
-    public ResponseEntity<User> getUserById(@PathVariable Long id) {
-        try {
-            User user = this.userService.findById(id);
-            return ResponseEntity.ok().body(user);
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
+    @Autowired
+    private LapsedMemberService lapsedMemberService;
+
+    @Autowired
+    private PaymentSnapshotService paymentSnapshotService;
+
+    @Autowired
+    private MemberChangeFeed memberChangeFeed;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @GetMapping("/{id:\\d+}") // digits only, anything else is a username
+    public ResponseEntity<MappingJacksonValue> getUserById(@PathVariable Long id,
+                                                           @RequestParam(required = false) Set<String> fields,
+                                                           WebRequest webRequest) {
+        if (webRequest.checkNotModified(versionTag(id, this.userService.findVersion(id), fields))) {
+            return null; // 304 already written, the user is neither loaded nor serialized
         }
+
+        UserResponse user = this.userService.findResponseById(id);
+        return ResponseEntity.ok().body(withFields(user, fields));
     }
 
-    @GetMapping("/{username}")
-    public ResponseEntity<User> getUserByUsername(@PathVariable String username) {
-        try {
-            User user = this.userService.findByUsername(username);
-            return ResponseEntity.ok().body(user);
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
-        }
+    @GetMapping("/{username:.*\\D.*}")
+    public ResponseEntity<MappingJacksonValue> getUserByUsername(@PathVariable String username,
+                                                                 @RequestParam(required = false) Set<String> fields) {
+        UserResponse user = this.userService.findResponseByUsername(username);
+        return ResponseEntity.ok().body(withFields(user, fields));
     }
 
     @GetMapping("/list/{planId}")
-    public ResponseEntity<List<User>> getUsersByPlanId(@PathVariable Long planId) {
-        try {
-            List<User> users = this.userService.findByPlanId(planId);
-            return ResponseEntity.ok().body(users);
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
+    public ResponseEntity<MappingJacksonValue> getUsersByPlanId(@PathVariable Long planId,
+                                                                @RequestParam(required = false) Set<String> fields) {
+        List<UserResponse> users = this.userService.findResponsesByPlanId(planId);
+        return ResponseEntity.ok().body(withFields(users, fields));
+    }
+
+    @GetMapping("/list/{planId}/page")
+    public ResponseEntity<MappingJacksonValue> getUsersByPlanIdPage(@PathVariable Long planId,
+                                                                    @RequestParam(required = false) Long after,
+                                                                    @RequestParam(defaultValue = "100") int limit,
+                                                                    @RequestParam(required = false) Set<String> fields) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<UserResponse> users = this.userService.findResponsesByPlanId(planId, after, pageSize);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (users.size() == pageSize) { // a full page means there may be more, so hand out the cursor
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(users.get(users.size() - 1).getId()));
+        }
+        return response.body(withFields(users, fields));
+    }
+
+    @GetMapping("/lapsed")
+    public ResponseEntity<List<LapsedMember>> getLapsedMembers(@RequestParam(required = false) Long after,
+                                                               @RequestParam(defaultValue = "100") int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<LapsedMember> members = this.lapsedMemberService.findPage(after, pageSize);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (members.size() == pageSize) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(members.get(members.size() - 1).getUserId()));
+        }
+        return response.body(members);
+    }
+
+    @GetMapping(value = "/list/{planId}/stream", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUsersByPlanId(@PathVariable Long planId,
+                                                                     @RequestParam(required = false) Set<String> fields) {
+        ObjectWriter objectWriter = this.objectMapper.writer().withRootValueSeparator("\n");
+        if (fields != null && !fields.isEmpty()) {
+            objectWriter = objectWriter.with(fieldsFilter(fields));
+        }
+        ObjectWriter writerForRequest = objectWriter;
+
+        StreamingResponseBody body = outputStream -> {
+            // one JSON document per line, written as the users come off the database cursor
+            SequenceWriter writer = writerForRequest.writeValues(outputStream);
+            this.userService.streamResponsesByPlanId(planId, user -> {
+                try {
+                    writer.write(user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+        };
+        return ResponseEntity.ok().body(body);
+    }
+
+    @GetMapping(value = "/export", produces = UserCsv.MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> exportUsersCsv() {
+        StreamingResponseBody body = outputStream -> {
+            // one record per user, encoded into the response channel as they come off the database cursor
+            Writer writer = new BufferedWriter(Channels.newWriter(Channels.newChannel(outputStream), StandardCharsets.UTF_8), IO_BUFFER_SIZE);
+            writer.append(UserCsv.EXPORT_HEADER).append('\n');
+            this.userService.streamResponses(user -> {
+                try {
+                    UserCsv.write(user, writer);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+        };
+        return ResponseEntity.ok().header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"users.csv\"").body(body);
+    }
+
+    @GetMapping(value = "/export", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportUsersNdjson() {
+        ObjectWriter objectWriter = this.objectMapper.writer().withRootValueSeparator("\n");
+
+        StreamingResponseBody body = outputStream -> {
+            SequenceWriter writer = objectWriter.writeValues(outputStream);
+            this.userService.streamResponses(user -> {
+                try {
+                    writer.write(user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+        };
+        return ResponseEntity.ok().body(body);
+    }
+
+    @PostMapping(value = "/import", consumes = UserCsv.MEDIA_TYPE)
+    public ResponseEntity<BulkResult> importUsersCsv(InputStream body) throws IOException {
+        try (BufferedReader reader = readerOf(body)) {
+            String header = reader.readLine();
+            if (header == null) throw new BadRequestException("The CSV header row is required.");
+
+            Function<String, User> parser;
+            try {
+                parser = UserCsv.parser(header);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+            BulkResult result = this.userService.importUsers(recordsOf(reader), parser); // validated row by row, see UserService
+            return ResponseEntity.ok().body(result);
+        }
+    }
+
+    @PostMapping(value = "/import", consumes = NDJSON_VALUE)
+    public ResponseEntity<BulkResult> importUsersNdjson(InputStream body) throws IOException {
+        ObjectReader userReader = this.objectMapper.readerFor(User.class);
+        Function<String, User> parser = record -> {
+            try {
+                return userReader.readValue(record);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException(e.getOriginalMessage());
+            }
+        };
+
+        try (BufferedReader reader = readerOf(body)) {
+            BulkResult result = this.userService.importUsers(recordsOf(reader), parser);
+            return ResponseEntity.ok().body(result);
         }
     }
 
     @GetMapping("/plan/{id}")
-    public ResponseEntity<Plan> getActivePlanById(@PathVariable Long id) {
-        try {
-            Plan plan = this.userService.findPlan(id);
-            return ResponseEntity.ok().body(plan);
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
+    public ResponseEntity<PlanResponse> getActivePlanById(@PathVariable Long id, WebRequest webRequest) {
+        Plan plan = this.userService.findPlan(id); // both the subscription and the plan come from caches
+        if (webRequest.checkNotModified(versionTag(plan.getId(), plan.getVersion(), null))) {
+            return null;
         }
+        return ResponseEntity.ok().body(PlanResponse.from(plan));
     }
 
     @GetMapping("/payment/{id}")
     public ResponseEntity<Boolean> getPaymentStatus(@PathVariable Long id) {
-        try {
-            boolean status = this.userService.isPaymentUpToDate(id);
-            return ResponseEntity.ok().body(status);
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
+        boolean status = this.userService.isPaymentUpToDate(id);
+        return ResponseEntity.ok().body(status);
+    }
+
+    @GetMapping(value = "/payment/snapshot", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> getPaymentSnapshot(@RequestParam(defaultValue = "0") int shard, WebRequest webRequest) {
+        PaymentSnapshot snapshot = this.paymentSnapshotService.getSnapshot(shard); // devices of a gym read the gym's shard
+        if (snapshot == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "5").build();
         }
+        if (webRequest.checkNotModified("W/\"snapshot-" + shard + "-" + snapshot.getVersion() + "\"")) {
+            return null;
+        }
+
+        ByteBuffer bytes = snapshot.bytes(); // straight from the mapping, the file is never copied onto the heap
+        StreamingResponseBody body = out -> Channels.newChannel(out).write(bytes);
+        return ResponseEntity.ok()
+                .contentLength(bytes.remaining())
+                .header(SNAPSHOT_VERSION_HEADER, String.valueOf(snapshot.getVersion()))
+                .body(body);
+    }
+
+    @GetMapping(value = "/payment/snapshot/changes", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> getPaymentChanges(@RequestParam long since, @RequestParam(defaultValue = "0") int shard) {
+        PaymentChanges changes = this.paymentSnapshotService.findChanges(shard, since);
+        return ResponseEntity.ok()
+                .header(SNAPSHOT_VERSION_HEADER, String.valueOf(changes.getToVersion()))
+                .body(changes::writeTo);
+    }
+
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public void getChanges(@RequestParam(name = "userId", defaultValue = "") Set<Long> userIds,
+                           @RequestParam(name = "planId", defaultValue = "") Set<Long> planIds,
+                           @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (userIds.size() + planIds.size() > MAX_FEED_FILTER_SIZE) {
+            throw new BadRequestException("At most " + MAX_FEED_FILTER_SIZE + " members and plans can be followed on one connection.");
+        }
+        this.memberChangeFeed.subscribe(request, response, userIds, planIds, lastEventId); // no filter follows every member
     }
 
     @PostMapping
     @Validated(User.CreateUser.class)
     public ResponseEntity<Void> createUser(@Valid @RequestBody User user) {
-        try {
-            user = this.userService.createUser(user);
-            URI uri = ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(user.getId()).toUri();
-            return ResponseEntity.created(uri).build(); // status 201
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
-        }
+        user = this.userService.createUser(user);
+        URI uri = ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(user.getId()).toUri();
+        return ResponseEntity.created(uri).build(); // status 201
+    }
+
+    @PostMapping("/bulk")
+    public ResponseEntity<BulkResult> createUsers(@RequestBody List<User> users) {
+        BulkResult result = this.userService.createUsers(users); // validated row by row, see UserService
+        return ResponseEntity.ok().body(result);
     }
 
     @PutMapping("/{id}")
     @Validated(User.UpdateUser.class)
-    public ResponseEntity<Void> updateUser(@Valid @RequestBody User user, @PathVariable Long id) {
-        try {
-            user.setId(id);
-            user = this.userService.updateUser(user);
-            return ResponseEntity.noContent().build();
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
-        }
+    public ResponseEntity<Void> updateUser(@Valid @RequestBody User user, @PathVariable Long id,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        user.setId(id);
+        Long version = this.userService.updateUser(user, versionOf(id, ifMatch));
+        return ResponseEntity.noContent().eTag(versionTag(id, version, null)).build();
     }
 
     @PutMapping("/plan/subscribe/{id}")
     @Validated(User.UpdateUser.class)
-    public ResponseEntity<Void> subscribeToPlan(@Valid @RequestBody User user, @PathVariable Long id) {
-        try {
-            user.setId(id);
-            this.userService.subscribeToPlan(user.getId(), user.getPlan().getId(), user.getPaidUntil());
-            return ResponseEntity.noContent().build();
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
+    public ResponseEntity<Void> subscribeToPlan(@Valid @RequestBody User user, @PathVariable Long id,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (user.getPlan() == null || user.getPlan().getId() == null) {
+            throw new BadRequestException("The plan to subscribe to is required.");
         }
+        user.setId(id);
+        Long version = this.userService.subscribeToPlan(user.getId(), user.getPlan().getId(), user.getPaidUntil(), versionOf(id, ifMatch));
+        return ResponseEntity.noContent().eTag(versionTag(id, version, null)).build();
+    }
+
+    @PutMapping("/plan/subscribe")
+    public ResponseEntity<BulkResult> subscribeToPlans(@RequestBody List<SubscriptionRequest> subscriptions) {
+        BulkResult result = this.userService.subscribeToPlans(subscriptions);
+        return ResponseEntity.ok().body(result);
     }
 
     @PutMapping("/plan/unsubscribe/{id}")
     @Validated(User.UpdateUser.class)
-    public ResponseEntity<Void> unsubscribeToPlan(@PathVariable Long id) {
-        try {
-            this.userService.unsubscribeToPlan(id);
-            return ResponseEntity.noContent().build();
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
-        }
+    public ResponseEntity<Void> unsubscribeToPlan(@PathVariable Long id,
+                                                  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long version = this.userService.unsubscribeToPlan(id, versionOf(id, ifMatch));
+        return ResponseEntity.noContent().eTag(versionTag(id, version, null)).build();
     }
 
     @DeleteMapping("/{id}")
     @Validated(User.DeleteUser.class)
     public ResponseEntity<Void> deleteUser(@PathVariable Long id) {
+        this.userService.deleteUser(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Reads the version out of an If-Match header holding an ETag from versionTag.
+     *
+     * @param id of the row being updated
+     * @param ifMatch the If-Match header, null or * when the update doesn't depend on the version
+     * @return the version the client read, null for none
+     * @throws ConcurrentUpdateException if the tag isn't one of this row, it can't match
+     */
+    private static Long versionOf(Long id, String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) return null;
+
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) tag = tag.substring(2);
+        String[] parts = tag.replace("\"", "").split("-");
         try {
-            this.userService.deleteUser(id);
-            return ResponseEntity.noContent().build();
-        } catch (ApiException e) {
-            return ResponseEntity.internalServerError().build();
+            if (parts.length >= 2 && Long.parseLong(parts[0]) == id) return Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            // falls through, not one of our tags
+        }
+        throw new ConcurrentUpdateException("If-Match " + ifMatch + " is not a version of the User with id = " + id);
+    }
+
+    /**
+     * Builds a weak ETag from the id and version of a row. The requested fields change the body, so they
+     * are part of the tag too. Weak, because compression changes the bytes but not the meaning.
+     *
+     * @param id of the row
+     * @param version of the row
+     * @param fields requested with ?fields, null or empty for all
+     * @return the ETag header value
+     */
+    private static String versionTag(Long id, Long version, Set<String> fields) {
+        String tag = id + "-" + version;
+        if (fields != null && !fields.isEmpty()) {
+            tag += "-" + Integer.toHexString(fields.hashCode());
         }
+        return "W/\"" + tag + "\"";
+    }
+
+    /**
+     * Decodes a request body through a channel, a buffer at a time.
+     */
+    private static BufferedReader readerOf(InputStream body) {
+        return new BufferedReader(Channels.newReader(Channels.newChannel(body), StandardCharsets.UTF_8), IO_BUFFER_SIZE);
+    }
+
+    /**
+     * The lines of a reader, read lazily as the import consumes them. Blank lines are kept (the import skips them)
+     * so rejected rows are reported by their line.
+     */
+    private static Iterator<String> recordsOf(BufferedReader reader) {
+        return reader.lines().iterator();
+    }
+
+    /**
+     * Wraps a response body so only the requested UserResponse fields are serialized, all of them when none are requested.
+     */
+    private static MappingJacksonValue withFields(Object body, Set<String> fields) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        if (fields != null && !fields.isEmpty()) {
+            value.setFilters(fieldsFilter(fields));
+        }
+        return value;
+    }
+
+    private static FilterProvider fieldsFilter(Set<String> fields) {
+        return new SimpleFilterProvider().addFilter(UserResponse.FIELDS_FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(fields));
     }
 }
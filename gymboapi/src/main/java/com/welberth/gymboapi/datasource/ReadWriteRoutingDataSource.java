@@ -0,0 +1,36 @@
+package com.welberth.gymboapi.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Sends the connections of read-only transactions (@Transactional(readOnly = true)) to the replica,
+ * everything else to the primary. Reads fall back to the primary while the replica lags or is down.
+ * <p>
+ * Must sit behind a LazyConnectionDataSourceProxy: the transaction manager asks for a connection when
+ * the transaction begins, before the read-only flag is visible here.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    enum Route { PRIMARY, REPLICA }
+
+    private final ReplicaLagMonitor replicaLagMonitor;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, ReplicaLagMonitor replicaLagMonitor) {
+        this.replicaLagMonitor = replicaLagMonitor;
+
+        setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        boolean readOnly = TransactionSynchronizationManager.isActualTransactionActive()
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+
+        return readOnly && this.replicaLagMonitor.isReplicaUsable() ? Route.REPLICA : Route.PRIMARY;
+    }
+}
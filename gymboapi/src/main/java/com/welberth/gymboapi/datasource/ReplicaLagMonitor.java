@@ -0,0 +1,97 @@
+package com.welberth.gymboapi.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Measures how far the replica is behind the primary with a heartbeat row: it is written to the primary
+ * every gymbo.datasource.replica.heartbeat-interval, and read back from the replica. The age of the
+ * replica's copy is the replication lag. While the lag is over gymbo.datasource.replica.max-lag, or the
+ * replica can't be read, ReadWriteRoutingDataSource keeps reads on the primary.
+ */
+public class ReplicaLagMonitor implements MeterBinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    private static final String BEAT_SQL = "update replica_heartbeat set beat_at = ? where id = 1";
+
+    private static final String READ_SQL = "select beat_at from replica_heartbeat where id = 1";
+
+    private final JdbcTemplate primary;
+
+    private final JdbcTemplate replica;
+
+    private final Duration maxLag;
+
+    private volatile Duration lag = Duration.ofDays(1); // unknown until the first check
+
+    private volatile boolean replicaUsable;
+
+    public ReplicaLagMonitor(DataSource primary, DataSource replica, Duration maxLag) {
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.maxLag = maxLag;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("gymbo.datasource.replica.lag", this, monitor -> monitor.lag.toMillis() / 1000.0)
+                .description("Replication lag of the read replica, as seen by the heartbeat")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("gymbo.datasource.replica.usable", this, monitor -> monitor.replicaUsable ? 1 : 0)
+                .description("1 while read-only transactions are routed to the replica")
+                .register(meterRegistry);
+    }
+
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    public Duration getLag() {
+        return lag;
+    }
+
+    /**
+     * Writes the heartbeat to the primary, then checks how old the replica's copy is.
+     */
+    @Scheduled(fixedDelayString = "${gymbo.datasource.replica.heartbeat-interval}")
+    public void heartbeat() {
+        try {
+            this.primary.update(BEAT_SQL, Timestamp.from(Instant.now()));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not write the replica heartbeat: {}", e.getMessage());
+        }
+        check();
+    }
+
+    /**
+     * Reads the heartbeat from the replica and decides whether reads can go there.
+     */
+    public void check() {
+        boolean usable;
+        try {
+            Timestamp beatAt = this.replica.queryForObject(READ_SQL, Timestamp.class);
+            this.lag = beatAt == null ? Duration.ofDays(1) : Duration.between(beatAt.toInstant(), Instant.now());
+            usable = this.lag.compareTo(this.maxLag) <= 0;
+        } catch (RuntimeException e) {
+            usable = false;
+        }
+
+        if (usable != this.replicaUsable) {
+            LOGGER.warn(usable ? "Replica caught up (lag {}), routing reads to it" : "Replica lag {} over the limit or replica down, routing reads to the primary", this.lag);
+        }
+        this.replicaUsable = usable;
+    }
+}
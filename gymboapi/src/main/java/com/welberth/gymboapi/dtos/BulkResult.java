@@ -0,0 +1,83 @@
+package com.welberth.gymboapi.dtos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk operation: how many rows were received and applied, and why each failed row was rejected.
+ * Failed rows don't abort the rest of the batch. Every failure is counted, but only the first maxReportedFailures
+ * are kept with their reason, so a streamed import of millions of rows holds a bounded report.
+ */
+public class BulkResult {
+
+    /**
+     * A rejected row, identified by its position in the request.
+     */
+    public static class Failure {
+
+        private final int index;
+
+        private final String reason;
+
+        public Failure(int index, String reason) {
+            this.index = index;
+            this.reason = reason;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    private int received;
+
+    private int succeeded;
+
+    private int failed;
+
+    private final int maxReportedFailures;
+
+    private final List<Failure> failures = new ArrayList<>();
+
+    public BulkResult(int received) {
+        this(received, Integer.MAX_VALUE);
+    }
+
+    public BulkResult(int received, int maxReportedFailures) {
+        this.received = received;
+        this.maxReportedFailures = maxReportedFailures;
+    }
+
+    public int getReceived() {
+        return received;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    public void addReceived(int count) {
+        this.received += count;
+    }
+
+    public void addSucceeded(int count) {
+        this.succeeded += count;
+    }
+
+    public void addFailure(int index, String reason) {
+        this.failed++;
+        if (this.failures.size() < this.maxReportedFailures) this.failures.add(new Failure(index, reason));
+    }
+}
@@ -0,0 +1,24 @@
+package com.welberth.gymboapi.dtos;
+
+/**
+ * Body of an error answered by ApiExceptionHandler.
+ */
+public class ErrorResponse {
+
+    private final int status;
+
+    private final String message;
+
+    public ErrorResponse(int status, String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,59 @@
+package com.welberth.gymboapi.dtos;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * A committed change to a member, as pushed by the change feed (MemberChangeFeed). planId and paidUntil are the
+ * subscription after the change, both null once the member unsubscribed or was deleted; previousPlanId is the plan
+ * the member was on before, when the change moved it. UPDATED (password or email) carries no subscription.
+ */
+public class MemberChange {
+
+    public enum Type { SUBSCRIBED, UNSUBSCRIBED, UPDATED, DELETED }
+
+    private final Type type;
+
+    private final Long userId;
+
+    private final Long planId;
+
+    private final Long previousPlanId;
+
+    private final LocalDate paidUntil;
+
+    private final Instant changedAt;
+
+    public MemberChange(Type type, Long userId, Long planId, Long previousPlanId, LocalDate paidUntil) {
+        this.type = type;
+        this.userId = userId;
+        this.planId = planId;
+        this.previousPlanId = previousPlanId;
+        this.paidUntil = paidUntil;
+        this.changedAt = Instant.now();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getPlanId() {
+        return planId;
+    }
+
+    public Long getPreviousPlanId() {
+        return previousPlanId;
+    }
+
+    public LocalDate getPaidUntil() {
+        return paidUntil;
+    }
+
+    public Instant getChangedAt() {
+        return changedAt;
+    }
+}
@@ -0,0 +1,31 @@
+package com.welberth.gymboapi.dtos;
+
+/**
+ * A member found by the member search (MemberSearchService), as it was last indexed.
+ */
+public class MemberMatch {
+
+    private final Long id;
+
+    private final String username;
+
+    private final String email;
+
+    public MemberMatch(Long id, String username, String email) {
+        this.id = id;
+        this.username = username;
+        this.email = email;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
@@ -0,0 +1,34 @@
+package com.welberth.gymboapi.dtos;
+
+import java.util.List;
+
+/**
+ * A page of members matching a search, best match first. Total counts every match, not only the page;
+ * when truncated the search stopped at gymbo.search.max-candidates and total is a lower bound.
+ */
+public class MemberSearchResponse {
+
+    private final List<MemberMatch> matches;
+
+    private final int total;
+
+    private final boolean truncated;
+
+    public MemberSearchResponse(List<MemberMatch> matches, int total, boolean truncated) {
+        this.matches = matches;
+        this.total = total;
+        this.truncated = truncated;
+    }
+
+    public List<MemberMatch> getMatches() {
+        return matches;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
@@ -0,0 +1,26 @@
+package com.welberth.gymboapi.dtos;
+
+import java.time.Instant;
+
+/**
+ * Estimated occupancy: distinct members let in since an instant (gymbo.checkin.occupancy-window ago).
+ */
+public class OccupancyResponse {
+
+    private final Instant since;
+
+    private final long members;
+
+    public OccupancyResponse(Instant since, long members) {
+        this.since = since;
+        this.members = members;
+    }
+
+    public Instant getSince() {
+        return since;
+    }
+
+    public long getMembers() {
+        return members;
+    }
+}
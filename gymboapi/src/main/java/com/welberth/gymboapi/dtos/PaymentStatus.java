@@ -0,0 +1,35 @@
+package com.welberth.gymboapi.dtos;
+
+import java.time.LocalDate;
+
+/**
+ * Read-only projection of the payment columns of a User: the plan it is subscribed to
+ * and until when it is paid. Built straight from the query, no entity is hydrated.
+ */
+public class PaymentStatus {
+
+    private final Long planId;
+
+    private final LocalDate paidUntil;
+
+    public PaymentStatus(Long planId, LocalDate paidUntil) {
+        this.planId = planId;
+        this.paidUntil = paidUntil;
+    }
+
+    public Long getPlanId() {
+        return planId;
+    }
+
+    public LocalDate getPaidUntil() {
+        return paidUntil;
+    }
+
+    /**
+     * @param today the date to check against
+     * @return true if the subscription is paid beyond today
+     */
+    public boolean isPaidAfter(LocalDate today) {
+        return paidUntil != null && paidUntil.isAfter(today);
+    }
+}
@@ -0,0 +1,44 @@
+package com.welberth.gymboapi.dtos;
+
+import com.welberth.gymboapi.models.Plan;
+
+/**
+ * What the API returns for a Plan: its own columns, never its members.
+ */
+public class PlanResponse {
+
+    private final Long id;
+
+    private final String title;
+
+    private final String description;
+
+    private final Float monthlyPrice;
+
+    public PlanResponse(Long id, String title, String description, Float monthlyPrice) {
+        this.id = id;
+        this.title = title;
+        this.description = description;
+        this.monthlyPrice = monthlyPrice;
+    }
+
+    public static PlanResponse from(Plan plan) {
+        return new PlanResponse(plan.getId(), plan.getTitle(), plan.getDescription(), plan.getMonthlyPrice());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public Float getMonthlyPrice() {
+        return monthlyPrice;
+    }
+}
@@ -0,0 +1,69 @@
+package com.welberth.gymboapi.dtos;
+
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.PlanStats;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+
+/**
+ * What the API returns for the stats of a Plan. Monthly revenue is what the active members pay at the current
+ * monthly price.
+ */
+public class PlanStatsResponse {
+
+    private final Long planId;
+
+    private final long members;
+
+    private final long activeMembers;
+
+    private final long lapsedMembers;
+
+    private final BigDecimal monthlyRevenue;
+
+    private final Instant reconciledAt;
+
+    public PlanStatsResponse(Long planId, long members, long activeMembers, long lapsedMembers,
+                             BigDecimal monthlyRevenue, Instant reconciledAt) {
+        this.planId = planId;
+        this.members = members;
+        this.activeMembers = activeMembers;
+        this.lapsedMembers = lapsedMembers;
+        this.monthlyRevenue = monthlyRevenue;
+        this.reconciledAt = reconciledAt;
+    }
+
+    public static PlanStatsResponse from(Plan plan, PlanStats stats) {
+        long active = Math.max(0, stats.getMemberCount() - stats.getLapsedCount());
+        BigDecimal price = plan.getMonthlyPrice() == null ? BigDecimal.ZERO : new BigDecimal(plan.getMonthlyPrice().toString());
+
+        return new PlanStatsResponse(plan.getId(), stats.getMemberCount(), active, stats.getLapsedCount(),
+                price.multiply(BigDecimal.valueOf(active)).setScale(2, RoundingMode.HALF_UP), stats.getReconciledAt());
+    }
+
+    public Long getPlanId() {
+        return planId;
+    }
+
+    public long getMembers() {
+        return members;
+    }
+
+    public long getActiveMembers() {
+        return activeMembers;
+    }
+
+    public long getLapsedMembers() {
+        return lapsedMembers;
+    }
+
+    public BigDecimal getMonthlyRevenue() {
+        return monthlyRevenue;
+    }
+
+    public Instant getReconciledAt() {
+        return reconciledAt;
+    }
+}
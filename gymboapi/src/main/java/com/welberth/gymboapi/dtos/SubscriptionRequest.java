@@ -0,0 +1,47 @@
+package com.welberth.gymboapi.dtos;
+
+import java.time.LocalDate;
+
+/**
+ * One row of a bulk subscription: subscribes the user to the plan, paid until the given date.
+ */
+public class SubscriptionRequest {
+
+    private Long userId;
+
+    private Long planId;
+
+    private LocalDate paidUntil;
+
+    public SubscriptionRequest() { }
+
+    public SubscriptionRequest(Long userId, Long planId, LocalDate paidUntil) {
+        this.userId = userId;
+        this.planId = planId;
+        this.paidUntil = paidUntil;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Long getPlanId() {
+        return planId;
+    }
+
+    public void setPlanId(Long planId) {
+        this.planId = planId;
+    }
+
+    public LocalDate getPaidUntil() {
+        return paidUntil;
+    }
+
+    public void setPaidUntil(LocalDate paidUntil) {
+        this.paidUntil = paidUntil;
+    }
+}
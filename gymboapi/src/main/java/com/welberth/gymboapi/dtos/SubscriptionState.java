@@ -0,0 +1,25 @@
+package com.welberth.gymboapi.dtos;
+
+/**
+ * The plan of a User at a given row version, read before a conditional update so the move between
+ * plans can be applied to the plan stats.
+ */
+public class SubscriptionState {
+
+    private final Long planId;
+
+    private final Long version;
+
+    public SubscriptionState(Long planId, Long version) {
+        this.planId = planId;
+        this.version = version;
+    }
+
+    public Long getPlanId() {
+        return planId;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+}
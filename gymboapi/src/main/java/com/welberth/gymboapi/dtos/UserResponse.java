@@ -0,0 +1,61 @@
+package com.welberth.gymboapi.dtos;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+
+import java.time.LocalDate;
+
+/**
+ * What the API returns for a User. Built straight from a query (see UserRepository), it carries the plan
+ * as an id only, so serializing a user never touches the Plan entity or its roster.
+ * Clients can ask for a subset of the fields with ?fields=..., applied through the FIELDS_FILTER.
+ */
+@JsonFilter(UserResponse.FIELDS_FILTER)
+public class UserResponse {
+
+    public static final String FIELDS_FILTER = "userFields";
+
+    private final Long id;
+
+    private final String username;
+
+    private final String email;
+
+    private final Long planId;
+
+    private final LocalDate paidUntil;
+
+    private final long gymId;
+
+    public UserResponse(Long id, String username, String email, Long planId, LocalDate paidUntil, long gymId) {
+        this.id = id;
+        this.username = username;
+        this.email = email;
+        this.planId = planId;
+        this.paidUntil = paidUntil;
+        this.gymId = gymId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Long getPlanId() {
+        return planId;
+    }
+
+    public LocalDate getPaidUntil() {
+        return paidUntil;
+    }
+
+    public long getGymId() {
+        return gymId;
+    }
+}
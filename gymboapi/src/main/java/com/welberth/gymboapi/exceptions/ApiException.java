@@ -1,8 +1,26 @@
 package com.welberth.gymboapi.exceptions;
 
+import org.springframework.http.HttpStatus;
+
+/**
+ * An error the API answers with a status of its own (see ApiExceptionHandler), 500 unless a subclass says otherwise.
+ * These are expected outcomes (a miss, a conflict), so they don't fill in a stack trace: that is most of
+ * the cost of throwing, and a scanner probing missing members would pay it on every request.
+ */
 public class ApiException extends RuntimeException {
 
     public ApiException(String message) {
-        super(message);
+        super(message, null, false, false);
+    }
+
+    public ApiException(String message, Throwable cause) {
+        super(message, cause, false, false);
+    }
+
+    /**
+     * @return the status the API answers with
+     */
+    public HttpStatus getStatus() {
+        return HttpStatus.INTERNAL_SERVER_ERROR;
     }
 }
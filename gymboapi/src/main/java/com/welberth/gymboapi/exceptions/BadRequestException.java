@@ -0,0 +1,18 @@
+package com.welberth.gymboapi.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when a request is missing something or can't be read. Answered as 400, retrying it as is won't help.
+ */
+public class BadRequestException extends ApiException {
+
+    public BadRequestException(String message) {
+        super(message);
+    }
+
+    @Override
+    public HttpStatus getStatus() {
+        return HttpStatus.BAD_REQUEST;
+    }
+}
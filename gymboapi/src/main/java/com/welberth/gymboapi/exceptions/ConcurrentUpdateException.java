@@ -0,0 +1,12 @@
+package com.welberth.gymboapi.exceptions;
+
+/**
+ * Thrown when a conditional update finds the row at another version than the caller read:
+ * someone else changed it in between. Answered as 409, the caller should reload and retry.
+ */
+public class ConcurrentUpdateException extends ConflictException {
+
+    public ConcurrentUpdateException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,23 @@
+package com.welberth.gymboapi.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when a write clashes with the current state of the data, e.g. deleting a row others still refer to.
+ * Answered as 409.
+ */
+public class ConflictException extends ApiException {
+
+    public ConflictException(String message) {
+        super(message);
+    }
+
+    public ConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public HttpStatus getStatus() {
+        return HttpStatus.CONFLICT;
+    }
+}
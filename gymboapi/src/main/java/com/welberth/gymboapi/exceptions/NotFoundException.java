@@ -0,0 +1,38 @@
+package com.welberth.gymboapi.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when a row looked up by a key doesn't exist. Answered as 404. The message is only built when read,
+ * a miss handled internally (e.g. a check-in of an unknown member) allocates nothing but the exception.
+ */
+public class NotFoundException extends ApiException {
+
+    private final String resource;
+
+    private final String key;
+
+    private final Object value;
+
+    /**
+     * @param resource what was looked up, e.g. User
+     * @param key what it was looked up by, e.g. id
+     * @param value of the key
+     */
+    public NotFoundException(String resource, String key, Object value) {
+        super(null);
+        this.resource = resource;
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Could not find a " + this.resource + " with " + this.key + " = " + this.value;
+    }
+
+    @Override
+    public HttpStatus getStatus() {
+        return HttpStatus.NOT_FOUND;
+    }
+}
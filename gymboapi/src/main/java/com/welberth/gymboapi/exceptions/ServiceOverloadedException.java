@@ -0,0 +1,16 @@
+package com.welberth.gymboapi.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when the service is at its concurrency limit, answered as 503 so clients back off and retry.
+ * Stackless and without a cause, so throwers keep one preallocated instance per message.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceOverloadedException extends RuntimeException {
+
+    public ServiceOverloadedException(String message) {
+        super(message, null, false, false); // expected under load, no stack trace to fill
+    }
+}
@@ -0,0 +1,20 @@
+package com.welberth.gymboapi.exceptions;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when the payment changes since a snapshot version can no longer be served: they were pruned,
+ * there are too many of them, or the version is unknown. Answered as 410, the caller should download
+ * the full snapshot again.
+ */
+public class SnapshotExpiredException extends ApiException {
+
+    public SnapshotExpiredException(String message) {
+        super(message);
+    }
+
+    @Override
+    public HttpStatus getStatus() {
+        return HttpStatus.GONE;
+    }
+}
@@ -0,0 +1,76 @@
+package com.welberth.gymboapi.execution;
+
+import com.welberth.gymboapi.exceptions.ServiceOverloadedException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds how many calls can be inside UserService at once. A call that can't get a permit within
+ * gymbo.admission.acquire-timeout fails right away with a 503, instead of queueing for a database
+ * connection until the client times out. Runs before the transaction advice, so a rejected call never
+ * takes a connection.
+ * <p>
+ * The streaming exports and importUsers are left out: they run at the pace of the client reading or uploading,
+ * so a few slow clients would hold every permit. Their database use is bounded by the connection pool instead.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class AdmissionControlAspect {
+
+    private static final ServiceOverloadedException OVERLOADED =
+            new ServiceOverloadedException("Too many concurrent requests, try again later.");
+
+    private final Semaphore permits;
+
+    private final int maxConcurrent;
+
+    private final long acquireTimeoutNanos;
+
+    private final Counter rejected;
+
+    public AdmissionControlAspect(@Value("${gymbo.admission.max-concurrent}") int maxConcurrent,
+                                  @Value("${gymbo.admission.acquire-timeout}") Duration acquireTimeout,
+                                  MeterRegistry meterRegistry) {
+        this.permits = new Semaphore(maxConcurrent);
+        this.maxConcurrent = maxConcurrent;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.rejected = Counter.builder("gymbo.admission.rejected")
+                .description("Calls rejected because UserService was at its concurrency limit")
+                .register(meterRegistry);
+
+        Gauge.builder("gymbo.admission.in.flight", this, aspect -> aspect.maxConcurrent - aspect.permits.availablePermits())
+                .description("Calls currently inside UserService")
+                .register(meterRegistry);
+    }
+
+    @Around("within(com.welberth.gymboapi.services.UserService)"
+            + " && !execution(* com.welberth.gymboapi.services.UserService.stream*(..))"
+            + " && !execution(* com.welberth.gymboapi.services.UserService.importUsers(..))")
+    public Object admit(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (!this.permits.tryAcquire(this.acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+            this.rejected.increment();
+            throw OVERLOADED;
+        }
+
+        try {
+            return joinPoint.proceed();
+        } finally {
+            this.permits.release();
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.welberth.gymboapi.execution;
+
+import com.welberth.gymboapi.exceptions.ServiceOverloadedException;
+import com.welberth.gymboapi.models.CheckIn;
+import com.welberth.gymboapi.models.CheckInResult;
+import com.welberth.gymboapi.sharding.ShardContext;
+import com.welberth.gymboapi.sharding.ShardRouter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Group commit write path for check-ins. Callers only append to a bounded in-memory queue and return;
+ * a single flusher thread inserts whatever accumulated as one transaction of JDBC batches, as soon as
+ * gymbo.checkin.batch-size entries are waiting or gymbo.checkin.flush-interval has passed. When the
+ * queue is full (the database is slow or down) appends fail right away with a 503 instead of blocking.
+ * <p>
+ * Durability (gymbo.checkin.durability):
+ * <ul>
+ *     <li>BUFFERED - acknowledged once queued. A crash loses what was not flushed yet, a graceful shutdown flushes it.</li>
+ *     <li>JOURNALED - also appended to a local journal segment before acknowledging (a page cache write, no fsync).
+ *     Each flush closes the segment holding exactly the entries it drained and deletes it once they are committed.
+ *     Segments left by a crashed process are replayed at startup, so entries survive a crash of the process
+ *     (not of the host); a crash between commit and delete replays that one group twice.</li>
+ * </ul>
+ * When members are sharded a group is split by the shard of each member, one transaction per shard; a retry
+ * only writes the shards that didn't commit yet. A group that fails with anything but a DataAccessException
+ * (which a retry won't fix) is logged and dropped so the flusher keeps going; its journal segment is renamed
+ * to .failed, kept for inspection but not replayed.
+ */
+@Component
+public class CheckInWriter {
+
+    public enum Durability { BUFFERED, JOURNALED }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CheckInWriter.class);
+
+    private static final String INSERT_SQL = "insert into " + CheckIn.TABLE_NAME + " (user_id, checked_in_at, result) values (?, ?, ?)";
+
+    private static final String SEGMENT_PREFIX = "checkin-";
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final String FAILED_SUFFIX = ".failed";
+
+    private static final int ENTRY_BYTES = 17; // user id, epoch micros, result ordinal
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private static final CheckInResult[] RESULTS = CheckInResult.values();
+
+    private static final ServiceOverloadedException QUEUE_FULL =
+            new ServiceOverloadedException("Too many check-ins waiting to be written, try again later.");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ShardRouter shardRouter;
+
+    private final Durability durability;
+
+    private final Path journalDir;
+
+    private final int capacity;
+
+    private final int batchSize;
+
+    private final long flushIntervalNanos;
+
+    private final Object lock = new Object();
+
+    private final ArrayDeque<CheckIn> queue; // guarded by lock
+
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES); // guarded by lock
+
+    private FileChannel segment; // guarded by lock, opened on the first append
+
+    private Path segmentPath; // guarded by lock
+
+    private long nextSegment; // guarded by lock
+
+    private volatile boolean running;
+
+    private Thread flusher;
+
+    private final Counter rejected;
+
+    private final Counter failed;
+
+    private final DistributionSummary groupSize;
+
+    private final Timer flushTimer;
+
+    public CheckInWriter(JdbcTemplate jdbcTemplate,
+                         TransactionTemplate transactionTemplate,
+                         ShardRouter shardRouter,
+                         MeterRegistry meterRegistry,
+                         @Value("${gymbo.checkin.durability}") Durability durability,
+                         @Value("${gymbo.checkin.journal-dir}") Path journalDir,
+                         @Value("${gymbo.checkin.queue-capacity}") int capacity,
+                         @Value("${gymbo.checkin.batch-size}") int batchSize,
+                         @Value("${gymbo.checkin.flush-interval}") Duration flushInterval) throws IOException {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.durability = durability;
+        this.journalDir = journalDir;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.queue = new ArrayDeque<>(capacity);
+
+        if (durability == Durability.JOURNALED) {
+            Files.createDirectories(journalDir);
+            this.nextSegment = segments().stream().mapToLong(CheckInWriter::segmentNumber).max().orElse(0) + 1;
+        }
+
+        this.rejected = Counter.builder("gymbo.checkin.rejected")
+                .description("Check-ins rejected because the write queue was full")
+                .register(meterRegistry);
+        this.failed = Counter.builder("gymbo.checkin.failed")
+                .description("Check-ins dropped because their group failed with an error a retry won't fix")
+                .register(meterRegistry);
+        this.groupSize = DistributionSummary.builder("gymbo.checkin.group.size")
+                .description("Check-ins inserted per group commit")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("gymbo.checkin.flush")
+                .description("Time to insert and commit one group of check-ins")
+                .register(meterRegistry);
+        Gauge.builder("gymbo.checkin.queue.size", this, CheckInWriter::queued)
+                .description("Check-ins waiting for the next group commit")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Replays the journal segments left by a previous process, then starts the flusher thread.
+     *
+     * @throws IOException if a segment can't be read
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        if (this.durability == Durability.JOURNALED) replayJournal();
+
+        this.running = true;
+        this.flusher = new Thread(this::flushLoop, "checkin-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Stops the flusher once it has committed what is queued.
+     *
+     * @throws InterruptedException if interrupted while waiting for the last flush
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        this.running = false;
+        synchronized (this.lock) {
+            this.lock.notifyAll();
+        }
+        if (this.flusher != null) this.flusher.join();
+    }
+
+    /**
+     * Queues a check-in for the next group commit, journaling it first when JOURNALED. Never waits on the database.
+     *
+     * @param checkIn to record
+     * @throws ServiceOverloadedException when the queue is full
+     */
+    public void append(CheckIn checkIn) {
+        synchronized (this.lock) {
+            if (this.queue.size() >= this.capacity) {
+                this.rejected.increment();
+                throw QUEUE_FULL;
+            }
+            if (this.durability == Durability.JOURNALED) journal(checkIn);
+
+            this.queue.add(checkIn);
+            if (this.queue.size() == this.batchSize) this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return how many check-ins are waiting for the next group commit
+     */
+    public int queued() {
+        synchronized (this.lock) {
+            return this.queue.size();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<CheckIn> group;
+            Path closedSegment;
+            synchronized (this.lock) {
+                long deadline = System.nanoTime() + this.flushIntervalNanos;
+                long remaining = this.flushIntervalNanos;
+                while (this.running && this.queue.size() < this.batchSize && remaining > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this.lock, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        this.running = false;
+                    }
+                    remaining = deadline - System.nanoTime();
+                }
+                if (this.queue.isEmpty()) {
+                    if (this.running) continue;
+                    return;
+                }
+
+                // the closed segment holds exactly the entries of this group
+                group = new ArrayList<>(this.queue);
+                this.queue.clear();
+                closedSegment = closeSegment();
+            }
+            commit(group, closedSegment);
+        }
+    }
+
+    /**
+     * Inserts a group in one transaction, retrying while the database is unavailable, then drops its journal segment.
+     * Any other failure drops the group, so it can't stop the flusher.
+     */
+    private void commit(List<CheckIn> group, Path closedSegment) {
+        try {
+            Map<Integer, List<CheckIn>> pending = byShard(group);
+            while (true) {
+                try {
+                    this.flushTimer.record(() -> insert(pending));
+                    this.groupSize.record(group.size());
+                    break;
+                } catch (DataAccessException e) {
+                    if (!this.running) {
+                        LOGGER.error("Could not write {} check-ins on shutdown{}", group.size(),
+                                closedSegment != null ? ", they stay in " + closedSegment + " for the next start" : "", e);
+                        return;
+                    }
+                    LOGGER.warn("Could not write {} check-ins, retrying in {} ms", group.size(), RETRY_BACKOFF_MILLIS, e);
+                    try {
+                        Thread.sleep(RETRY_BACKOFF_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        this.running = false;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            this.failed.increment(group.size());
+            Path setAside = setAside(closedSegment);
+            LOGGER.error("Could not write {} check-ins, dropping them{}", group.size(),
+                    setAside != null ? ", they are kept in " + setAside : "", e);
+            return;
+        }
+
+        if (closedSegment != null) {
+            try {
+                Files.deleteIfExists(closedSegment);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete check-in journal segment {}", closedSegment, e);
+            }
+        }
+    }
+
+    /**
+     * Inserts the check-ins of each shard in one transaction, removing the shards from pending as they commit.
+     */
+    private void insert(Map<Integer, List<CheckIn>> pending) {
+        for (Iterator<Map.Entry<Integer, List<CheckIn>>> shards = pending.entrySet().iterator(); shards.hasNext(); ) {
+            Map.Entry<Integer, List<CheckIn>> shard = shards.next();
+            List<CheckIn> group = shard.getValue();
+
+            ShardContext.run(shard.getKey(), () -> this.transactionTemplate.executeWithoutResult(status -> {
+                for (int from = 0; from < group.size(); from += this.batchSize) {
+                    List<Object[]> rows = new ArrayList<>(Math.min(this.batchSize, group.size() - from));
+                    for (CheckIn checkIn : group.subList(from, Math.min(from + this.batchSize, group.size()))) {
+                        rows.add(new Object[] { checkIn.getUserId(), Timestamp.from(checkIn.getCheckedInAt()), checkIn.getResult().name() });
+                    }
+                    this.jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+                }
+            }));
+            shards.remove();
+        }
+    }
+
+    private Map<Integer, List<CheckIn>> byShard(List<CheckIn> group) {
+        return group.stream().collect(Collectors.groupingBy(checkIn -> this.shardRouter.shardOfUser(checkIn.getUserId()),
+                TreeMap::new, Collectors.toList()));
+    }
+
+    private void journal(CheckIn checkIn) {
+        try {
+            if (this.segment == null) {
+                this.segmentPath = this.journalDir.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, this.nextSegment++, SEGMENT_SUFFIX));
+                this.segment = FileChannel.open(this.segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+
+            this.entry.clear();
+            this.entry.putLong(checkIn.getUserId())
+                    .putLong(ChronoUnit.MICROS.between(Instant.EPOCH, checkIn.getCheckedInAt()))
+                    .put((byte) checkIn.getResult().ordinal())
+                    .flip();
+            while (this.entry.hasRemaining()) this.segment.write(this.entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal check-in", e);
+        }
+    }
+
+    /**
+     * Closes the current journal segment, the next append opens a new one.
+     *
+     * @return the closed segment, null when not journaling
+     */
+    private Path closeSegment() {
+        if (this.segment == null) return null;
+
+        Path closed = this.segmentPath;
+        try {
+            this.segment.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close check-in journal segment {}", closed, e);
+        }
+        this.segment = null;
+        this.segmentPath = null;
+        return closed;
+    }
+
+    /**
+     * Renames a journal segment so it is no longer replayed.
+     *
+     * @return the renamed segment, null when there was none or it could not be renamed
+     */
+    private static Path setAside(Path segment) {
+        if (segment == null) return null;
+
+        Path failed = segment.resolveSibling(segment.getFileName() + FAILED_SUFFIX);
+        try {
+            return Files.move(segment, failed);
+        } catch (IOException e) {
+            LOGGER.warn("Could not set aside check-in journal segment {}", segment, e);
+            return null;
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        for (Path path : segments()) {
+            List<CheckIn> replayed = new ArrayList<>();
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+            while (bytes.remaining() >= ENTRY_BYTES) { // a torn last entry is dropped
+                long userId = bytes.getLong();
+                Instant at = Instant.EPOCH.plus(bytes.getLong(), ChronoUnit.MICROS);
+                replayed.add(new CheckIn(userId, at, RESULTS[bytes.get()]));
+            }
+
+            if (!replayed.isEmpty()) insert(byShard(replayed));
+            Files.delete(path);
+            LOGGER.info("Replayed {} check-ins from journal segment {}", replayed.size(), path);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(this.journalDir)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,473 @@
+package com.welberth.gymboapi.feed;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.welberth.gymboapi.dtos.MemberChange;
+import com.welberth.gymboapi.utils.Transactions;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Server-Sent Events feed of member changes (GET /user/changes), so clients get renewals and cancellations pushed
+ * instead of polling the payment and plan endpoints. UserService publishes a change once its transaction commits;
+ * a rolled back write is never seen.
+ * <p>
+ * Each change is serialized once and handed to the subscribers it matches, found through indexes by member and
+ * by plan rather than by testing every connection. A subscriber owns a bounded buffer (gymbo.feed.buffer-size)
+ * drained by a small pool of sender threads with non-blocking servlet writes: a sender never waits on a client,
+ * the container calls back when a connection whose socket was full can take more. An idle connection holds no
+ * thread and no buffered events, and a client that can't keep up (its buffer fills, or a write stays pending past
+ * gymbo.feed.write-timeout) is disconnected instead of holding memory or slowing the others down.
+ * <p>
+ * Event ids are this instance's start time and a sequence number. The last gymbo.feed.history changes are kept,
+ * so a client reconnecting with Last-Event-ID (EventSource does it by itself) gets what it missed. When it missed
+ * more than that, or the id comes from another instance or a previous run, it gets a reset event instead and should
+ * read the state it follows again. Only the writes made through this instance are pushed.
+ */
+@Component
+public class MemberChangeFeed {
+
+    public static final String READY_EVENT = "ready";
+
+    public static final String RESET_EVENT = "reset";
+
+    private static final Event HEARTBEAT = new Event(":heartbeat\n\n", null);
+
+    private static final String CONTENT_TYPE = MediaType.TEXT_EVENT_STREAM_VALUE + ";charset=UTF-8";
+
+    private final ObjectMapper objectMapper;
+
+    private final int bufferSize;
+
+    private final long timeoutMillis;
+
+    private final long writeTimeoutNanos;
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final Object lock = new Object();
+
+    private final Event[] history; // ring by sequence, guarded by lock
+
+    private long nextSequence = 1; // guarded by lock
+
+    private final Set<Subscriber> subscribers = new HashSet<>(); // guarded by lock
+
+    private final Set<Subscriber> unfiltered = new HashSet<>(); // guarded by lock
+
+    private final Map<Long, Set<Subscriber>> byUser = new HashMap<>(); // guarded by lock
+
+    private final Map<Long, Set<Subscriber>> byPlan = new HashMap<>(); // guarded by lock
+
+    private final ExecutorService senders;
+
+    private final Counter dropped;
+
+    public MemberChangeFeed(ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${gymbo.feed.history}") int history,
+                            @Value("${gymbo.feed.buffer-size}") int bufferSize,
+                            @Value("${gymbo.feed.timeout}") Duration timeout,
+                            @Value("${gymbo.feed.write-timeout}") Duration writeTimeout,
+                            @Value("${gymbo.feed.senders}") int senders) {
+        this.objectMapper = objectMapper;
+        this.history = new Event[history];
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeout.toMillis();
+        this.writeTimeoutNanos = writeTimeout.toNanos();
+        this.senders = Executors.newFixedThreadPool(senders);
+
+        Gauge.builder("gymbo.feed.subscribers", this, feed -> feed.subscriberCount())
+                .description("Open change feed connections")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("gymbo.feed.dropped")
+                .description("Change feed connections closed because the client didn't keep up")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        List<Subscriber> open;
+        synchronized (this.lock) {
+            open = new ArrayList<>(this.subscribers);
+        }
+        open.forEach(this::complete);
+        this.senders.shutdown();
+    }
+
+    /**
+     * Opens a feed connection on the request, switched to asynchronous mode: the response stays open after the
+     * handler returns, written to by the sender threads.
+     *
+     * @param request the request, started asynchronously
+     * @param response the response the events are written to
+     * @param userIds members to follow, empty for any
+     * @param planIds plans to follow (members joining or leaving them too), empty for any
+     * @param lastEventId id of the last event the client received (Last-Event-ID), null on a first connection
+     * @throws IOException if the response can't be opened
+     */
+    public void subscribe(HttpServletRequest request, HttpServletResponse response,
+                          Set<Long> userIds, Set<Long> planIds, String lastEventId) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(this.timeoutMillis); // completed then, for the client to reconnect
+        Subscriber subscriber = new Subscriber(context, response.getOutputStream(), userIds, planIds, this.bufferSize);
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                close(subscriber);
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                complete(subscriber);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                complete(subscriber);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        synchronized (this.lock) {
+            String currentId = eventId(this.nextSequence - 1);
+            if (lastEventId == null) {
+                subscriber.buffer.offer(Event.named(currentId, READY_EVENT)); // gives the client an id to resume from
+            } else if (!replay(subscriber, lastEventId)) {
+                subscriber.buffer.clear();
+                subscriber.buffer.offer(Event.named(currentId, RESET_EVENT));
+            }
+            register(subscriber);
+        }
+        subscriber.out.setWriteListener(new WriteListener() {
+            @Override
+            public void onWritePossible() { // first once the listener is set, then after isReady returned false
+                subscriber.awaitingWrite = false;
+                schedule(subscriber);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                complete(subscriber);
+            }
+        });
+    }
+
+    /**
+     * Publishes a change once the current transaction commits, right away outside a transaction.
+     *
+     * @param change the change
+     */
+    public void publish(MemberChange change) {
+        Transactions.afterCommit(() -> append(change));
+    }
+
+    /**
+     * Sends a comment to every connection (gymbo.feed.heartbeat-interval), so proxies keep idle connections open
+     * and the ones the client closed are noticed. Connections with a write pending for longer than
+     * gymbo.feed.write-timeout are dropped instead.
+     */
+    @Scheduled(fixedDelayString = "${gymbo.feed.heartbeat-interval}", initialDelayString = "${gymbo.feed.heartbeat-interval}")
+    public void heartbeat() {
+        List<Subscriber> open;
+        synchronized (this.lock) {
+            open = new ArrayList<>(this.subscribers);
+        }
+        long now = System.nanoTime();
+        for (Subscriber subscriber : open) {
+            if (subscriber.awaitingWrite && now - subscriber.awaitingSince > this.writeTimeoutNanos) {
+                drop(subscriber);
+            } else if (subscriber.buffer.isEmpty() && subscriber.buffer.offer(HEARTBEAT)) {
+                schedule(subscriber);
+            }
+        }
+    }
+
+    int subscriberCount() {
+        synchronized (this.lock) {
+            return this.subscribers.size();
+        }
+    }
+
+    private void append(MemberChange change) {
+        String data;
+        try {
+            data = this.objectMapper.writeValueAsString(change);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<Subscriber> recipients = new ArrayList<>();
+        List<Subscriber> overflowed = new ArrayList<>();
+        synchronized (this.lock) {
+            long sequence = this.nextSequence++;
+            Event event = new Event("id:" + eventId(sequence) + "\ndata:" + data + "\n\n", change);
+            this.history[(int) (sequence % this.history.length)] = event;
+
+            offer(this.unfiltered, sequence, event, recipients, overflowed);
+            offer(this.byUser.get(change.getUserId()), sequence, event, recipients, overflowed);
+            offer(this.byPlan.get(change.getPlanId()), sequence, event, recipients, overflowed);
+            offer(this.byPlan.get(change.getPreviousPlanId()), sequence, event, recipients, overflowed);
+            overflowed.forEach(this::unregister);
+        }
+
+        recipients.forEach(this::schedule);
+        overflowed.forEach(this::drop);
+    }
+
+    private void offer(Set<Subscriber> matching, long sequence, Event event, List<Subscriber> recipients, List<Subscriber> overflowed) {
+        if (matching == null) return;
+
+        for (Subscriber subscriber : matching) {
+            if (subscriber.lastOffered == sequence) continue; // matched by member and by plan
+            subscriber.lastOffered = sequence;
+
+            if (subscriber.buffer.offer(event)) {
+                recipients.add(subscriber);
+            } else {
+                overflowed.add(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Queues the changes after lastEventId that the subscriber follows, when they are all still in the history
+     * and fit in its buffer.
+     *
+     * @return false when the client must be reset instead
+     */
+    private boolean replay(Subscriber subscriber, String lastEventId) {
+        int separator = lastEventId.lastIndexOf('-');
+        if (separator < 0 || !lastEventId.substring(0, separator).equals(this.epoch)) return false;
+
+        long last;
+        try {
+            last = Long.parseLong(lastEventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        long oldest = Math.max(1, this.nextSequence - this.history.length);
+        if (last < oldest - 1 || last >= this.nextSequence) return false;
+
+        for (long sequence = last + 1; sequence < this.nextSequence; sequence++) {
+            Event event = this.history[(int) (sequence % this.history.length)];
+            if (subscriber.follows(event.change) && !subscriber.buffer.offer(event)) return false;
+        }
+        return true;
+    }
+
+    private void register(Subscriber subscriber) {
+        this.subscribers.add(subscriber);
+        if (subscriber.userIds.isEmpty() && subscriber.planIds.isEmpty()) this.unfiltered.add(subscriber);
+        subscriber.userIds.forEach(id -> this.byUser.computeIfAbsent(id, key -> new HashSet<>()).add(subscriber));
+        subscriber.planIds.forEach(id -> this.byPlan.computeIfAbsent(id, key -> new HashSet<>()).add(subscriber));
+    }
+
+    private void unregister(Subscriber subscriber) {
+        if (!this.subscribers.remove(subscriber)) return;
+
+        this.unfiltered.remove(subscriber);
+        subscriber.userIds.forEach(id -> removeFrom(this.byUser, id, subscriber));
+        subscriber.planIds.forEach(id -> removeFrom(this.byPlan, id, subscriber));
+    }
+
+    private static void removeFrom(Map<Long, Set<Subscriber>> index, Long id, Subscriber subscriber) {
+        Set<Subscriber> matching = index.get(id);
+        if (matching != null && matching.remove(subscriber) && matching.isEmpty()) index.remove(id);
+    }
+
+    /**
+     * Disconnects a client that doesn't keep up; it reconnects and resumes from the history.
+     */
+    private void drop(Subscriber subscriber) {
+        this.dropped.increment();
+        complete(subscriber);
+    }
+
+    /**
+     * Ends the response. A write still pending on the socket is left to the connector's timeouts.
+     */
+    private void complete(Subscriber subscriber) {
+        if (!close(subscriber)) return;
+
+        try {
+            subscriber.context.complete();
+        } catch (IllegalStateException e) { // the container completed it first
+        }
+    }
+
+    /**
+     * @return false when the connection was already closed
+     */
+    private boolean close(Subscriber subscriber) {
+        synchronized (subscriber) { // waits for a write in progress, see write
+            if (subscriber.closed) return false;
+            subscriber.closed = true;
+        }
+        remove(subscriber);
+        return true;
+    }
+
+    private void remove(Subscriber subscriber) {
+        synchronized (this.lock) {
+            unregister(subscriber);
+        }
+        subscriber.buffer.clear();
+    }
+
+    private String eventId(long sequence) {
+        return this.epoch + "-" + sequence;
+    }
+
+    /**
+     * Drains the subscriber's buffer on a sender thread, unless a drain is already under way or the connection
+     * waits for the container to call back.
+     */
+    private void schedule(Subscriber subscriber) {
+        if (!subscriber.awaitingWrite && subscriber.draining.compareAndSet(false, true)) {
+            this.senders.execute(() -> drain(subscriber));
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        try {
+            write(subscriber);
+        } catch (IOException | IllegalStateException e) { // the client went away, or the response already completed
+            complete(subscriber);
+            return;
+        } finally {
+            subscriber.draining.set(false);
+        }
+        // offered after the last poll, or the container called back while the drain was under way
+        if (!subscriber.closed && (!subscriber.buffer.isEmpty() || subscriber.unflushed)) schedule(subscriber);
+    }
+
+    /**
+     * Writes the buffered events and flushes them, for as long as the connection takes them without blocking.
+     * When it doesn't, the container calls onWritePossible once the socket drained. The connection is marked as
+     * waiting before each isReady call, not after a false one: the container may call back (and clear the mark)
+     * before isReady even returned.
+     * <p>
+     * Holds the subscriber while writing: the container recycles the response (and hands it to another request)
+     * once the completion, timeout or error callback returned, so that callback must wait for a write in progress,
+     * which never blocks.
+     */
+    private static void write(Subscriber subscriber) throws IOException {
+        synchronized (subscriber) {
+            if (subscriber.closed) return;
+
+            ServletOutputStream out = subscriber.out;
+            while (true) {
+                subscriber.awaitingSince = System.nanoTime();
+                subscriber.awaitingWrite = true;
+                if (!out.isReady()) return; // cleared by onWritePossible
+                subscriber.awaitingWrite = false;
+
+                Event event = subscriber.buffer.poll();
+                if (event != null) {
+                    out.write(event.bytes);
+                    subscriber.unflushed = true;
+                } else if (subscriber.unflushed) {
+                    subscriber.unflushed = false;
+                    out.flush();
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * One event as written to the stream: a change (no name, JSON data), a ready or reset event, or a heartbeat.
+     */
+    private static final class Event {
+
+        private final byte[] bytes;
+
+        private final MemberChange change; // kept for the replays
+
+        private Event(String text, MemberChange change) {
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+            this.change = change;
+        }
+
+        private static Event named(String id, String name) {
+            return new Event("id:" + id + "\nevent:" + name + "\ndata:\n\n", null);
+        }
+    }
+
+    private static final class Subscriber {
+
+        private final AsyncContext context;
+
+        private final ServletOutputStream out;
+
+        private final Set<Long> userIds;
+
+        private final Set<Long> planIds;
+
+        private final BlockingQueue<Event> buffer; // linked: an idle connection holds no array
+
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private volatile boolean awaitingWrite = true; // until the container calls onWritePossible
+
+        private volatile long awaitingSince = System.nanoTime();
+
+        private volatile boolean unflushed; // written holding this
+
+        private long lastOffered; // guarded by the feed's lock
+
+        private volatile boolean closed; // written holding this
+
+        private Subscriber(AsyncContext context, ServletOutputStream out, Set<Long> userIds, Set<Long> planIds, int bufferSize) {
+            this.context = context;
+            this.out = out;
+            this.userIds = userIds;
+            this.planIds = planIds;
+            this.buffer = new LinkedBlockingQueue<>(bufferSize);
+        }
+
+        private boolean follows(MemberChange change) {
+            return (this.userIds.isEmpty() && this.planIds.isEmpty())
+                    || this.userIds.contains(change.getUserId())
+                    || (change.getPlanId() != null && this.planIds.contains(change.getPlanId()))
+                    || (change.getPreviousPlanId() != null && this.planIds.contains(change.getPreviousPlanId()));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.welberth.gymboapi.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Records how many SQL statements each request ran, per endpoint, as the gymbo.db.queries.per.request
+ * distribution. A p99 that grows with the data size is an N+1.
+ */
+@Component
+public class QueryCountFilter extends OncePerRequestFilter {
+
+    public static final String METRIC_NAME = "gymbo.db.queries.per.request";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        QueryCounter.start();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            int queries = QueryCounter.stop();
+            Object uri = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+            DistributionSummary.builder(METRIC_NAME)
+                    .description("SQL statements run by a request")
+                    .tag("uri", uri != null ? uri.toString() : "UNKNOWN")
+                    .register(this.meterRegistry)
+                    .record(queries);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.welberth.gymboapi.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread, between start() and stop().
+ * Registered as Hibernate's statement inspector, see MetricsConfig.
+ */
+public class QueryCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> COUNT = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        int[] count = COUNT.get();
+        if (count != null) count[0]++;
+
+        return sql;
+    }
+
+    /**
+     * Starts counting on the current thread.
+     */
+    public static void start() {
+        COUNT.set(new int[1]);
+    }
+
+    /**
+     * Stops counting on the current thread.
+     *
+     * @return number of statements since start()
+     */
+    public static int stop() {
+        int[] count = COUNT.get();
+        COUNT.remove();
+
+        return count == null ? 0 : count[0];
+    }
+}
@@ -0,0 +1,64 @@
+package com.welberth.gymboapi.models;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * A turnstile entry attempt, allowed or not. Inserted by CheckInWriter in group commits, never updated.
+ */
+@Entity
+@Table(name = CheckIn.TABLE_NAME, indexes = {
+        @Index(name = "idx_check_in_user", columnList = "user_id, checked_in_at"),
+        @Index(name = "idx_check_in_at", columnList = "checked_in_at, result, user_id")
+})
+public class CheckIn {
+
+    public static final String TABLE_NAME = "check_in";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "checked_in_at", nullable = false)
+    private Instant checkedInAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "result", length = 20, nullable = false)
+    private CheckInResult result;
+
+    public CheckIn() { }
+
+    public CheckIn(Long userId, Instant checkedInAt, CheckInResult result) {
+        this.userId = userId;
+        this.checkedInAt = checkedInAt;
+        this.result = result;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Instant getCheckedInAt() {
+        return checkedInAt;
+    }
+
+    public CheckInResult getResult() {
+        return result;
+    }
+}
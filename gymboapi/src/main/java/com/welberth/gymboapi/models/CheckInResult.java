@@ -0,0 +1,16 @@
+package com.welberth.gymboapi.models;
+
+/**
+ * What the turnstile was told for a check-in.
+ */
+public enum CheckInResult {
+
+    /** Subscribed and paid, let in. */
+    ALLOWED,
+
+    /** Subscribed but the paid until date has passed. */
+    PAYMENT_DUE,
+
+    /** Not subscribed to any plan, or not a member at all. */
+    NOT_SUBSCRIBED
+}
@@ -0,0 +1,76 @@
+package com.welberth.gymboapi.models;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * A member whose subscription is no longer paid, as found by the payment-expiry sweep
+ * or recorded when a past paid until date is written. Removed again when the member renews,
+ * unsubscribes or is deleted.
+ */
+@Entity
+@Table(name = LapsedMember.TABLE_NAME, indexes = @Index(name = "idx_lapsed_member_plan_id", columnList = "plan_id, user_id"))
+public class LapsedMember {
+
+    public static final String TABLE_NAME = "lapsed_member";
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "plan_id")
+    private Long planId;
+
+    @Column(name = "paid_until", nullable = false)
+    private LocalDate paidUntil;
+
+    @Column(name = "detected_at", nullable = false)
+    private Instant detectedAt;
+
+    public LapsedMember() { }
+
+    public LapsedMember(Long userId, Long planId, LocalDate paidUntil, Instant detectedAt) {
+        this.userId = userId;
+        this.planId = planId;
+        this.paidUntil = paidUntil;
+        this.detectedAt = detectedAt;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Long getPlanId() {
+        return planId;
+    }
+
+    public void setPlanId(Long planId) {
+        this.planId = planId;
+    }
+
+    public LocalDate getPaidUntil() {
+        return paidUntil;
+    }
+
+    public void setPaidUntil(LocalDate paidUntil) {
+        this.paidUntil = paidUntil;
+    }
+
+    public Instant getDetectedAt() {
+        return detectedAt;
+    }
+
+    public void setDetectedAt(Instant detectedAt) {
+        this.detectedAt = detectedAt;
+    }
+}
@@ -0,0 +1,62 @@
+package com.welberth.gymboapi.models;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * A change to the paid until date of a member, as published to the payment snapshot delta feed.
+ * A null paid until means the member left (unsubscribed or deleted). Written and read with JDBC
+ * by PaymentSnapshotService, mapped so the schema is validated with the rest.
+ */
+@Entity
+@Table(name = PaymentChange.TABLE_NAME, indexes = @Index(name = "idx_payment_change_version", columnList = "version, id"))
+public class PaymentChange {
+
+    public static final String TABLE_NAME = "payment_change";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "paid_until")
+    private LocalDate paidUntil;
+
+    @Column(name = "version")
+    private Long version;
+
+    @Column(name = "changed_at", nullable = false)
+    private Instant changedAt;
+
+    public PaymentChange() { }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public LocalDate getPaidUntil() {
+        return paidUntil;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public Instant getChangedAt() {
+        return changedAt;
+    }
+}
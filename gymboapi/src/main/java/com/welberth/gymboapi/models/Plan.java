@@ -1,5 +1,10 @@
 package com.welberth.gymboapi.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.Id;
 import javax.persistence.Entity;
 import javax.persistence.Table;
@@ -7,6 +12,8 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Column;
 import javax.persistence.OneToMany;
 import javax.persistence.GenerationType;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Version;
 
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
@@ -17,6 +24,7 @@ import java.util.Objects;
 
 @Entity
 @Table(name = Plan.TABLE_NAME)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Plan.CACHE_REGION) // resolves the plan of a cached User
 public class Plan {
     public interface CreatePlan { }
 
@@ -26,8 +34,12 @@ public class Plan {
 
     public static final String TABLE_NAME = "plan";
 
+    public static final String CACHE_REGION = "plan";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // pooled sequence (a sequence table on MySQL) so Hibernate can batch inserts, IDENTITY disables it
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "plan_id_seq")
+    @SequenceGenerator(name = "plan_id_seq", sequenceName = "plan_id_seq", allocationSize = 10)
     @Column(name = "id", unique = true)
     private Long id;
 
@@ -49,6 +61,12 @@ public class Plan {
     @Size(groups = {CreatePlan.class, UpdatePlan.class}, min = 1)
     private Float monthlyPrice;
 
+    @JsonIgnore
+    @Version // bumped by Hibernate on every update, the ETag of the row
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    @JsonIgnore // the roster can be huge, it is served paged/streamed by UserController instead
     @OneToMany(mappedBy = "plan") // User class property that maps which User has a said Plan
     private List<User> users = new ArrayList<User>();
 
@@ -93,6 +111,14 @@ public class Plan {
         this.monthlyPrice = monthlyPrice;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public List<User> getUsers() {
         return users;
     }
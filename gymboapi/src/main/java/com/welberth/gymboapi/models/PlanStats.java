@@ -0,0 +1,73 @@
+package com.welberth.gymboapi.models;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * Member counts of a plan, maintained incrementally by PlanStatsService. Lapsed members are the
+ * lapsed_member rows of the plan, every other member is active.
+ */
+@Entity
+@Table(name = PlanStats.TABLE_NAME)
+public class PlanStats {
+
+    public static final String TABLE_NAME = "plan_stats";
+
+    @Id
+    @Column(name = "plan_id")
+    private Long planId;
+
+    @Column(name = "member_count", nullable = false)
+    private Long memberCount;
+
+    @Column(name = "lapsed_count", nullable = false)
+    private Long lapsedCount;
+
+    @Column(name = "reconciled_at")
+    private Instant reconciledAt;
+
+    public PlanStats() { }
+
+    public PlanStats(Long planId, Long memberCount, Long lapsedCount, Instant reconciledAt) {
+        this.planId = planId;
+        this.memberCount = memberCount;
+        this.lapsedCount = lapsedCount;
+        this.reconciledAt = reconciledAt;
+    }
+
+    public Long getPlanId() {
+        return planId;
+    }
+
+    public void setPlanId(Long planId) {
+        this.planId = planId;
+    }
+
+    public Long getMemberCount() {
+        return memberCount;
+    }
+
+    public void setMemberCount(Long memberCount) {
+        this.memberCount = memberCount;
+    }
+
+    public Long getLapsedCount() {
+        return lapsedCount;
+    }
+
+    public void setLapsedCount(Long lapsedCount) {
+        this.lapsedCount = lapsedCount;
+    }
+
+    public Instant getReconciledAt() {
+        return reconciledAt;
+    }
+
+    public void setReconciledAt(Instant reconciledAt) {
+        this.reconciledAt = reconciledAt;
+    }
+}
@@ -0,0 +1,74 @@
+package com.welberth.gymboapi.models;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * High-water mark of an incremental sweep: the (paid_until, id) key of the last row it processed.
+ * The next run seeks past this key on the index instead of rescanning the table.
+ */
+@Entity
+@Table(name = SweepCheckpoint.TABLE_NAME)
+public class SweepCheckpoint {
+
+    public static final String TABLE_NAME = "sweep_checkpoint";
+
+    @Id
+    @Column(name = "name", length = 50)
+    private String name;
+
+    @Column(name = "paid_until", nullable = false)
+    private LocalDate paidUntil;
+
+    @Column(name = "last_id", nullable = false)
+    private Long lastId;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public SweepCheckpoint() { }
+
+    public SweepCheckpoint(String name, LocalDate paidUntil, Long lastId, Instant updatedAt) {
+        this.name = name;
+        this.paidUntil = paidUntil;
+        this.lastId = lastId;
+        this.updatedAt = updatedAt;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public LocalDate getPaidUntil() {
+        return paidUntil;
+    }
+
+    public void setPaidUntil(LocalDate paidUntil) {
+        this.paidUntil = paidUntil;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
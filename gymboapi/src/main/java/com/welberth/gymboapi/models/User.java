@@ -1,15 +1,25 @@
 package com.welberth.gymboapi.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.Id;
 import javax.persistence.Entity;
 import javax.persistence.Table;
+import javax.persistence.Index;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Column;
 import javax.persistence.ManyToOne;
 import javax.persistence.JoinColumn;
 import javax.persistence.GenerationType;
+import javax.persistence.Version;
 
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
@@ -19,7 +29,15 @@ import java.time.LocalDate;
 import java.util.Objects;
 
 @Entity
-@Table(name = User.TABLE_NAME)
+// the schema comes from the Flyway migrations (db/migration), the indexes are listed here for reference:
+// (paid_until, id) is the seek key of the payment-expiry sweep, (plan_id, id) of the plan member queries
+@Table(name = User.TABLE_NAME, indexes = {
+        @Index(name = "idx_user_paid_until", columnList = "paid_until, id"),
+        @Index(name = "idx_user_plan_id", columnList = "plan_id, id, paid_until")
+})
+// second-level cache (CacheConfig): rows changed by JDBC statements must go through UserRepository.invalidateCached
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.CACHE_REGION)
+@NaturalIdCache(region = User.USERNAME_CACHE_REGION)
 public class User {
     public interface CreateUser { }
 
@@ -29,11 +47,22 @@ public class User {
 
     public static final String TABLE_NAME = "user";
 
+    public static final String CACHE_REGION = "user";
+
+    public static final String USERNAME_CACHE_REGION = "user-by-username";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // pooled sequence (a sequence table on MySQL) so Hibernate can batch inserts, IDENTITY disables it.
+    // The shard the row is inserted on is encoded in the id, see ShardedSequenceGenerator
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_id_seq")
+    @GenericGenerator(name = "user_id_seq", strategy = "com.welberth.gymboapi.sharding.ShardedSequenceGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "user_id_seq"),
+            @Parameter(name = "increment_size", value = "50")
+    })
     @Column(name = "id", unique = true)
     private Long id;
 
+    @NaturalId // never updated, so username -> id stays cached until the user is deleted
     @Column(name = "username", length = 100, nullable = false, unique = true)
     @NotNull(groups = CreateUser.class)
     @NotEmpty(groups = CreateUser.class)
@@ -54,12 +83,20 @@ public class User {
     private String email;
 
     @ManyToOne // Many Users to One Plan
-    @JoinColumn(name = "plan_id", nullable = false)
+    @JoinColumn(name = "plan_id") // nullable, unsubscribing clears it
     private Plan plan;
 
     @Column(name = "paid_until")
     private LocalDate paidUntil;
 
+    @Column(name = "gym_id", nullable = false) // the shard key, see ShardRouter.shardOfGym
+    private long gymId;
+
+    @JsonIgnore
+    @Version // bumped by Hibernate on every update, the ETag of the row
+    @Column(name = "version", nullable = false)
+    private Long version;
+
     public User() { }
 
     public User(Long id, String username, String password, String email, Plan plan, LocalDate paidUntil) {
@@ -119,6 +156,22 @@ public class User {
         this.paidUntil = paidUntil;
     }
 
+    public long getGymId() {
+        return gymId;
+    }
+
+    public void setGymId(long gymId) {
+        this.gymId = gymId;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
@@ -138,6 +191,7 @@ public class User {
                 Objects.equals(this.password, other.password) &&
                 Objects.equals(this.email, other.email) &&
                 Objects.equals(this.plan, other.plan) &&
-                Objects.equals(this.paidUntil, other.paidUntil);
+                Objects.equals(this.paidUntil, other.paidUntil) &&
+                this.gymId == other.gymId;
     }
 }
@@ -0,0 +1,31 @@
+package com.welberth.gymboapi.repositories;
+
+import com.welberth.gymboapi.models.CheckIn;
+import com.welberth.gymboapi.models.CheckInResult;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Data Access layer for the CheckIn model. Inserts go through CheckInWriter, not through here.
+ */
+@Repository
+public interface CheckInRepository extends JpaRepository<CheckIn, Long> {
+
+    /**
+     * Keyset page of the check-ins of a member older than the cursor, newest first (idx_check_in_user).
+     */
+    List<CheckIn> findByUserIdAndCheckedInAtBeforeOrderByCheckedInAtDesc(Long userId, Instant before, Pageable pageable);
+
+    /**
+     * Distinct members with a check-in of the given result since an instant (idx_check_in_at, index only).
+     */
+    @Query("select count(distinct c.userId) from CheckIn c where c.checkedInAt >= :since and c.result = :result")
+    long countMembersSince(@Param("since") Instant since, @Param("result") CheckInResult result);
+}
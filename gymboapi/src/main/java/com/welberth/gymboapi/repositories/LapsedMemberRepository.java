@@ -0,0 +1,21 @@
+package com.welberth.gymboapi.repositories;
+
+import com.welberth.gymboapi.models.LapsedMember;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Data Access layer for the LapsedMember model.
+ */
+@Repository
+public interface LapsedMemberRepository extends JpaRepository<LapsedMember, Long> {
+
+    /**
+     * Keyset page of lapsed members: user ids greater than the cursor, in id order.
+     */
+    List<LapsedMember> findByUserIdGreaterThanOrderByUserId(Long afterId, Pageable pageable);
+}
@@ -0,0 +1,13 @@
+package com.welberth.gymboapi.repositories;
+
+import com.welberth.gymboapi.models.PlanStats;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Data Access layer for the PlanStats model.
+ */
+@Repository
+public interface PlanStatsRepository extends JpaRepository<PlanStats, Long> {
+}
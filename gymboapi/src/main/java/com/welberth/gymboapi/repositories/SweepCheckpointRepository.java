@@ -0,0 +1,23 @@
+package com.welberth.gymboapi.repositories;
+
+import com.welberth.gymboapi.models.SweepCheckpoint;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+/**
+ * Data Access layer for the SweepCheckpoint model.
+ */
+@Repository
+public interface SweepCheckpointRepository extends JpaRepository<SweepCheckpoint, String> {
+
+    /**
+     * Reads a checkpoint with a row lock (select ... for update), so only one instance sweeps at a time.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<SweepCheckpoint> findLockedByName(String name);
+}
@@ -1,21 +1,80 @@
 package com.welberth.gymboapi.repositories;
 
+import com.welberth.gymboapi.dtos.PaymentStatus;
+import com.welberth.gymboapi.dtos.UserResponse;
 import com.welberth.gymboapi.models.User;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Data Access layer for the User model.
  */
 @Repository
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
     // All main methods we need are already available by inheritance of JpaRepository
 
+    /**
+     * Members of a plan as entities. Runs in read-only transactions that may be served by the replica,
+     * so the users it loads are only read from the second-level cache, never put in it.
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheMode", value = "GET"))
     List<User> findByPlan_Id(Long id);
 
-    Optional<User> findByUsername(String username);
+    /**
+     * Selects a UserResponse straight from the user columns, the plan stays an id so no join is needed.
+     */
+    String SELECT_USER_RESPONSE = "select new com.welberth.gymboapi.dtos.UserResponse(u.id, u.username, u.email, u.plan.id, u.paidUntil, u.gymId) from User u";
+
+    @Query(SELECT_USER_RESPONSE + " where u.id = :id")
+    Optional<UserResponse> findResponseById(@Param("id") Long id);
+
+    @Query(SELECT_USER_RESPONSE + " where u.username = :username")
+    Optional<UserResponse> findResponseByUsername(@Param("username") String username);
+
+    @Query(SELECT_USER_RESPONSE + " where u.plan.id = :planId order by u.id")
+    List<UserResponse> findResponsesByPlanId(@Param("planId") Long planId);
+
+    /**
+     * Keyset page of the members of a plan: users with an id greater than the cursor, in id order.
+     * Only the Pageable size is used, the offset must stay 0 so the database can seek on the id.
+     */
+    @Query(SELECT_USER_RESPONSE + " where u.plan.id = :planId and u.id > :afterId order by u.id")
+    List<UserResponse> findResponsesByPlanId(@Param("planId") Long planId, @Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Streams the members of a plan in id order from a forward-only cursor.
+     * Must be consumed inside a transaction and closed afterwards.
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query(SELECT_USER_RESPONSE + " where u.plan.id = :planId order by u.id")
+    Stream<UserResponse> streamResponsesByPlanId(@Param("planId") Long planId);
+
+    /**
+     * Streams every user in id order from a forward-only cursor, same contract as streamResponsesByPlanId.
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query(SELECT_USER_RESPONSE + " order by u.id")
+    Stream<UserResponse> streamAllResponses();
+
+    /**
+     * Reads only the version of a user, by primary key - enough to answer a conditional GET.
+     */
+    @Query("select u.version from User u where u.id = :id")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    /**
+     * Reads only the plan_id and paid_until columns of a user, by primary key and without hydrating the entity.
+     */
+    @Query("select new com.welberth.gymboapi.dtos.PaymentStatus(u.plan.id, u.paidUntil) from User u where u.id = :id")
+    Optional<PaymentStatus> findPaymentStatusById(@Param("id") Long id);
 }
@@ -0,0 +1,31 @@
+package com.welberth.gymboapi.repositories;
+
+import com.welberth.gymboapi.models.User;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * UserRepository methods that go through the Hibernate session instead of a query,
+ * to work with the second-level cache (see UserRepositoryCustomImpl).
+ */
+public interface UserRepositoryCustom {
+
+    /**
+     * Finds a user by its natural id. Both username -> id and the user itself come from the
+     * second-level cache when present, so a repeated lookup runs no query.
+     *
+     * @param username for the user
+     * @return the user, empty if there is none with that username
+     */
+    Optional<User> findByUsername(String username);
+
+    /**
+     * Invalidates the cached state of users about to be changed by a JDBC statement, which Hibernate can't see.
+     * Must be called in the transaction of the update, before it: the entries are soft-locked until
+     * the transaction completes, so a concurrent load can't put the old row back meanwhile.
+     *
+     * @param userIds ids for the users
+     */
+    void invalidateCached(Collection<Long> userIds);
+}
@@ -0,0 +1,54 @@
+package com.welberth.gymboapi.repositories;
+
+import com.welberth.gymboapi.models.User;
+
+import org.hibernate.Session;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Second-level cache aware part of UserRepository, picked up by Spring Data through its Impl suffix.
+ */
+class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Optional<User> findByUsername(String username) {
+        return this.entityManager.unwrap(Session.class).bySimpleNaturalId(User.class).loadOptional(username);
+    }
+
+    @Override
+    public void invalidateCached(Collection<Long> userIds) {
+        SessionImplementor session = this.entityManager.unwrap(SessionImplementor.class);
+        EntityPersister persister = session.getFactory().getMetamodel().entityPersister(User.class);
+        if (!persister.canWriteToCache() || userIds.isEmpty()) return;
+
+        // the same soft locks Hibernate takes around its own updates: while locked an entry is a miss
+        // and can't be put back, on unlock only loads started after the commit can fill it again
+        EntityDataAccess cache = persister.getCacheAccessStrategy();
+        List<Object> keys = new ArrayList<>(userIds.size());
+        List<SoftLock> locks = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            Object key = cache.generateCacheKey(userId, persister, session.getFactory(), session.getTenantIdentifier());
+            keys.add(key);
+            locks.add(cache.lockItem(session, key, null));
+        }
+
+        session.getActionQueue().registerProcess((success, completedSession) -> {
+            for (int i = 0; i < keys.size(); i++) {
+                cache.unlockItem(completedSession, keys.get(i), locks.get(i));
+            }
+        });
+    }
+}
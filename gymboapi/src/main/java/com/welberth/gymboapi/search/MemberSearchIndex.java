@@ -0,0 +1,464 @@
+package com.welberth.gymboapi.search;
+
+import com.welberth.gymboapi.dtos.MemberMatch;
+import com.welberth.gymboapi.dtos.MemberSearchResponse;
+import com.welberth.gymboapi.snapshot.OffHeapLongIntMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory trigram index over the username and email of every member, for substring and prefix search.
+ * <p>
+ * Each member is indexed as one lower case text, BOUNDARY BOUNDARY username BOUNDARY BOUNDARY email, and every
+ * run of three characters of it (trigram) has a posting list: the sorted docs holding it. A query of three or more
+ * characters is answered by intersecting the postings of its trigrams, rarest first, then checking the text of each
+ * candidate really contains the query. Shorter queries are padded with BOUNDARY on the left, which only occurs
+ * before a username or an email, so they match prefixes only.
+ * <p>
+ * Members are spread over segments by user id, each with its own read-write lock, so writes only block the
+ * searches of one segment and the index can be loaded from several threads. A changed or removed member leaves a
+ * dead doc behind, a segment is compacted once a quarter of its docs are dead.
+ */
+public final class MemberSearchIndex {
+
+    static final char BOUNDARY = '\u0001';
+
+    private static final int GRAM = 3;
+
+    private static final double MAX_DEAD_RATIO = 0.25;
+
+    private static final int MIN_COMPACTED_DOCS = 1024;
+
+    private static final int MIN_DOCS = 16;
+
+    private static final int MAX_INTERSECTED = 3; // the commoner trigrams cost more to intersect than to check on the text
+
+    /*
+     * Match kinds, the better the higher. Members are ranked by kind, then shorter username, then lower id.
+     */
+
+    private static final int EXACT_USERNAME = 5;
+
+    private static final int USERNAME_PREFIX = 4;
+
+    private static final int EMAIL_PREFIX = 3;
+
+    private static final int USERNAME_SUBSTRING = 2;
+
+    private static final int EMAIL_SUBSTRING = 1;
+
+    private static final Comparator<Match> WORST_FIRST = Comparator.comparingLong((Match match) -> match.rank)
+            .thenComparing(match -> match.userId, Comparator.reverseOrder());
+
+    private final Segment[] segments;
+
+    /**
+     * @param segments how many independently locked parts the members are spread over
+     * @param expectedMembers members the index is sized for, it grows past that when needed
+     */
+    public MemberSearchIndex(int segments, int expectedMembers) {
+        this.segments = new Segment[segments];
+        for (int i = 0; i < segments; i++) {
+            this.segments[i] = new Segment(Math.max(MIN_DOCS, expectedMembers / segments));
+        }
+    }
+
+    /**
+     * Indexes a member, replacing what the index holds for it unless that is at the same or a later version.
+     * Versions let a full load race with the live writes: whichever saw the newer row wins.
+     *
+     * @param userId id for the user, positive
+     * @param version version of the row the username and email were read from
+     * @param username for the user
+     * @param email for the user
+     */
+    public void put(long userId, long version, String username, String email) {
+        segmentOf(userId).put(userId, version, username, email);
+    }
+
+    /**
+     * Removes a member, if indexed.
+     *
+     * @param userId id for the user
+     */
+    public void remove(long userId) {
+        segmentOf(userId).remove(userId);
+    }
+
+    /**
+     * @param userId id for the user
+     * @return the indexed username of the user, null when it isn't indexed
+     */
+    public String findUsername(long userId) {
+        return segmentOf(userId).findUsername(userId);
+    }
+
+    /**
+     * @return how many members are indexed
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Finds the members whose username or email contains the query (or starts with it, for queries under three
+     * characters), ignoring case, and returns a page of them by rank: exact username, username prefix, email prefix,
+     * username substring, email substring; then shorter username first, then lower id.
+     *
+     * @param query text to look for
+     * @param offset matches to skip
+     * @param limit maximum number of matches on the page
+     * @param maxCandidates stop after this many matches (spread over the segments), the result is then truncated
+     * @return the page of matches with the total count
+     */
+    public MemberSearchResponse search(String query, int offset, int limit, int maxCandidates) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) return new MemberSearchResponse(List.of(), 0, false);
+
+        String pattern = pad(normalized);
+        long[] grams = distinctGrams(pattern);
+        int perSegment = (int) Math.max(1, ((long) maxCandidates + this.segments.length - 1) / this.segments.length);
+        Collector collector = new Collector(offset + limit);
+        for (Segment segment : this.segments) {
+            segment.search(normalized, pattern, grams, perSegment, collector);
+        }
+
+        List<MemberMatch> matches = new ArrayList<>(collector.top.size());
+        while (!collector.top.isEmpty()) {
+            Match match = collector.top.poll();
+            matches.add(new MemberMatch(match.userId, match.username, match.email));
+        }
+        Collections.reverse(matches);
+        return new MemberSearchResponse(offset < matches.size() ? matches.subList(offset, matches.size()) : List.of(),
+                collector.total, collector.truncated);
+    }
+
+    private Segment segmentOf(long userId) {
+        long hash = userId * 0x9E3779B97F4A7C15L;
+        return this.segments[(int) ((hash >>> 32) % this.segments.length)];
+    }
+
+    static String normalize(String query) {
+        if (query == null) return "";
+
+        String normalized = query.trim().toLowerCase(Locale.ROOT);
+        return normalized.indexOf(BOUNDARY) < 0 ? normalized : normalized.replace(String.valueOf(BOUNDARY), "");
+    }
+
+    private static String pad(String query) {
+        if (query.length() >= GRAM) return query;
+
+        return String.valueOf(BOUNDARY).repeat(GRAM - query.length()) + query;
+    }
+
+    private static String text(String username, String email) {
+        return "" + BOUNDARY + BOUNDARY + normalize(username) + BOUNDARY + BOUNDARY + normalize(email);
+    }
+
+    private static long gram(String text, int at) {
+        return (long) text.charAt(at) << 32 | (long) text.charAt(at + 1) << 16 | text.charAt(at + 2);
+    }
+
+    private static long[] distinctGrams(String text) {
+        long[] grams = new long[text.length() - GRAM + 1];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = gram(text, i);
+        }
+        Arrays.sort(grams);
+
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) grams[distinct++] = grams[i];
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    /**
+     * Sorted docs holding a trigram. Docs are appended in increasing order, so adding keeps it sorted.
+     */
+    private static final class Postings {
+
+        private int[] docs = new int[4];
+
+        private int size;
+
+        void add(int doc) {
+            if (this.size > 0 && this.docs[this.size - 1] == doc) return; // the trigram occurs twice in the text
+            if (this.size == this.docs.length) this.docs = Arrays.copyOf(this.docs, this.size * 2);
+            this.docs[this.size++] = doc;
+        }
+
+        /**
+         * Finds the first position at or after from holding a doc not lower than doc, galloping then
+         * binary searching, so intersecting with a much shorter list skips most of this one.
+         */
+        int advance(int from, int doc) {
+            int bound = 1;
+            while (from + bound < this.size && this.docs[from + bound] < doc) bound <<= 1;
+
+            int low = from + (bound >> 1);
+            int high = Math.min(from + bound, this.size - 1);
+            if (low >= this.size || this.docs[high] < doc) return this.size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.docs[mid] < doc) low = mid + 1; else high = mid;
+            }
+            return low;
+        }
+    }
+
+    private static final class Match {
+
+        private final long rank;
+
+        private final long userId;
+
+        private final String username;
+
+        private final String email;
+
+        Match(long rank, long userId, String username, String email) {
+            this.rank = rank;
+            this.userId = userId;
+            this.username = username;
+            this.email = email;
+        }
+    }
+
+    /**
+     * Keeps the best offset + limit matches of a search (worst at the head) and counts them all.
+     */
+    private static final class Collector {
+
+        private final int wanted;
+
+        private final PriorityQueue<Match> top;
+
+        private int total;
+
+        private boolean truncated;
+
+        Collector(int wanted) {
+            this.wanted = wanted;
+            this.top = new PriorityQueue<>(Math.min(wanted, 1024) + 1, WORST_FIRST);
+        }
+
+        void offer(long rank, long userId, String username, String email) {
+            this.total++;
+            if (this.top.size() == this.wanted) {
+                Match worst = this.top.peek();
+                if (rank < worst.rank || (rank == worst.rank && userId > worst.userId)) return;
+                this.top.poll();
+            }
+            this.top.add(new Match(rank, userId, username, email));
+        }
+    }
+
+    private static final class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final OffHeapLongIntMap docs; // user id -> live doc
+
+        private final Map<Long, Postings> postings = new HashMap<>();
+
+        private final BitSet dead = new BitSet();
+
+        private long[] userIds;
+
+        private long[] versions;
+
+        private String[] usernames;
+
+        private String[] emails;
+
+        private String[] texts;
+
+        private int count; // docs, dead ones included
+
+        private int deadCount;
+
+        Segment(int expectedDocs) {
+            this.docs = new OffHeapLongIntMap(expectedDocs);
+            this.userIds = new long[expectedDocs];
+            this.versions = new long[expectedDocs];
+            this.usernames = new String[expectedDocs];
+            this.emails = new String[expectedDocs];
+            this.texts = new String[expectedDocs];
+        }
+
+        void put(long userId, long version, String username, String email) {
+            String text = text(username, email);
+
+            this.lock.writeLock().lock();
+            try {
+                int doc = this.docs.get(userId);
+                if (doc != OffHeapLongIntMap.MISSING) {
+                    if (this.versions[doc] >= version) return;
+                    kill(doc);
+                }
+                append(userId, version, username, email, text);
+                compactIfNeeded();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        void remove(long userId) {
+            this.lock.writeLock().lock();
+            try {
+                int doc = this.docs.get(userId);
+                if (doc == OffHeapLongIntMap.MISSING) return;
+
+                this.docs.remove(userId);
+                kill(doc);
+                compactIfNeeded();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        String findUsername(long userId) {
+            this.lock.readLock().lock();
+            try {
+                int doc = this.docs.get(userId);
+                return doc == OffHeapLongIntMap.MISSING ? null : this.usernames[doc];
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        int size() {
+            this.lock.readLock().lock();
+            try {
+                return this.count - this.deadCount;
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        void search(String query, String pattern, long[] grams, int maxMatches, Collector collector) {
+            this.lock.readLock().lock();
+            try {
+                Postings[] lists = new Postings[grams.length];
+                for (int i = 0; i < grams.length; i++) {
+                    lists[i] = this.postings.get(grams[i]);
+                    if (lists[i] == null) return; // a trigram no member has
+                }
+                Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+
+                Postings rarest = lists[0];
+                int[] positions = new int[lists.length];
+                int intersected = Math.min(lists.length, MAX_INTERSECTED);
+                int matched = 0;
+                candidates:
+                for (int i = 0; i < rarest.size; i++) {
+                    int doc = rarest.docs[i];
+                    for (int l = 1; l < intersected; l++) {
+                        positions[l] = lists[l].advance(positions[l], doc);
+                        if (positions[l] == lists[l].size) break candidates;
+                        if (lists[l].docs[positions[l]] != doc) continue candidates;
+                    }
+                    if (this.dead.get(doc) || !this.texts[doc].contains(pattern)) continue;
+
+                    if (matched == maxMatches) {
+                        collector.truncated = true;
+                        return;
+                    }
+                    matched++;
+                    collector.offer(rank(doc, query), this.userIds[doc], this.usernames[doc], this.emails[doc]);
+                }
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        private long rank(int doc, String query) {
+            String text = this.texts[doc];
+            int usernameStart = 2;
+            int usernameEnd = text.indexOf(BOUNDARY, usernameStart);
+            int usernameLength = usernameEnd - usernameStart;
+
+            int kind;
+            if (text.startsWith(query, usernameStart)) {
+                kind = usernameLength == query.length() ? EXACT_USERNAME : USERNAME_PREFIX;
+            } else if (text.startsWith(query, usernameEnd + 2)) {
+                kind = EMAIL_PREFIX;
+            } else {
+                int at = text.indexOf(query, usernameStart);
+                kind = at >= 0 && at + query.length() <= usernameEnd ? USERNAME_SUBSTRING : EMAIL_SUBSTRING;
+            }
+            return (long) kind << 16 | (0xFFFF - Math.min(usernameLength, 0xFFFF));
+        }
+
+        private void append(long userId, long version, String username, String email, String text) {
+            if (this.count == this.userIds.length) {
+                int capacity = this.count * 2;
+                this.userIds = Arrays.copyOf(this.userIds, capacity);
+                this.versions = Arrays.copyOf(this.versions, capacity);
+                this.usernames = Arrays.copyOf(this.usernames, capacity);
+                this.emails = Arrays.copyOf(this.emails, capacity);
+                this.texts = Arrays.copyOf(this.texts, capacity);
+            }
+
+            int doc = this.count++;
+            this.userIds[doc] = userId;
+            this.versions[doc] = version;
+            this.usernames[doc] = username;
+            this.emails[doc] = email;
+            this.texts[doc] = text;
+            this.docs.put(userId, doc);
+            for (int i = 0; i + GRAM <= text.length(); i++) {
+                this.postings.computeIfAbsent(gram(text, i), gram -> new Postings()).add(doc);
+            }
+        }
+
+        private void kill(int doc) {
+            this.dead.set(doc);
+            this.deadCount++;
+            this.usernames[doc] = null;
+            this.emails[doc] = null;
+            this.texts[doc] = null;
+        }
+
+        /**
+         * Rewrites the live docs from the start and rebuilds the postings without the dead ones.
+         */
+        private void compactIfNeeded() {
+            if (this.count < MIN_COMPACTED_DOCS || this.deadCount <= this.count * MAX_DEAD_RATIO) return;
+
+            long[] userIds = this.userIds;
+            long[] versions = this.versions;
+            String[] usernames = this.usernames;
+            String[] emails = this.emails;
+            String[] texts = this.texts;
+            int count = this.count;
+
+            this.postings.clear();
+            this.count = 0;
+            for (int doc = 0; doc < count; doc++) {
+                if (this.dead.get(doc)) continue;
+                append(userIds[doc], versions[doc], usernames[doc], emails[doc], texts[doc]); // moves down in place
+            }
+            Arrays.fill(this.usernames, this.count, count, null);
+            Arrays.fill(this.emails, this.count, count, null);
+            Arrays.fill(this.texts, this.count, count, null);
+            this.dead.clear();
+            this.deadCount = 0;
+        }
+    }
+}
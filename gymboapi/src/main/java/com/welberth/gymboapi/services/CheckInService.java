@@ -0,0 +1,99 @@
+package com.welberth.gymboapi.services;
+
+import com.welberth.gymboapi.dtos.OccupancyResponse;
+import com.welberth.gymboapi.exceptions.ApiException;
+import com.welberth.gymboapi.exceptions.NotFoundException;
+import com.welberth.gymboapi.exceptions.ServiceOverloadedException;
+import com.welberth.gymboapi.execution.CheckInWriter;
+import com.welberth.gymboapi.models.CheckIn;
+import com.welberth.gymboapi.models.CheckInResult;
+import com.welberth.gymboapi.repositories.CheckInRepository;
+import com.welberth.gymboapi.sharding.ShardKey;
+import com.welberth.gymboapi.sharding.ShardRouter;
+
+import io.micrometer.core.annotation.Timed;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Turnstile check-ins: answers whether a member may enter and records the attempt. The record is handed
+ * to CheckInWriter and written in a later group commit, so reads lag the turnstiles by up to
+ * gymbo.checkin.flush-interval. Check-ins are kept on the shard of their member.
+ */
+@Service
+@Timed(value = "gymbo.service", histogram = true)
+public class CheckInService {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private CheckInWriter checkInWriter;
+
+    @Autowired
+    private CheckInRepository checkInRepository;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${gymbo.checkin.occupancy-window}")
+    private Duration occupancyWindow;
+
+    /**
+     * Checks a member in: decides from the payment status (the off-heap map for subscribed members) and queues
+     * the record without waiting for it to be written.
+     *
+     * @param userId id for the user
+     * @return what the turnstile should do
+     * @throws ServiceOverloadedException when the check-in queue is full
+     * @throws ApiException when the payment status can't be read, nothing is recorded then
+     */
+    public CheckInResult checkIn(Long userId) {
+        CheckInResult result;
+        try {
+            result = this.userService.isPaymentUpToDate(userId) ? CheckInResult.ALLOWED : CheckInResult.PAYMENT_DUE;
+        } catch (NotFoundException e) { // no such member, or no plan; any other error is not an answer to record
+            result = CheckInResult.NOT_SUBSCRIBED;
+        }
+
+        this.checkInWriter.append(new CheckIn(userId, Instant.now(), result));
+        return result;
+    }
+
+    /**
+     * Finds a page of the check-ins of a member, newest first, using the check-in time as cursor (keyset pagination).
+     *
+     * @param userId id for the user
+     * @param before time of the last check-in of the previous page, null for the first page
+     * @param limit maximum number of check-ins on the page
+     * @return check-ins of the member older than before, newest first
+     */
+    @Transactional(readOnly = true)
+    public List<CheckIn> findHistory(@ShardKey Long userId, Instant before, int limit) {
+        Instant cursor = before == null ? Instant.now().plusSeconds(1) : before;
+
+        return this.checkInRepository.findByUserIdAndCheckedInAtBeforeOrderByCheckedInAtDesc(userId, cursor, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Estimates how many members are in the gym: distinct members let in during the last gymbo.checkin.occupancy-window.
+     *
+     * @return occupancy estimate
+     */
+    @Transactional(readOnly = true)
+    public OccupancyResponse findOccupancy() {
+        Instant since = Instant.now().minus(this.occupancyWindow);
+
+        long members = this.shardRouter.fanOut(shard -> this.checkInRepository.countMembersSince(since, CheckInResult.ALLOWED))
+                .stream().mapToLong(Long::longValue).sum();
+        return new OccupancyResponse(since, members);
+    }
+}
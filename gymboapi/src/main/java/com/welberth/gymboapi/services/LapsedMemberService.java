@@ -0,0 +1,280 @@
+package com.welberth.gymboapi.services;
+
+import com.welberth.gymboapi.dtos.PaymentStatus;
+import com.welberth.gymboapi.models.LapsedMember;
+import com.welberth.gymboapi.models.SweepCheckpoint;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.repositories.LapsedMemberRepository;
+import com.welberth.gymboapi.repositories.SweepCheckpointRepository;
+import com.welberth.gymboapi.sharding.ShardRouter;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the lapsed members list: members whose subscription is no longer paid (paid until today or earlier,
+ * the opposite of UserService.isPaymentUpToDate).
+ * <p>
+ * Writes that set a paid until date already in the past are recorded right away (track). Members that lapse
+ * because time passes are found by a scheduled sweep. The sweep seeks on the (paid_until, id) index from a
+ * persisted checkpoint and reads only the rows that expired since the last run, in batches of
+ * gymbo.sweep.batch-size with one transaction per batch, so a run costs the same whether the table has
+ * a thousand members or millions. When members are sharded, each shard keeps the list of its own members
+ * and is swept from its own checkpoint.
+ */
+@Service
+@Timed(value = "gymbo.service", histogram = true)
+public class LapsedMemberService {
+
+    public static final String CHECKPOINT = "payment-expiry";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LapsedMemberService.class);
+
+    private static final String SCAN_SQL = "select id, plan_id, paid_until from " + User.TABLE_NAME
+            + " where paid_until <= ? and (paid_until > ? or (paid_until = ? and id > ?))"
+            + " order by paid_until, id limit ?";
+
+    private static final String DELETE_SQL = "delete from " + LapsedMember.TABLE_NAME + " where user_id = ?";
+
+    private static final String INSERT_SQL = "insert into " + LapsedMember.TABLE_NAME
+            + " (user_id, plan_id, paid_until, detected_at) values (?, ?, ?, ?)";
+
+    @Autowired
+    private LapsedMemberRepository lapsedMemberRepository;
+
+    @Autowired
+    private SweepCheckpointRepository sweepCheckpointRepository;
+
+    @Autowired
+    private PlanStatsService planStatsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${gymbo.sweep.batch-size}")
+    private int batchSize;
+
+    @Value("${gymbo.sweep.time-budget}")
+    private Duration timeBudget;
+
+    private Counter detected;
+
+    @PostConstruct
+    void registerMetrics() {
+        this.detected = Counter.builder("gymbo.sweep.lapsed")
+                .description("Members found lapsed by the payment-expiry sweep")
+                .register(this.meterRegistry);
+    }
+
+    /**
+     * Finds a page of lapsed members, using the user id as cursor (keyset pagination).
+     *
+     * @param afterId id of the last member of the previous page, null for the first page
+     * @param limit maximum number of members on the page
+     * @return lapsed members with a user id greater than afterId, ordered by user id
+     */
+    @Transactional(readOnly = true)
+    public List<LapsedMember> findPage(Long afterId, int limit) {
+        Long cursor = afterId == null ? 0L : afterId;
+        int cursorShard = this.shardRouter.shardOfUser(cursor); // the shards before it have no ids past the cursor
+
+        return this.shardRouter.fanOut(shard -> shard < cursorShard ? List.<LapsedMember>of()
+                        : this.lapsedMemberRepository.findByUserIdGreaterThanOrderByUserId(cursor, PageRequest.of(0, limit)))
+                .stream().flatMap(List::stream).limit(limit).collect(Collectors.toList());
+    }
+
+    /**
+     * Runs the sweep on schedule (gymbo.sweep.cron).
+     */
+    @Scheduled(cron = "${gymbo.sweep.cron}")
+    public void scheduledSweep() {
+        int lapsed = sweep(LocalDate.now());
+
+        if (lapsed > 0) LOGGER.info("Payment-expiry sweep found {} lapsed members", lapsed);
+    }
+
+    /**
+     * Finds the members that lapsed since the last sweep and adds them to the lapsed list, shard by shard. Stops
+     * after gymbo.sweep.time-budget on each shard, the next run continues from the checkpoint.
+     *
+     * @param today members paid until this date or earlier are lapsed
+     * @return how many members were found lapsed
+     */
+    public int sweep(LocalDate today) {
+        int[] total = { 0 };
+        this.shardRouter.forEachShard(shard -> total[0] += sweepShard(today));
+
+        this.detected.increment(total[0]);
+        return total[0];
+    }
+
+    private int sweepShard(LocalDate today) {
+        ensureCheckpoint();
+
+        long deadline = System.nanoTime() + this.timeBudget.toNanos();
+        int total = 0;
+        int swept;
+        do {
+            swept = this.transactionTemplate.execute(status -> sweepBatch(today));
+            total += swept;
+        } while (swept == this.batchSize && System.nanoTime() < deadline);
+
+        return total;
+    }
+
+    /**
+     * Sweeps one batch past the checkpoint and moves the checkpoint to its last row. The checkpoint row
+     * stays locked until commit, so instances sweeping at the same time take turns instead of racing.
+     *
+     * @param today members paid until this date or earlier are lapsed
+     * @return how many members were found lapsed in this batch
+     */
+    private int sweepBatch(LocalDate today) {
+        SweepCheckpoint checkpoint = this.sweepCheckpointRepository.findLockedByName(CHECKPOINT)
+                .orElseThrow(() -> new IllegalStateException("Missing sweep checkpoint " + CHECKPOINT));
+
+        Instant now = Instant.now();
+        List<LapsedMember> lapsed = this.jdbcTemplate.query(SCAN_SQL,
+                (rs, rowNum) -> new LapsedMember(rs.getLong(1), rs.getObject(2, Long.class), rs.getObject(3, LocalDate.class), now),
+                Date.valueOf(today), Date.valueOf(checkpoint.getPaidUntil()), Date.valueOf(checkpoint.getPaidUntil()),
+                checkpoint.getLastId(), this.batchSize);
+
+        if (lapsed.isEmpty()) return 0;
+
+        replace(lapsed);
+
+        LapsedMember last = lapsed.get(lapsed.size() - 1);
+        checkpoint.setPaidUntil(last.getPaidUntil());
+        checkpoint.setLastId(last.getUserId());
+        checkpoint.setUpdatedAt(now);
+
+        return lapsed.size();
+    }
+
+    /**
+     * Creates the checkpoint on the first run, starting from the beginning of the index.
+     */
+    private void ensureCheckpoint() {
+        if (this.sweepCheckpointRepository.existsById(CHECKPOINT)) return;
+
+        try {
+            this.sweepCheckpointRepository.save(new SweepCheckpoint(CHECKPOINT, LocalDate.EPOCH, 0L, Instant.now()));
+        } catch (DataIntegrityViolationException e) {
+            // another instance created it first
+        }
+    }
+
+    /**
+     * Records the new payment status of a member: removes it from the lapsed list, then adds it back if the
+     * status is already lapsed. Joins the caller's transaction.
+     *
+     * @param userId id for the user
+     * @param status new payment status, a null plan means the member is no longer subscribed
+     */
+    @Transactional
+    public void track(Long userId, PaymentStatus status) {
+        trackAll(Map.of(userId, status));
+    }
+
+    /**
+     * Records the new payment status of many members at once, as JDBC batches.
+     *
+     * @param statuses new payment status by user id
+     */
+    @Transactional
+    public void trackAll(Map<Long, PaymentStatus> statuses) {
+        LocalDate today = LocalDate.now();
+        Instant now = Instant.now();
+
+        List<LapsedMember> lapsed = new ArrayList<>();
+        statuses.forEach((userId, status) -> {
+            if (status.getPlanId() != null && !status.isPaidAfter(today)) {
+                lapsed.add(new LapsedMember(userId, status.getPlanId(), status.getPaidUntil(), now));
+            }
+        });
+
+        rewrite(statuses.keySet(), lapsed);
+    }
+
+    /**
+     * Deletes any previous rows of the members, then inserts them.
+     *
+     * @param lapsed members to record as lapsed
+     */
+    private void replace(List<LapsedMember> lapsed) {
+        rewrite(lapsed.stream().map(LapsedMember::getUserId).toList(), lapsed);
+    }
+
+    /**
+     * Deletes the rows of the given members and inserts the new ones, moving the lapsed counts of the
+     * plan stats by the difference.
+     *
+     * @param userIds members whose rows are deleted
+     * @param lapsed members to record as lapsed, a subset of userIds
+     */
+    private void rewrite(Collection<Long> userIds, List<LapsedMember> lapsed) {
+        if (userIds.isEmpty()) return;
+
+        Map<Long, Long> deltas = new HashMap<>();
+        String placeholders = userIds.stream().map(userId -> "?").collect(Collectors.joining(", "));
+        this.jdbcTemplate.query("select plan_id from " + LapsedMember.TABLE_NAME + " where user_id in (" + placeholders + ")",
+                rs -> {
+                    Long planId = rs.getObject(1, Long.class);
+                    if (planId != null) deltas.merge(planId, -1L, Long::sum);
+                },
+                userIds.toArray());
+
+        this.jdbcTemplate.batchUpdate(DELETE_SQL, userIds.stream()
+                .map(userId -> new Object[] { userId })
+                .toList());
+        insert(lapsed);
+
+        lapsed.forEach(member -> deltas.merge(member.getPlanId(), 1L, Long::sum));
+        this.planStatsService.addLapsed(deltas);
+    }
+
+    private void insert(List<LapsedMember> lapsed) {
+        if (lapsed.isEmpty()) return;
+
+        this.jdbcTemplate.batchUpdate(INSERT_SQL, lapsed.stream()
+                .map(member -> new Object[] {
+                        member.getUserId(), member.getPlanId(), Date.valueOf(member.getPaidUntil()), Timestamp.from(member.getDetectedAt())
+                })
+                .toList());
+    }
+}
@@ -0,0 +1,263 @@
+package com.welberth.gymboapi.services;
+
+import com.welberth.gymboapi.dtos.MemberSearchResponse;
+import com.welberth.gymboapi.exceptions.ServiceOverloadedException;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.search.MemberSearchIndex;
+import com.welberth.gymboapi.sharding.ShardContext;
+import com.welberth.gymboapi.sharding.ShardRouter;
+import com.welberth.gymboapi.utils.Transactions;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Finds members by part of their username or email, from an in-memory index (MemberSearchIndex) instead of
+ * LIKE '%...%' scans of the user table.
+ * <p>
+ * The index is loaded from the user table (of every shard) right after startup, gymbo.search.build-parallelism
+ * id ranges at a time, and rebuilt every gymbo.search.rebuild-interval. The writes made on this instance reach it after commit
+ * (UserService calls indexed, emailChanged and removed); other instances' writes show up with the next rebuild.
+ * While a rebuild runs the live writes go to the index being built as well, each member carries its row version
+ * so the newer of the scan and the write wins, and members removed meanwhile are kept out of it.
+ */
+@Service
+@Timed(value = "gymbo.service", histogram = true)
+public class MemberSearchService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemberSearchService.class);
+
+    private static final ServiceOverloadedException NOT_READY =
+            new ServiceOverloadedException("The member search is still loading, retry shortly.");
+
+    private static final String COUNT_SQL = "select count(*) from " + User.TABLE_NAME;
+
+    private static final String BOUNDS_SQL = "select min(id), max(id) from " + User.TABLE_NAME;
+
+    private static final String SCAN_SQL = "select id, version, username, email from " + User.TABLE_NAME + " where id between ? and ?";
+
+    private static final String USERNAME_SQL = "select username from " + User.TABLE_NAME + " where id = ?";
+
+    private static final int FETCH_SIZE = 1000;
+
+    private static final int RANGES_PER_THREAD = 4; // evens out ranges with gaps in the ids
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${gymbo.search.segments}")
+    private int segments;
+
+    @Value("${gymbo.search.build-parallelism}")
+    private int buildParallelism;
+
+    @Value("${gymbo.search.max-candidates}")
+    private int maxCandidates;
+
+    private final Object rebuildLock = new Object();
+
+    private volatile MemberSearchIndex index;
+
+    private volatile MemberSearchIndex building; // the index a rebuild is loading, null when none runs
+
+    private final Set<Long> removedDuringRebuild = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("gymbo.member.search.members", this, service -> service.index == null ? 0 : service.index.size())
+                .description("Members in the in-memory search index")
+                .register(this.meterRegistry);
+    }
+
+    /**
+     * Finds the members whose username or email contains the query, best match first (see MemberSearchIndex.search).
+     *
+     * @param query text to look for, queries under three characters only match the start of a username or email
+     * @param offset matches to skip
+     * @param limit maximum number of matches on the page
+     * @return the page of matches, with how many there are in total
+     * @throws ServiceOverloadedException until the index is loaded after startup
+     */
+    public MemberSearchResponse search(String query, int offset, int limit) throws ServiceOverloadedException {
+        MemberSearchIndex current = this.index;
+        if (current == null) throw NOT_READY;
+
+        return current.search(query, offset, limit, this.maxCandidates);
+    }
+
+    /**
+     * Indexes new members after the caller's transaction commits.
+     *
+     * @param users just created, with their id and version
+     */
+    public void indexed(List<User> users) {
+        List<Object[]> members = new ArrayList<>(users.size()); // copied now, the entities may change before commit
+        for (User user : users) {
+            members.add(new Object[] { user.getId(), user.getVersion(), user.getUsername(), user.getEmail() });
+        }
+
+        Transactions.afterCommit(() -> write(index -> members.forEach(member ->
+                index.put((Long) member[0], (Long) member[1], (String) member[2], (String) member[3]))));
+    }
+
+    /**
+     * Reindexes a member whose email changed, after the caller's transaction commits.
+     *
+     * @param userId id for the user
+     * @param version version the update left the row at
+     * @param email new email
+     */
+    public void emailChanged(Long userId, Long version, String email) {
+        String username = findUsername(userId); // the username never changes, but updates don't carry it
+
+        Transactions.afterCommit(() -> write(index -> index.put(userId, version, username, email)));
+    }
+
+    /**
+     * Removes a member from the index after the caller's transaction commits.
+     *
+     * @param userId id for the user
+     */
+    public void removed(Long userId) {
+        Transactions.afterCommit(() -> {
+            if (this.building != null) this.removedDuringRebuild.add(userId); // before the removal, see load
+            write(index -> index.remove(userId));
+        });
+    }
+
+    /**
+     * Rebuilds the index on schedule (gymbo.search.rebuild-interval), the first time right after startup.
+     */
+    @Scheduled(fixedDelayString = "${gymbo.search.rebuild-interval}")
+    public void scheduledRebuild() {
+        long start = System.nanoTime();
+        int members = rebuild();
+
+        LOGGER.info("Indexed {} members for search in {} ms", members, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Loads a new index from the user table of every shard, gymbo.search.build-parallelism id ranges at a time,
+     * and swaps it in.
+     *
+     * @return how many members the new index holds
+     */
+    public int rebuild() {
+        synchronized (this.rebuildLock) {
+            int[] count = { 0 };
+            this.shardRouter.forEachShard(shard -> count[0] += this.jdbcTemplate.queryForObject(COUNT_SQL, Integer.class));
+            MemberSearchIndex built = new MemberSearchIndex(this.segments, count[0]);
+
+            this.removedDuringRebuild.clear();
+            this.building = built; // before reading the bounds, so members created from now on get in either way
+            try {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                this.shardRouter.forEachShard(shard -> {
+                    long[] bounds = this.jdbcTemplate.queryForObject(BOUNDS_SQL, (rs, row) -> new long[] { rs.getLong(1), rs.getLong(2) });
+                    if (bounds[1] > 0) tasks.addAll(scanTasks(built, shard, bounds[0], bounds[1]));
+                });
+                if (!tasks.isEmpty()) load(tasks);
+                this.index = built;
+            } finally {
+                this.building = null;
+                this.removedDuringRebuild.clear();
+            }
+            return built.size();
+        }
+    }
+
+    /**
+     * Splits the ids from minId to maxId of a shard in ranges, each scanned into the index by one task.
+     */
+    private List<Callable<Void>> scanTasks(MemberSearchIndex built, int shard, long minId, long maxId) {
+        int ranges = this.buildParallelism * RANGES_PER_THREAD;
+        long step = Math.max(1, (maxId - minId + ranges) / ranges);
+
+        List<Callable<Void>> tasks = new ArrayList<>(ranges);
+        for (long from = minId; from <= maxId; from += step) {
+            long rangeFrom = from;
+            long rangeTo = Math.min(maxId, from + step - 1);
+            tasks.add(() -> ShardContext.call(shard, () -> {
+                this.jdbcTemplate.query(connection -> {
+                    PreparedStatement statement = connection.prepareStatement(SCAN_SQL);
+                    statement.setFetchSize(FETCH_SIZE);
+                    statement.setLong(1, rangeFrom);
+                    statement.setLong(2, rangeTo);
+                    return statement;
+                }, rs -> {
+                    long userId = rs.getLong(1);
+                    built.put(userId, rs.getLong(2), rs.getString(3), rs.getString(4));
+                    // a member removed after the scan read it must not stay: removed marks it before removing it
+                    if (this.removedDuringRebuild.contains(userId)) built.remove(userId);
+                });
+                return null;
+            }));
+        }
+        return tasks;
+    }
+
+    /**
+     * Runs the scans, gymbo.search.build-parallelism at a time.
+     */
+    private void load(List<Callable<Void>> tasks) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.buildParallelism, tasks.size()));
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Member search index build interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Member search index build failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Applies a live write to the current index and to the one being built, if any.
+     */
+    private void write(Consumer<MemberSearchIndex> write) {
+        MemberSearchIndex building = this.building;
+        MemberSearchIndex current = this.index;
+
+        if (current != null) write.accept(current);
+        if (building != null && building != current) write.accept(building);
+    }
+
+    private String findUsername(Long userId) {
+        MemberSearchIndex current = this.index;
+        String username = current == null ? null : current.findUsername(userId);
+
+        return username != null ? username : this.jdbcTemplate.queryForObject(USERNAME_SQL, String.class, userId);
+    }
+}
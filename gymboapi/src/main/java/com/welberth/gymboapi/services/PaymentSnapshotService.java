@@ -0,0 +1,442 @@
+package com.welberth.gymboapi.services;
+
+import com.welberth.gymboapi.dtos.PaymentStatus;
+import com.welberth.gymboapi.exceptions.BadRequestException;
+import com.welberth.gymboapi.exceptions.SnapshotExpiredException;
+import com.welberth.gymboapi.models.PaymentChange;
+import com.welberth.gymboapi.models.SweepCheckpoint;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.repositories.SweepCheckpointRepository;
+import com.welberth.gymboapi.sharding.ShardContext;
+import com.welberth.gymboapi.sharding.ShardKey;
+import com.welberth.gymboapi.sharding.ShardRouter;
+import com.welberth.gymboapi.snapshot.OffHeapLongIntMap;
+import com.welberth.gymboapi.snapshot.PaymentChanges;
+import com.welberth.gymboapi.snapshot.PaymentSnapshot;
+import com.welberth.gymboapi.utils.Transactions;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes the paid until date of every member for offline checks, and answers payment checks without the database.
+ * <p>
+ * Every payment status change is appended to payment_change in the writer's transaction. Changes are published
+ * by stamping the pending ones with the next version (one instance at a time, under the checkpoint lock), which
+ * gives edge devices a delta feed: the changes after the version they hold. A full snapshot file, sorted by
+ * user id and memory-mapped, is rebuilt every gymbo.payment-snapshot.rebuild-interval for devices that are
+ * new or too far behind.
+ * <p>
+ * The same snapshot is loaded into an off-heap long to int map (user id to paid until epoch day), kept up to date
+ * from the delta feed every gymbo.payment-snapshot.refresh-interval, and straight away for the writes made on this
+ * instance. Other instances see a change within one refresh interval.
+ * <p>
+ * When members are sharded, each shard publishes the changes of its members with its own versions and gets its own
+ * snapshot file: the turnstiles of a gym follow the shard of the gym. The off-heap map holds the members of every shard.
+ */
+@Service
+@Timed(value = "gymbo.service", histogram = true)
+public class PaymentSnapshotService {
+
+    public static final String PUBLISHED = "payment-changes";
+
+    public static final String PRUNED = "payment-changes-pruned";
+
+    public static final String FILE_NAME = "payment-snapshot.bin";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaymentSnapshotService.class);
+
+    private static final String INSERT_SQL = "insert into " + PaymentChange.TABLE_NAME
+            + " (user_id, paid_until, changed_at) values (?, ?, ?)";
+
+    private static final String STAMP_SQL = "update " + PaymentChange.TABLE_NAME + " set version = ? where version is null";
+
+    private static final String CHANGES_SQL = "select user_id, paid_until from " + PaymentChange.TABLE_NAME
+            + " where version > ? and version <= ? order by version, id";
+
+    private static final String SCAN_SQL = "select id, paid_until from " + User.TABLE_NAME
+            + " where plan_id is not null and paid_until is not null order by id";
+
+    private static final String PRUNE_VERSION_SQL = "select max(version) from " + PaymentChange.TABLE_NAME + " where changed_at < ?";
+
+    private static final String PRUNE_SQL = "delete from " + PaymentChange.TABLE_NAME + " where version <= ?";
+
+    @Autowired
+    private SweepCheckpointRepository sweepCheckpointRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${gymbo.payment-snapshot.dir}")
+    private Path dir;
+
+    @Value("${gymbo.payment-snapshot.change-retention}")
+    private Duration changeRetention;
+
+    @Value("${gymbo.payment-snapshot.max-changes}")
+    private int maxChanges;
+
+    private final Object rebuildLock = new Object();
+
+    private volatile PaymentSnapshot[] snapshots; // by shard
+
+    private volatile OffHeapLongIntMap paidUntil;
+
+    private long[] paidUntilVersions; // by shard, guarded by rebuildLock
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("gymbo.payment.snapshot.version", this, service -> service.getSnapshot() == null ? -1 : service.getSnapshot().getVersion())
+                .description("Delta feed version of the current payment snapshot file of the home shard")
+                .register(this.meterRegistry);
+        Gauge.builder("gymbo.payment.snapshot.members", this, service -> service.paidUntil == null ? 0 : service.paidUntil.size())
+                .description("Members in the off-heap payment map")
+                .register(this.meterRegistry);
+        Gauge.builder("gymbo.payment.snapshot.off.heap", this, service -> service.paidUntil == null ? 0 : service.paidUntil.offHeapBytes())
+                .description("Direct memory taken by the off-heap payment map")
+                .baseUnit("bytes")
+                .register(this.meterRegistry);
+    }
+
+    /**
+     * Finds the paid until date of a subscribed member in the off-heap map. No database access, no allocation.
+     *
+     * @param userId id for the user
+     * @return paid until as days since 1970-01-01, OffHeapLongIntMap.MISSING when the map is not built yet
+     * or holds nothing for the user (not subscribed, unknown, or changed on another instance since the last refresh)
+     */
+    public int findPaidUntil(long userId) {
+        OffHeapLongIntMap map = this.paidUntil;
+
+        return map == null ? OffHeapLongIntMap.MISSING : map.get(userId);
+    }
+
+    /**
+     * @return the current snapshot file of the home shard, null until the first one is built
+     */
+    public PaymentSnapshot getSnapshot() {
+        return getSnapshot(ShardContext.HOME_SHARD);
+    }
+
+    /**
+     * @param shard shard of the members in the snapshot
+     * @return the current snapshot file of the shard, null until the first one is built
+     * @throws BadRequestException when there is no such shard
+     */
+    public PaymentSnapshot getSnapshot(int shard) throws BadRequestException {
+        this.shardRouter.checkShard(shard);
+        PaymentSnapshot[] built = this.snapshots;
+
+        return built == null ? null : built[shard];
+    }
+
+    /**
+     * Records new payment statuses in the caller's transaction. They reach the local map after commit,
+     * and the delta feed with the next publication.
+     *
+     * @param statuses new payment status by user id, a null plan or paid until means the member left
+     */
+    @Transactional
+    public void record(Map<Long, PaymentStatus> statuses) {
+        if (statuses.isEmpty()) return;
+
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> rows = new ArrayList<>(statuses.size());
+        statuses.forEach((userId, status) -> rows.add(new Object[] { userId, isMember(status) ? Date.valueOf(status.getPaidUntil()) : null, now }));
+        this.jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+
+        Transactions.afterCommit(() -> {
+            OffHeapLongIntMap map = this.paidUntil;
+            if (map == null) return;
+
+            statuses.forEach((userId, status) -> {
+                if (isMember(status)) {
+                    map.put(userId, (int) status.getPaidUntil().toEpochDay());
+                } else {
+                    map.remove(userId);
+                }
+            });
+        });
+    }
+
+    /**
+     * Finds the changes published after a version on the home shard, for a device holding a snapshot at that version.
+     *
+     * @param sinceVersion version of the snapshot, or of the last changes, the device applied
+     * @return the changes up to the latest published version
+     * @throws SnapshotExpiredException when the changes were pruned or there are more than gymbo.payment-snapshot.max-changes
+     */
+    @Transactional(readOnly = true)
+    public PaymentChanges findChanges(long sinceVersion) throws SnapshotExpiredException {
+        return changesSince(sinceVersion);
+    }
+
+    /**
+     * Finds the changes published after a version on a shard, for a device holding a snapshot of the shard at that version.
+     *
+     * @param shard shard of the members
+     * @param sinceVersion version of the snapshot, or of the last changes, the device applied
+     * @return the changes up to the latest published version of the shard
+     * @throws SnapshotExpiredException when the changes were pruned or there are more than gymbo.payment-snapshot.max-changes
+     * @throws BadRequestException when there is no such shard
+     */
+    @Transactional(readOnly = true)
+    public PaymentChanges findChanges(@ShardKey Integer shard, long sinceVersion) throws SnapshotExpiredException {
+        return changesSince(sinceVersion);
+    }
+
+    private PaymentChanges changesSince(long sinceVersion) throws SnapshotExpiredException {
+        long published = checkpointVersion(PUBLISHED);
+        long pruned = checkpointVersion(PRUNED);
+
+        if (sinceVersion < pruned || sinceVersion > published) {
+            throw new SnapshotExpiredException("No payment changes since version " + sinceVersion + ", download the snapshot again.");
+        }
+
+        List<long[]> rows = new ArrayList<>();
+        this.jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(CHANGES_SQL);
+            statement.setLong(1, sinceVersion);
+            statement.setLong(2, published);
+            statement.setMaxRows(this.maxChanges + 1);
+            return statement;
+        }, rs -> {
+            LocalDate day = rs.getObject(2, LocalDate.class);
+            rows.add(new long[] { rs.getLong(1), day == null ? PaymentChanges.REMOVED : day.toEpochDay() });
+        });
+        if (rows.size() > this.maxChanges) {
+            throw new SnapshotExpiredException("Too many payment changes since version " + sinceVersion + ", download the snapshot again.");
+        }
+
+        long[] userIds = new long[rows.size()];
+        int[] days = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            userIds[i] = rows.get(i)[0];
+            days[i] = (int) rows.get(i)[1];
+        }
+        return new PaymentChanges(sinceVersion, published, userIds, days);
+    }
+
+    /**
+     * Publishes the pending changes of each shard and applies them to the off-heap map (gymbo.payment-snapshot.refresh-interval).
+     */
+    @Scheduled(fixedDelayString = "${gymbo.payment-snapshot.refresh-interval}", initialDelayString = "${gymbo.payment-snapshot.refresh-interval}")
+    public void refresh() {
+        this.shardRouter.forEachShard(shard -> {
+            long published = publish();
+
+            synchronized (this.rebuildLock) {
+                OffHeapLongIntMap map = this.paidUntil;
+                if (map == null || published <= this.paidUntilVersions[shard]) return;
+
+                applyChanges(map, this.paidUntilVersions[shard], published);
+                this.paidUntilVersions[shard] = published;
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the snapshot on schedule (gymbo.payment-snapshot.rebuild-interval), the first time right after startup.
+     */
+    @Scheduled(fixedDelayString = "${gymbo.payment-snapshot.rebuild-interval}")
+    public void scheduledRebuild() {
+        try {
+            long start = System.nanoTime();
+            PaymentSnapshot built = rebuild();
+
+            LOGGER.info("Built payment snapshot version {} with {} members in {} ms",
+                    built.getVersion(), built.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            LOGGER.error("Could not build the payment snapshot in {}", this.dir, e);
+        }
+    }
+
+    /**
+     * Writes a new snapshot file of each shard from its user table and maps it, loads them all into a new off-heap map
+     * and swaps them in. Then prunes the changes older than gymbo.payment-snapshot.change-retention.
+     *
+     * @return the new snapshot of the home shard
+     * @throws IOException if a file can't be written
+     */
+    public PaymentSnapshot rebuild() throws IOException {
+        synchronized (this.rebuildLock) {
+            PaymentSnapshot[] built = new PaymentSnapshot[this.shardRouter.shards()];
+            try {
+                this.shardRouter.forEachShard(shard -> {
+                    try {
+                        built[shard] = writeSnapshot(shard);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            OffHeapLongIntMap map = new OffHeapLongIntMap(Arrays.stream(built).mapToInt(PaymentSnapshot::size).sum());
+            for (PaymentSnapshot snapshot : built) {
+                for (int i = 0; i < snapshot.size(); i++) {
+                    map.put(snapshot.userIdAt(i), snapshot.paidUntilAt(i));
+                }
+            }
+
+            // catch up with what was published while the files were written
+            long[] published = new long[built.length];
+            this.shardRouter.forEachShard(shard -> {
+                published[shard] = publish();
+                applyChanges(map, built[shard].getVersion(), published[shard]);
+            });
+
+            this.snapshots = built;
+            this.paidUntil = map;
+            this.paidUntilVersions = published;
+
+            this.shardRouter.forEachShard(shard -> prune());
+            return built[ShardContext.HOME_SHARD];
+        }
+    }
+
+    /**
+     * Writes the snapshot file of the current shard and maps it.
+     *
+     * @param shard the current shard
+     * @return the new snapshot
+     * @throws IOException if the file can't be written
+     */
+    private PaymentSnapshot writeSnapshot(int shard) throws IOException {
+        long version = publish(); // every change up to this version is committed, so the scan below sees it
+
+        String fileName = shard == ShardContext.HOME_SHARD ? FILE_NAME : "payment-snapshot-" + shard + ".bin";
+        Files.createDirectories(this.dir);
+        Path temp = Files.createTempFile(this.dir, fileName, ".tmp");
+        try {
+            try (PaymentSnapshot.Writer writer = PaymentSnapshot.writer(temp, version)) {
+                this.jdbcTemplate.query(SCAN_SQL, rs -> {
+                    writer.add(rs.getLong(1), (int) rs.getObject(2, LocalDate.class).toEpochDay());
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            PaymentSnapshot built = PaymentSnapshot.open(temp); // the mapping follows the file through the move
+            Files.move(temp, this.dir.resolve(fileName), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return built;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Stamps the pending changes with the next version. Runs under the checkpoint row lock, so versions
+     * are handed out by one instance at a time and always grow with commit order.
+     *
+     * @return the latest published version
+     */
+    private long publish() {
+        ensureCheckpoint(PUBLISHED);
+
+        return this.transactionTemplate.execute(status -> {
+            SweepCheckpoint checkpoint = this.sweepCheckpointRepository.findLockedByName(PUBLISHED)
+                    .orElseThrow(() -> new IllegalStateException("Missing checkpoint " + PUBLISHED));
+
+            long next = checkpoint.getLastId() + 1;
+            if (this.jdbcTemplate.update(STAMP_SQL, next) > 0) {
+                checkpoint.setLastId(next);
+                checkpoint.setUpdatedAt(Instant.now());
+            }
+            return checkpoint.getLastId();
+        });
+    }
+
+    /**
+     * Deletes the published changes older than the retention and moves the pruned checkpoint past them.
+     */
+    private void prune() {
+        ensureCheckpoint(PRUNED);
+
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(this.changeRetention));
+        Long through = this.jdbcTemplate.queryForObject(PRUNE_VERSION_SQL, Long.class, cutoff);
+        if (through == null) return;
+
+        this.transactionTemplate.executeWithoutResult(status -> {
+            SweepCheckpoint checkpoint = this.sweepCheckpointRepository.findLockedByName(PRUNED)
+                    .orElseThrow(() -> new IllegalStateException("Missing checkpoint " + PRUNED));
+            if (through <= checkpoint.getLastId()) return;
+
+            checkpoint.setLastId(through);
+            checkpoint.setUpdatedAt(Instant.now());
+            this.jdbcTemplate.update(PRUNE_SQL, through);
+        });
+    }
+
+    private void applyChanges(OffHeapLongIntMap map, long fromVersion, long toVersion) {
+        if (toVersion <= fromVersion) return;
+
+        this.jdbcTemplate.query(CHANGES_SQL, rs -> {
+            LocalDate day = rs.getObject(2, LocalDate.class);
+            if (day == null) {
+                map.remove(rs.getLong(1));
+            } else {
+                map.put(rs.getLong(1), (int) day.toEpochDay());
+            }
+        }, fromVersion, toVersion);
+    }
+
+    private long checkpointVersion(String name) {
+        return this.sweepCheckpointRepository.findById(name).map(SweepCheckpoint::getLastId).orElse(0L);
+    }
+
+    /**
+     * Creates a checkpoint on the first run. Only the last id is used, as a version.
+     */
+    private void ensureCheckpoint(String name) {
+        if (this.sweepCheckpointRepository.existsById(name)) return;
+
+        try {
+            this.sweepCheckpointRepository.save(new SweepCheckpoint(name, LocalDate.EPOCH, 0L, Instant.now()));
+        } catch (DataIntegrityViolationException e) {
+            // another instance created it first
+        }
+    }
+
+    private static boolean isMember(PaymentStatus status) {
+        return status.getPlanId() != null && status.getPaidUntil() != null;
+    }
+}
@@ -1,25 +1,67 @@
 package com.welberth.gymboapi.services;
 
+import com.welberth.gymboapi.configs.CacheConfig;
 import com.welberth.gymboapi.exceptions.ApiException;
+import com.welberth.gymboapi.exceptions.ConflictException;
+import com.welberth.gymboapi.exceptions.NotFoundException;
 import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
 import com.welberth.gymboapi.repositories.PlanRepository;
+import com.welberth.gymboapi.sharding.ShardContext;
+import com.welberth.gymboapi.sharding.ShardRouter;
+import com.welberth.gymboapi.utils.Transactions;
+
+import io.micrometer.core.annotation.Timed;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Contains business logic and orchestrates the flow of data between the Presentation
  * and Data Access layer (PlanRepository) for the Plan model.
+ * <p>
+ * When members are sharded (ShardRouter) every shard holds a copy of the plans, so members reference their plan
+ * on their own shard. Plans are written on the home shard, then copied under the same id and version to the other
+ * shards, each in its own transaction before the home shard commits.
  */
 @Service
+@Timed(value = "gymbo.service", histogram = true)
 public class PlanService {
 
+    private static final String UPDATE_COPY_SQL = "update " + Plan.TABLE_NAME
+            + " set title = ?, description = ?, monthly_price = ?, version = ? where id = ?";
+
+    private static final String INSERT_COPY_SQL = "insert into " + Plan.TABLE_NAME
+            + " (title, description, monthly_price, version, id) values (?, ?, ?, ?, ?)";
+
+    private static final String DELETE_COPY_SQL = "delete from " + Plan.TABLE_NAME + " where id = ?";
+
+    private static final String COUNT_MEMBERS_SQL = "select count(*) from " + User.TABLE_NAME + " where plan_id = ?";
+
     @Autowired
     private PlanRepository planRepository;
 
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     /**
      * Finds a Plan on the database by its id.
      *
@@ -27,10 +69,12 @@ public class PlanService {
      * @return plan corresponding to the id passed
      * @throws ApiException when plan is not found
      */
+    @Cacheable(cacheNames = CacheConfig.PLANS, key = "#id")
+    @Transactional // on the primary: the plan is cached for minutes, a lagging replica row would stay there
     public Plan findById(Long id) throws ApiException {
         Optional<Plan> plan = this.planRepository.findById(id);
 
-        return plan.orElseThrow(() -> new ApiException("Could not find a Plan with id = " + id));
+        return plan.orElseThrow(() -> new NotFoundException("Plan", "id", id));
     }
 
     /**
@@ -40,10 +84,24 @@ public class PlanService {
      * @return plan corresponding to the title passed
      * @throws ApiException when plan is not found
      */
+    @Cacheable(cacheNames = CacheConfig.PLANS_BY_TITLE, key = "#title")
+    @Transactional // on the primary, like findById
     public Plan findByTitle(String title) throws ApiException {
         Optional<Plan> plan = this.planRepository.findByTitle(title);
 
-        return plan.orElseThrow(() -> new ApiException("Could not find a Plan with title = " + title));
+        return plan.orElseThrow(() -> new NotFoundException("Plan", "title", title));
+    }
+
+    /**
+     * Finds several plans on the database with a single query.
+     *
+     * @param ids for the plans
+     * @return plans found, by id - ids that don't exist are left out
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, Plan> findAllById(Collection<Long> ids) {
+        return this.planRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Plan::getId, Function.identity()));
     }
 
     /**
@@ -56,6 +114,8 @@ public class PlanService {
     public Plan createPlan(Plan newPlan) {
         newPlan.setId(null);
         newPlan = this.planRepository.save(newPlan);
+        replicate(newPlan);
+        evictFromCache(newPlan.getId(), newPlan.getTitle());
 
         return newPlan;
     }
@@ -70,12 +130,16 @@ public class PlanService {
     @Transactional
     public Plan updatePlan(Plan plan) throws ApiException {
         Plan updatedPlan = findById(plan.getId());
+        evictFromCache(updatedPlan.getId(), updatedPlan.getTitle()); // old title
+        evictFromCache(updatedPlan.getId(), plan.getTitle()); // new title
 
         updatedPlan.setTitle(plan.getTitle());
         updatedPlan.setDescription(plan.getDescription());
         updatedPlan.setMonthlyPrice(plan.getMonthlyPrice());
 
-        return this.planRepository.save(updatedPlan);
+        updatedPlan = this.planRepository.saveAndFlush(updatedPlan); // the copies take the new version
+        replicate(updatedPlan);
+        return updatedPlan;
     }
 
     /**
@@ -85,13 +149,61 @@ public class PlanService {
      * @throws ApiException if plan doesn't exist or plan has related entities on the database
      */
     public void deletePlan(Long id) throws ApiException {
-        findById(id);
+        Plan plan = findById(id);
+        // the home shard's foreign key only covers its own members
+        if (this.shardRouter.shards() > 1 && this.shardRouter.fanOut(shard ->
+                this.jdbcTemplate.queryForObject(COUNT_MEMBERS_SQL, Long.class, id)).stream().anyMatch(members -> members > 0)) {
+            throw new ConflictException("The plan with id = " + id + " could not be deleted, it has members.");
+        }
 
         try {
             this.planRepository.deleteById(id);
         } catch (Exception e) {
-            throw new ApiException("The plan with id = " + id + " could not be deleted.");
+            throw new ConflictException("The plan with id = " + id + " could not be deleted.", e);
         }
+        this.shardRouter.replicate(shard -> this.jdbcTemplate.update(DELETE_COPY_SQL, id));
+        evictFromCache(id, plan.getTitle());
     }
 
+    /**
+     * Copies every plan of the home shard to the other shards, adding the missing ones and updating the rest.
+     *
+     * @return how many plans were copied, 0 when members are not sharded
+     */
+    public int replicatePlans() {
+        if (this.shardRouter.shards() == 1) return 0;
+
+        List<Plan> plans = ShardContext.call(ShardContext.HOME_SHARD, this.planRepository::findAll);
+        plans.forEach(this::replicate);
+        return plans.size();
+    }
+
+    /**
+     * Writes a plan to the copies on the other shards, each in its own transaction.
+     *
+     * @param plan as saved on the home shard, with its id and version
+     */
+    private void replicate(Plan plan) {
+        Object[] values = { plan.getTitle(), plan.getDescription(), plan.getMonthlyPrice(), plan.getVersion(), plan.getId() };
+
+        this.shardRouter.replicate(shard -> {
+            if (this.jdbcTemplate.update(UPDATE_COPY_SQL, values) == 0) this.jdbcTemplate.update(INSERT_COPY_SQL, values);
+        });
+    }
+
+    /**
+     * Evicts a plan from the plan caches, after commit when inside a transaction.
+     *
+     * @param id of the plan
+     * @param title of the plan
+     */
+    private void evictFromCache(Long id, String title) {
+        Cache byId = this.cacheManager.getCache(CacheConfig.PLANS);
+        Cache byTitle = this.cacheManager.getCache(CacheConfig.PLANS_BY_TITLE);
+
+        Transactions.afterCommit(() -> {
+            if (byId != null && id != null) byId.evict(id);
+            if (byTitle != null && title != null) byTitle.evict(title);
+        });
+    }
 }
@@ -0,0 +1,201 @@
+package com.welberth.gymboapi.services;
+
+import com.welberth.gymboapi.dtos.PlanStatsResponse;
+import com.welberth.gymboapi.exceptions.ApiException;
+import com.welberth.gymboapi.models.LapsedMember;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.PlanStats;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.repositories.PlanStatsRepository;
+import com.welberth.gymboapi.sharding.ShardContext;
+import com.welberth.gymboapi.sharding.ShardRouter;
+
+import io.micrometer.core.annotation.Timed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the member counts of every plan (plan_stats) so its stats are a primary key read instead of a count over
+ * the plan's members. Every write that adds, moves or removes a member, or marks one lapsed, applies its delta in
+ * the caller's transaction, so the counts commit or roll back with the write. A scheduled reconciliation recounts each plan from the user and lapsed_member tables,
+ * several plans in parallel, to fix any drift (e.g. from writes made straight to the database).
+ * <p>
+ * When members are sharded each shard counts its own members, the stats of a plan are the sum over the shards.
+ */
+@Service
+@Timed(value = "gymbo.service", histogram = true)
+public class PlanStatsService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlanStatsService.class);
+
+    private static final String ADD_MEMBERS_SQL = "update " + PlanStats.TABLE_NAME + " set member_count = member_count + ? where plan_id = ?";
+
+    private static final String ADD_LAPSED_SQL = "update " + PlanStats.TABLE_NAME + " set lapsed_count = lapsed_count + ? where plan_id = ?";
+
+    private static final String INSERT_SQL = "insert into " + PlanStats.TABLE_NAME + " (plan_id, member_count, lapsed_count) values (?, ?, ?)";
+
+    private static final String DELETE_ORPHANS_SQL = "delete from " + PlanStats.TABLE_NAME
+            + " where not exists (select 1 from " + Plan.TABLE_NAME + " p where p.id = plan_id)";
+
+    private static final String INSERT_MISSING_SQL = "insert into " + PlanStats.TABLE_NAME + " (plan_id, member_count, lapsed_count)"
+            + " select p.id, 0, 0 from " + Plan.TABLE_NAME + " p"
+            + " where not exists (select 1 from " + PlanStats.TABLE_NAME + " s where s.plan_id = p.id)";
+
+    // one statement per plan, both counts are index-only scans (idx_user_plan_id, idx_lapsed_member_plan_id)
+    private static final String RECONCILE_SQL = "update " + PlanStats.TABLE_NAME + " set"
+            + " member_count = (select count(*) from " + User.TABLE_NAME + " u where u.plan_id = ?),"
+            + " lapsed_count = (select count(*) from " + LapsedMember.TABLE_NAME + " l where l.plan_id = ?),"
+            + " reconciled_at = ? where plan_id = ?";
+
+    @Autowired
+    private PlanStatsRepository planStatsRepository;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${gymbo.plan-stats.reconcile-parallelism}")
+    private int reconcileParallelism;
+
+    /**
+     * Finds the stats of a plan: two primary key reads, the plan (usually cached) and its counts (on every shard).
+     *
+     * @param planId plan id
+     * @return member counts and monthly revenue of the plan
+     * @throws ApiException when plan is not found
+     */
+    @Transactional(readOnly = true)
+    public PlanStatsResponse findStats(Long planId) throws ApiException {
+        Plan plan = this.planService.findById(planId);
+        List<PlanStats> shards = this.shardRouter.fanOut(shard ->
+                this.planStatsRepository.findById(planId).orElseGet(() -> new PlanStats(planId, 0L, 0L, null)));
+        if (shards.size() == 1) return PlanStatsResponse.from(plan, shards.get(0));
+
+        PlanStats stats = new PlanStats(planId,
+                shards.stream().mapToLong(PlanStats::getMemberCount).sum(),
+                shards.stream().mapToLong(PlanStats::getLapsedCount).sum(),
+                shards.stream().map(PlanStats::getReconciledAt).min(Comparator.nullsFirst(Comparator.naturalOrder())).orElse(null));
+        return PlanStatsResponse.from(plan, stats);
+    }
+
+    /**
+     * Adds to the member counts of plans, in the caller's transaction.
+     *
+     * @param deltas members to add (negative to remove) by plan id, rows are updated in plan id order
+     *               so concurrent transactions lock them in the same order
+     */
+    @Transactional
+    public void addMembers(Map<Long, Long> deltas) {
+        apply(ADD_MEMBERS_SQL, deltas, true);
+    }
+
+    /**
+     * Adds to the lapsed counts of plans, in the caller's transaction.
+     *
+     * @param deltas lapsed members to add (negative to remove) by plan id
+     */
+    @Transactional
+    public void addLapsed(Map<Long, Long> deltas) {
+        apply(ADD_LAPSED_SQL, deltas, false);
+    }
+
+    private void apply(String sql, Map<Long, Long> deltas, boolean members) {
+        List<Object[]> updates = new ArrayList<>(deltas.size());
+        deltas.entrySet().stream()
+                .filter(delta -> delta.getKey() != null && delta.getValue() != 0)
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(delta -> updates.add(new Object[] { delta.getValue(), delta.getKey() }));
+        if (updates.isEmpty()) return;
+
+        int[] counts = this.jdbcTemplate.batchUpdate(sql, updates);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) continue;
+
+            // first change of a plan created after its stats were last rebuilt
+            Object[] update = updates.get(i);
+            long delta = (Long) update[0];
+            try {
+                this.jdbcTemplate.update(INSERT_SQL, update[1], members ? delta : 0L, members ? 0L : delta);
+            } catch (DuplicateKeyException e) {
+                this.jdbcTemplate.update(sql, update);
+            }
+        }
+    }
+
+    /**
+     * Runs the reconciliation on schedule (gymbo.plan-stats.reconcile-cron).
+     */
+    @Scheduled(cron = "${gymbo.plan-stats.reconcile-cron}")
+    public void scheduledReconcile() {
+        long start = System.nanoTime();
+        int plans = reconcile();
+
+        LOGGER.info("Reconciled the stats of {} plans in {} ms", plans, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Recounts the members of every plan from the user and lapsed_member tables, gymbo.plan-stats.reconcile-parallelism
+     * plans at a time. Each plan is a single statement, so its counts are replaced atomically.
+     *
+     * @return how many plans were reconciled, once per shard
+     */
+    public int reconcile() {
+        int[] plans = { 0 };
+        this.shardRouter.forEachShard(shard -> plans[0] += reconcile(shard));
+        return plans[0];
+    }
+
+    private int reconcile(int shard) {
+        this.jdbcTemplate.update(DELETE_ORPHANS_SQL);
+        this.jdbcTemplate.update(INSERT_MISSING_SQL);
+
+        List<Long> planIds = this.jdbcTemplate.queryForList("select plan_id from " + PlanStats.TABLE_NAME, Long.class);
+        if (planIds.isEmpty()) return 0;
+
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Callable<Integer>> tasks = new ArrayList<>(planIds.size());
+        for (Long planId : planIds) {
+            tasks.add(() -> ShardContext.call(shard, () -> this.jdbcTemplate.update(RECONCILE_SQL, planId, planId, now, planId)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.reconcileParallelism, planIds.size()));
+        try {
+            for (Future<Integer> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Plan stats reconciliation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Plan stats reconciliation failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return planIds.size();
+    }
+}
@@ -1,31 +1,150 @@
 package com.welberth.gymboapi.services;
 
+import com.welberth.gymboapi.configs.CacheConfig;
+import com.welberth.gymboapi.dtos.BulkResult;
+import com.welberth.gymboapi.dtos.MemberChange;
+import com.welberth.gymboapi.dtos.PaymentStatus;
+import com.welberth.gymboapi.dtos.SubscriptionRequest;
+import com.welberth.gymboapi.dtos.SubscriptionState;
+import com.welberth.gymboapi.dtos.UserResponse;
 import com.welberth.gymboapi.exceptions.ApiException;
+import com.welberth.gymboapi.exceptions.ConcurrentUpdateException;
+import com.welberth.gymboapi.exceptions.ConflictException;
+import com.welberth.gymboapi.exceptions.NotFoundException;
+import com.welberth.gymboapi.feed.MemberChangeFeed;
 import com.welberth.gymboapi.models.Plan;
 import com.welberth.gymboapi.models.User;
 import com.welberth.gymboapi.repositories.UserRepository;
+import com.welberth.gymboapi.sharding.ShardContext;
+import com.welberth.gymboapi.sharding.ShardKey;
+import com.welberth.gymboapi.sharding.ShardRouter;
+import com.welberth.gymboapi.snapshot.OffHeapLongIntMap;
+import com.welberth.gymboapi.utils.Transactions;
+
+import io.micrometer.core.annotation.Timed;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Contains business logic and orchestrates the flow of data between the Presentation
  * and Data Access layer (UserRepository) for the User model.
+ * <p>
+ * When members are sharded by gym, calls on one member go to its shard (the @ShardKey parameter, see
+ * ShardRoutingAspect), lookups by username and queries over many members run on every shard (ShardRouter),
+ * and bulk operations are split by shard.
+ * <p>
+ * Subscriptions, cancellations, updates and deletes are pushed to the change feed (MemberChangeFeed) once they commit.
  */
 @Service
+@Timed(value = "gymbo.service", histogram = true)
 public class UserService {
 
+    private static final String SUBSCRIBE_SQL =
+            "update " + User.TABLE_NAME + " set plan_id = ?, paid_until = ?, version = version + 1 where id = ?";
+
+    /*
+     * Single statement conditional updates (see conditionalUpdate): they change the row only if it is still
+     * at the expected version and bump the version. Plain JDBC rather than JPQL bulk updates, which would
+     * evict every User from the second-level cache; UserRepository.invalidateCached covers the one changed.
+     */
+
+    private static final String UPDATE_CONTACT_SQL = "update " + User.TABLE_NAME + " set password = ?, email = ?, version = version + 1";
+
+    private static final String UPDATE_SUBSCRIPTION_SQL = "update " + User.TABLE_NAME + " set plan_id = ?, paid_until = ?, version = version + 1";
+
+    private static final String CLEAR_SUBSCRIPTION_SQL = "update " + User.TABLE_NAME + " set plan_id = null, paid_until = null, version = version + 1";
+
+    private static final String SUBSCRIPTION_STATE_SQL = "select plan_id, version from " + User.TABLE_NAME + " where id = ? for update";
+
+    private static final int MISSING_GENERATION_STRIPES = 1024;
+
+    private static final String USERNAMES_SQL = "select username from " + User.TABLE_NAME + " where username in (";
+
     @Autowired
     private UserRepository userRepository;
 
     @Autowired
     private PlanService planService;
 
+    @Autowired
+    private LapsedMemberService lapsedMemberService;
+
+    @Autowired
+    private PlanStatsService planStatsService;
+
+    @Autowired
+    private PaymentSnapshotService paymentSnapshotService;
+
+    @Autowired
+    private MemberSearchService memberSearchService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private MemberChangeFeed memberChangeFeed;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private Validator validator;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${gymbo.bulk.chunk-size}")
+    private int bulkChunkSize;
+
+    @Value("${gymbo.import.max-reported-failures}")
+    private int maxReportedFailures;
+
+    private final AtomicLongArray missingGenerations = new AtomicLongArray(MISSING_GENERATION_STRIPES); // per stripe of keys, moved by forgetMissing
+
     /**
      * Finds a user on the database by its id.
      *
@@ -33,33 +152,300 @@ public class UserService {
      * @return user corresponding to the id passed
      * @throws ApiException when user is not found
      */
-    public User findById(Long id) throws ApiException {
-        Optional<User> user = this.userRepository.findById(id); // Optional -> means that if no User is found, it returns and empty obj instead of null
+    @Transactional // on the primary: the user is put in the second-level cache, a lagging replica row would stay there
+    public User findById(@ShardKey Long id) throws ApiException {
+        long generation = checkNotMissing(id);
 
-        return user.orElseThrow(() -> new ApiException("Could not find a User with id = " + id));
+        return findOrMissing(id, generation, () -> this.userRepository.findById(id));
     }
 
     /**
-     * Finds a user on the database by its username.
+     * Finds a user by its username, from the second-level cache when it holds it (see UserRepository.findByUsername).
+     * The username says nothing of the shard, so every shard is asked.
      *
      * @param username for the user
      * @return user corresponding to the id passed
      * @throws ApiException when user is not found
      */
+    @Transactional // on the primary, like findById
     public User findByUsername(String username) throws ApiException {
-        Optional<User> user = this.userRepository.findByUsername(username);
+        long generation = checkNotMissing(username);
 
-        return user.orElseThrow(() -> new ApiException("Could not find a User with username = " + username));
+        return findOrMissing(username, generation, () -> firstFound(this.shardRouter.fanOut(shard -> this.userRepository.findByUsername(username))));
     }
 
     /**
-     * Finds a list of Users subscribed to a Plan.
+     * Finds a list of Users subscribed to a Plan, on every shard.
      *
      * @param planId plan id
      * @return list of users that are subscribe to the Plan
      */
+    @Transactional(readOnly = true)
     public List<User> findByPlanId(Long planId) {
-        return this.userRepository.findByPlan_Id(planId);
+        return concat(this.shardRouter.fanOut(shard -> this.userRepository.findByPlan_Id(planId)));
+    }
+
+    /**
+     * Finds the version of a user, without loading it.
+     *
+     * @param id for the user
+     * @return current version of the user row
+     * @throws ApiException when user is not found
+     */
+    @Transactional(readOnly = true)
+    public Long findVersion(@ShardKey Long id) throws ApiException {
+        long generation = checkNotMissing(id);
+
+        return findOrMissing(id, generation, () -> this.userRepository.findVersionById(id));
+    }
+
+    /**
+     * Finds a user by its id, as the API returns it.
+     *
+     * @param id for the user
+     * @return user corresponding to the id passed
+     * @throws ApiException when user is not found
+     */
+    @Transactional(readOnly = true)
+    public UserResponse findResponseById(@ShardKey Long id) throws ApiException {
+        long generation = checkNotMissing(id);
+
+        return findOrMissing(id, generation, () -> this.userRepository.findResponseById(id));
+    }
+
+    /**
+     * Finds a user by its username, as the API returns it.
+     *
+     * @param username for the user
+     * @return user corresponding to the username passed
+     * @throws ApiException when user is not found
+     */
+    @Transactional(readOnly = true)
+    public UserResponse findResponseByUsername(String username) throws ApiException {
+        long generation = checkNotMissing(username);
+
+        return findOrMissing(username, generation,
+                () -> firstFound(this.shardRouter.fanOut(shard -> this.userRepository.findResponseByUsername(username))));
+    }
+
+    /**
+     * Finds the Users subscribed to a Plan, as the API returns them.
+     *
+     * @param planId plan id
+     * @return users subscribed to the Plan, ordered by id
+     */
+    @Transactional(readOnly = true)
+    public List<UserResponse> findResponsesByPlanId(Long planId) {
+        return concat(this.shardRouter.fanOut(shard -> this.userRepository.findResponsesByPlanId(planId)));
+    }
+
+    /**
+     * Finds a page of Users subscribed to a Plan, using the user id as cursor (keyset pagination).
+     *
+     * @param planId plan id
+     * @param afterId id of the last user of the previous page, null for the first page
+     * @param limit maximum number of users on the page
+     * @return users subscribed to the Plan with an id greater than afterId, ordered by id
+     */
+    @Transactional(readOnly = true)
+    public List<UserResponse> findResponsesByPlanId(Long planId, Long afterId, int limit) {
+        Long cursor = afterId == null ? 0L : afterId;
+        int cursorShard = this.shardRouter.shardOfUser(cursor); // the shards before it have no ids past the cursor
+
+        List<UserResponse> page = concat(this.shardRouter.fanOut(shard -> shard < cursorShard ? List.of()
+                : this.userRepository.findResponsesByPlanId(planId, cursor, PageRequest.of(0, limit))));
+        return page.size() > limit ? page.subList(0, limit) : page;
+    }
+
+    /**
+     * Streams every User subscribed to a Plan to the consumer, in id order. Rows come off a database
+     * cursor as DTOs, nothing is kept in the persistence context, so memory stays flat regardless of the plan size.
+     *
+     * @param planId plan id
+     * @param consumer receives the users one at a time
+     */
+    @Transactional(readOnly = true)
+    public void streamResponsesByPlanId(Long planId, Consumer<UserResponse> consumer) {
+        this.shardRouter.readEach(shard -> {
+            try (Stream<UserResponse> users = this.userRepository.streamResponsesByPlanId(planId)) {
+                users.forEach(consumer);
+            }
+        });
+    }
+
+    /**
+     * Streams every User to the consumer, in id order, off a database cursor like streamResponsesByPlanId.
+     *
+     * @param consumer receives the users one at a time
+     */
+    @Transactional(readOnly = true)
+    public void streamResponses(Consumer<UserResponse> consumer) {
+        this.shardRouter.readEach(shard -> {
+            try (Stream<UserResponse> users = this.userRepository.streamAllResponses()) {
+                users.forEach(consumer);
+            }
+        });
+    }
+
+    /**
+     * Creates users from a stream of records (e.g. the lines of an uploaded file) without holding more than
+     * gymbo.bulk.chunk-size of them: records are parsed one at a time and every full chunk goes through the
+     * same validation and batched inserts as createUsers. Records that can't be parsed or are invalid are
+     * rejected by position, only the first gymbo.import.max-reported-failures reasons are kept. Blank records
+     * are skipped but still take a position, so positions stay the lines of the file.
+     *
+     * @param records one record per element, read lazily
+     * @param parser turns a record into a new User, throws IllegalArgumentException when it can't
+     * @return how many users were created and why the others were rejected
+     */
+    public BulkResult importUsers(Iterator<String> records, Function<String, User> parser) {
+        BulkResult result = new BulkResult(0, this.maxReportedFailures);
+        List<User> chunk = new ArrayList<>(this.bulkChunkSize);
+        int[] rows = new int[this.bulkChunkSize]; // position in the file of each user in the chunk
+
+        for (int row = 0; records.hasNext(); row++) {
+            String record = records.next();
+            if (record.isBlank()) continue;
+
+            result.addReceived(1);
+            try {
+                chunk.add(parser.apply(record));
+                rows[chunk.size() - 1] = row;
+            } catch (IllegalArgumentException e) {
+                result.addFailure(row, "Row could not be parsed: " + e.getMessage());
+            }
+
+            if (chunk.size() == this.bulkChunkSize) {
+                createUsers(chunk, index -> rows[index], result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) createUsers(chunk, index -> rows[index], result);
+
+        return result;
+    }
+
+    /**
+     * Creates many users at once. Each user is validated like a single create (User.CreateUser group),
+     * the valid ones are inserted in chunks of gymbo.bulk.chunk-size, one transaction per chunk, which
+     * Hibernate sends to the database as JDBC batches. A row that fails is reported and skipped,
+     * it doesn't abort the batch.
+     *
+     * @param newUsers new users to be created
+     * @return how many users were created and why the others were rejected
+     */
+    public BulkResult createUsers(List<User> newUsers) {
+        BulkResult result = new BulkResult(newUsers.size());
+        createUsers(newUsers, index -> index, result);
+
+        return result;
+    }
+
+    /**
+     * Validates and inserts the given users, recording the outcome in result.
+     *
+     * @param newUsers new users to be created
+     * @param rowOf maps an index in newUsers to the position reported for it
+     * @param result where the outcome is recorded
+     */
+    private void createUsers(List<User> newUsers, IntUnaryOperator rowOf, BulkResult result) {
+        List<Integer> accepted = new ArrayList<>(newUsers.size()); // indexes of the rows that passed validation
+        for (int i = 0; i < newUsers.size(); i++) {
+            User newUser = newUsers.get(i);
+
+            if (newUser == null) {
+                result.addFailure(rowOf.applyAsInt(i), "User is required.");
+                continue;
+            }
+
+            Set<ConstraintViolation<User>> violations = this.validator.validate(newUser, User.CreateUser.class);
+            if (violations.isEmpty()) {
+                accepted.add(i);
+            } else {
+                result.addFailure(rowOf.applyAsInt(i), violations.stream()
+                        .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                        .collect(Collectors.joining(", ")));
+            }
+        }
+
+        Map<Integer, List<Integer>> byShard = accepted.stream()
+                .collect(Collectors.groupingBy(index -> this.shardRouter.shardOfGym(newUsers.get(index).getGymId()), TreeMap::new, Collectors.toList()));
+        byShard.forEach((shard, rows) -> ShardContext.run(shard, () ->
+                applyInChunks(rows, rowOf, result, (chunk) -> insertUsers(newUsers, chunk, result))));
+    }
+
+    /**
+     * Inserts the given users in one transaction, flushed as JDBC batches.
+     *
+     * @param newUsers all the rows of the request
+     * @param indexes of the rows to insert
+     * @param result where the outcome is recorded
+     */
+    private void insertUsers(List<User> newUsers, List<Integer> indexes, BulkResult result) {
+        this.transactionTemplate.executeWithoutResult(status -> {
+            checkUsernamesFree(indexes.stream().map(index -> newUsers.get(index).getUsername()).collect(Collectors.toList()));
+            for (Integer index : indexes) {
+                User newUser = newUsers.get(index);
+                newUser.setId(null); // also resets ids handed out by a rolled back attempt
+
+                Plan plan = newUser.getPlan();
+                newUser.setPlan(plan == null || plan.getId() == null ? null : this.entityManager.getReference(Plan.class, plan.getId()));
+
+                this.entityManager.persist(newUser);
+            }
+            this.entityManager.flush();
+            List<User> inserted = indexes.stream().map(newUsers::get).collect(Collectors.toList());
+            forgetMissing(inserted);
+            this.memberSearchService.indexed(inserted);
+
+            LocalDate today = LocalDate.now();
+            Map<Long, PaymentStatus> members = new HashMap<>();
+            Map<Long, PaymentStatus> lapsed = new HashMap<>(); // new rows, only the ones already lapsed need tracking
+            for (Integer index : indexes) {
+                User newUser = newUsers.get(index);
+                PaymentStatus paymentStatus = paymentStatusOf(newUser);
+
+                if (paymentStatus.getPlanId() != null) members.put(newUser.getId(), paymentStatus);
+                if (paymentStatus.getPlanId() != null && !paymentStatus.isPaidAfter(today)) lapsed.put(newUser.getId(), paymentStatus);
+            }
+            this.lapsedMemberService.trackAll(lapsed);
+            this.paymentSnapshotService.record(members);
+            this.planStatsService.addMembers(indexes.stream()
+                    .map(index -> newUsers.get(index).getPlan())
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.groupingBy(Plan::getId, Collectors.counting())));
+            members.forEach((userId, paymentStatus) -> this.memberChangeFeed.publish(new MemberChange(MemberChange.Type.SUBSCRIBED,
+                    userId, paymentStatus.getPlanId(), null, paymentStatus.getPaidUntil())));
+        });
+
+        result.addSucceeded(indexes.size());
+    }
+
+    /**
+     * Runs a bulk operation over the accepted rows in chunks of gymbo.bulk.chunk-size. When a chunk fails
+     * as a whole it is rolled back and retried row by row, so only the offending rows are reported as failures.
+     *
+     * @param accepted indexes of the rows to apply
+     * @param rowOf maps an index to the position reported for it
+     * @param result where failures are recorded
+     * @param apply applies a chunk of rows, in its own transaction
+     */
+    private void applyInChunks(List<Integer> accepted, IntUnaryOperator rowOf, BulkResult result, Consumer<List<Integer>> apply) {
+        for (int from = 0; from < accepted.size(); from += this.bulkChunkSize) {
+            List<Integer> chunk = accepted.subList(from, Math.min(from + this.bulkChunkSize, accepted.size()));
+
+            try {
+                apply.accept(chunk);
+            } catch (RuntimeException e) {
+                for (Integer index : chunk) {
+                    try {
+                        apply.accept(List.of(index));
+                    } catch (RuntimeException rowException) {
+                        result.addFailure(rowOf.applyAsInt(index), "Row could not be saved: " + NestedExceptionUtils.getMostSpecificCause(rowException).getMessage());
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -69,28 +455,54 @@ public class UserService {
      * @return created user
      */
     @Transactional // Useful for persistence of data (create, update).
-    public User createUser(User newUser) {
+    public User createUser(@ShardKey User newUser) {
         newUser.setId(null); // make sure nobody tries to update a user with this method
+        checkUsernamesFree(List.of(newUser.getUsername()));
+        Plan plan = newUser.getPlan(); // the request only carries the plan id, reference the row instead of a transient copy
+        newUser.setPlan(plan == null || plan.getId() == null ? null : this.entityManager.getReference(Plan.class, plan.getId()));
         newUser = this.userRepository.save(newUser);
+        this.lapsedMemberService.track(newUser.getId(), paymentStatusOf(newUser));
+        if (newUser.getPlan() != null) {
+            this.paymentSnapshotService.record(Map.of(newUser.getId(), paymentStatusOf(newUser)));
+            this.memberChangeFeed.publish(new MemberChange(MemberChange.Type.SUBSCRIBED, newUser.getId(),
+                    newUser.getPlan().getId(), null, newUser.getPaidUntil()));
+        }
+        moveMember(null, newUser.getPlan() == null ? null : newUser.getPlan().getId());
+        forgetMissing(List.of(newUser));
+        this.memberSearchService.indexed(List.of(newUser));
 
         return newUser;
     }
 
     /**
-     * Updates a user on the database.
+     * Updates a user on the database, whatever its current version.
      *
      * @param user with updates
-     * @return updated user
+     * @return new version of the user
      * @throws ApiException if user doesn't exist
      */
     @Transactional
-    public User updateUser(User user) throws ApiException {
-        User updatedUser = findById(user.getId());
+    public Long updateUser(@ShardKey User user) throws ApiException {
+        return updateUser(user, null);
+    }
 
-        updatedUser.setPassword(user.getPassword());
-        updatedUser.setEmail(user.getEmail());
+    /**
+     * Updates a user on the database with a single conditional statement, no read-modify-write.
+     *
+     * @param user with updates
+     * @param expectedVersion version the caller read (If-Match), null to update whatever the version
+     * @return new version of the user
+     * @throws ApiException if user doesn't exist
+     * @throws ConcurrentUpdateException if the user is no longer at the expected version
+     */
+    @Transactional
+    public Long updateUser(@ShardKey User user, Long expectedVersion) throws ApiException {
+        int updated = conditionalUpdate(UPDATE_CONTACT_SQL, user.getId(), expectedVersion, user.getPassword(), user.getEmail());
+        Long version = checkUpdated(user.getId(), updated, expectedVersion);
 
-        return this.userRepository.save(updatedUser);
+        this.memberSearchService.emailChanged(user.getId(), version, user.getEmail());
+        this.memberChangeFeed.publish(new MemberChange(MemberChange.Type.UPDATED, user.getId(), null, null, null));
+        return version;
     }
 
     /**
@@ -99,14 +511,27 @@ public class UserService {
      * @param id of the user to be deleted.
      * @throws ApiException if user doesn't exist or user has related entities on the database
      */
-    public void deleteUser(Long id) throws ApiException {
-        findById(id); // makes sure the user exists
+    @Transactional
+    public void deleteUser(@ShardKey Long id) throws ApiException {
+        User user = findById(id); // makes sure the user exists
+        Long planId = user.getPlan() == null ? null : user.getPlan().getId();
 
         try {
             this.userRepository.deleteById(id);
+            this.entityManager.flush(); // surfaces a constraint violation here rather than at commit
         } catch (Exception e) {
-            throw new ApiException("The user with id = " + id + " could not be deleted.");
+            throw new ConflictException("The user with id = " + id + " could not be deleted.", e);
         }
+        this.lapsedMemberService.track(id, new PaymentStatus(null, null));
+        if (planId != null) this.paymentSnapshotService.record(Map.of(id, new PaymentStatus(null, null)));
+        moveMember(planId, null);
+        evictPaymentStatus(id);
+        this.memberSearchService.removed(id);
+        this.memberChangeFeed.publish(new MemberChange(MemberChange.Type.DELETED, id, null, planId, null));
+        Transactions.afterCommit(() -> {
+            missing(id, missingGeneration(id));
+            missing(user.getUsername(), missingGeneration(user.getUsername()));
+        });
     }
 
     /**
@@ -114,62 +539,467 @@ public class UserService {
      *
      * @param userId user id
      * @return the plan this user is subscribed to
-     * @throws ApiException if user is not subscribed to any plan
+     * @throws ApiException if user doesn't exist or is not subscribed to any plan
      */
-    public Plan findPlan(Long userId) throws ApiException {
-        User user = findById(userId);
+    @Transactional // on the primary: both lookups fill caches, see findPaymentStatus
+    public Plan findPlan(@ShardKey Long userId) throws ApiException {
+        PaymentStatus status = findPaymentStatus(userId);
 
-        try {
-            return user.getPlan();
-        } catch (Exception e) {
-            throw new ApiException("No Plan subscription found for the user " + user.getUsername() + ".");
+        if (status.getPlanId() == null) {
+            throw new NotFoundException("Plan subscription", "user id", userId);
         }
+        return this.planService.findById(status.getPlanId());
     }
 
     /**
-     * Checks if the User is up-to-date with Plan Subscription payment.
+     * Checks if the User is up-to-date with Plan Subscription payment. Subscribed members are answered from
+     * the off-heap payment map, without a transaction; anyone else (and every check until the map is built)
+     * falls back to findPaymentStatus.
      *
      * @param userId user id
      * @return true if user is up-to-date with payment, false otherwise
+     * @throws ApiException if user doesn't exist or is not subscribed to any plan
      */
-    public boolean isPaymentUpToDate(Long userId) {
-        findPlan(userId); // Checks if user has an Active plan, if not an exception will be thrown
-        User user = findById(userId);
+    public boolean isPaymentUpToDate(@ShardKey Long userId) throws ApiException {
+        int paidUntil = this.paymentSnapshotService.findPaidUntil(userId);
+        if (paidUntil != OffHeapLongIntMap.MISSING) return paidUntil > LocalDate.now().toEpochDay();
 
-        LocalDate paidUntil = user.getPaidUntil();
-        LocalDate today = LocalDate.now();
+        PaymentStatus status = this.transactionTemplate.execute(tx -> findPaymentStatus(userId)); // on the primary, see findPaymentStatus
 
-        return paidUntil.isAfter(today);
+        if (status.getPlanId() == null) {
+            throw new NotFoundException("Plan subscription", "user id", userId);
+        }
+        return status.isPaidAfter(LocalDate.now());
     }
 
     /**
-     * Subscribes a User to a Plan.
+     * Finds the plan id and paid until date of a User. Served from a short-lived cache,
+     * on a miss it is a single primary key query that reads only those two columns. Only a row read on
+     * the primary is cached: one from a lagging replica would be served for the whole TTL.
+     *
+     * @param userId user id
+     * @return payment status of the user
+     * @throws ApiException when user is not found
+     */
+    @Transactional // on the primary: the status is cached, a lagging replica row would stay there (a hit takes no connection)
+    public PaymentStatus findPaymentStatus(@ShardKey Long userId) throws ApiException {
+        Cache cache = this.cacheManager.getCache(CacheConfig.PAYMENT_STATUS);
+        PaymentStatus status = cache != null ? cache.get(userId, PaymentStatus.class) : null;
+
+        if (status == null) {
+            long generation = checkNotMissing(userId);
+            status = findOrMissing(userId, generation, () -> this.userRepository.findPaymentStatusById(userId));
+            if (cache != null && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) cache.put(userId, status);
+        }
+        return status;
+    }
+
+    /**
+     * Subscribes a User to a Plan, whatever its current version: the row is locked before it is read,
+     * so a concurrent change is waited for instead of ending in a conflict.
+     *
+     * @param userId id for the user
+     * @param planId the plan this user wants to subscribe to
+     * @param paidUntil until what date this user is subscribed to this plan
+     * @return new version of the user
+     */
+    @Transactional
+    public Long subscribeToPlan(@ShardKey Long userId, Long planId, LocalDate paidUntil) {
+        return subscribeToPlan(userId, planId, paidUntil, null);
+    }
+
+    /**
+     * Subscribes a User to a Plan with a conditional statement. The plan and version of the user are read first,
+     * with the row locked (one primary key read of two columns), so the member can be moved between the plan
+     * stats and no concurrent change can slip in before the update.
      *
      * @param userId id for the user
      * @param planId the plan this user wants to subscribe to
      * @param paidUntil until what date this user is subscribed to this plan
+     * @param expectedVersion version the caller read (If-Match), null to update whatever the version
+     * @return new version of the user
+     * @throws ApiException if the user or the plan doesn't exist
+     * @throws ConcurrentUpdateException if the user is no longer at the expected version
+     */
+    @Transactional
+    public Long subscribeToPlan(@ShardKey Long userId, Long planId, LocalDate paidUntil, Long expectedVersion) throws ApiException {
+        Plan plan = this.planService.findById(planId); // cached, only checks that the plan exists
+        SubscriptionState state = findSubscriptionState(userId, expectedVersion);
+
+        int updated = conditionalUpdate(UPDATE_SUBSCRIPTION_SQL, userId, state.getVersion(), plan.getId(), paidUntil);
+        Long version = checkUpdated(userId, updated, state.getVersion());
+
+        this.lapsedMemberService.track(userId, new PaymentStatus(planId, paidUntil));
+        this.paymentSnapshotService.record(Map.of(userId, new PaymentStatus(planId, paidUntil)));
+        moveMember(state.getPlanId(), planId);
+        evictPaymentStatus(userId);
+        this.memberChangeFeed.publish(new MemberChange(MemberChange.Type.SUBSCRIBED, userId, planId, state.getPlanId(), paidUntil));
+        return version;
+    }
+
+    /**
+     * Subscribes many Users to Plans at once. The plans are loaded with a single query, then the
+     * subscriptions are applied as JDBC batched updates in chunks of gymbo.bulk.chunk-size rows,
+     * one transaction per chunk. A row that fails is reported and skipped, it doesn't abort the batch.
+     *
+     * @param subscriptions rows of (user id, plan id, paid until)
+     * @return how many rows were applied and why the others were rejected
+     */
+    public BulkResult subscribeToPlans(List<SubscriptionRequest> subscriptions) {
+        BulkResult result = new BulkResult(subscriptions.size());
+
+        Set<Long> planIds = subscriptions.stream()
+                .filter(Objects::nonNull)
+                .map(SubscriptionRequest::getPlanId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, Plan> plans = this.planService.findAllById(planIds);
+
+        List<Integer> accepted = new ArrayList<>(subscriptions.size()); // indexes of the rows that passed validation
+        for (int i = 0; i < subscriptions.size(); i++) {
+            SubscriptionRequest row = subscriptions.get(i);
+
+            if (row == null || row.getUserId() == null || row.getPlanId() == null || row.getPaidUntil() == null) {
+                result.addFailure(i, "userId, planId and paidUntil are required.");
+            } else if (!plans.containsKey(row.getPlanId())) {
+                result.addFailure(i, "Could not find a Plan with id = " + row.getPlanId());
+            } else {
+                accepted.add(i);
+            }
+        }
+
+        Map<Integer, List<Integer>> byShard = accepted.stream()
+                .collect(Collectors.groupingBy(index -> this.shardRouter.shardOfUser(subscriptions.get(index).getUserId()), TreeMap::new, Collectors.toList()));
+        byShard.forEach((shard, rows) -> ShardContext.run(shard, () ->
+                applyInChunks(rows, index -> index, result, (chunk) -> applySubscriptions(subscriptions, chunk, result))));
+
+        return result;
+    }
+
+    /**
+     * Applies the given rows as one JDBC batch in its own transaction, then records the outcome of each row.
+     *
+     * @param subscriptions all the rows of the request
+     * @param indexes of the rows to apply
+     * @param result where the outcome of each row is recorded
+     */
+    private void applySubscriptions(List<SubscriptionRequest> subscriptions, List<Integer> indexes, BulkResult result) {
+        int[] updateCounts = this.transactionTemplate.execute(status -> {
+            Set<Long> userIds = indexes.stream()
+                    .map(index -> subscriptions.get(index).getUserId())
+                    .collect(Collectors.toSet());
+            Map<Long, Long> previousPlans = lockPlans(userIds);
+            this.userRepository.invalidateCached(userIds);
+
+            int[] counts = this.jdbcTemplate.batchUpdate(SUBSCRIBE_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    SubscriptionRequest row = subscriptions.get(indexes.get(i));
+                    ps.setLong(1, row.getPlanId());
+                    ps.setObject(2, row.getPaidUntil());
+                    ps.setLong(3, row.getUserId());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return indexes.size();
+                }
+            });
+
+            Map<Long, PaymentStatus> updated = new HashMap<>();
+            for (int i = 0; i < indexes.size(); i++) {
+                SubscriptionRequest row = subscriptions.get(indexes.get(i));
+
+                if (counts[i] != 0) updated.put(row.getUserId(), new PaymentStatus(row.getPlanId(), row.getPaidUntil()));
+            }
+            this.lapsedMemberService.trackAll(updated);
+            this.paymentSnapshotService.record(updated);
+
+            Map<Long, Long> members = new HashMap<>(); // a user listed twice in the chunk ends up on its last plan
+            updated.forEach((userId, paymentStatus) -> {
+                Long previousPlan = previousPlans.get(userId);
+                if (previousPlan != null) members.merge(previousPlan, -1L, Long::sum);
+                members.merge(paymentStatus.getPlanId(), 1L, Long::sum);
+            });
+            this.planStatsService.addMembers(members);
+            updated.forEach((userId, paymentStatus) -> this.memberChangeFeed.publish(new MemberChange(MemberChange.Type.SUBSCRIBED,
+                    userId, paymentStatus.getPlanId(), previousPlans.get(userId), paymentStatus.getPaidUntil())));
+
+            return counts;
+        });
+
+        for (int i = 0; i < indexes.size(); i++) {
+            Long userId = subscriptions.get(indexes.get(i)).getUserId();
+
+            if (updateCounts[i] == 0) { // negative counts are drivers reporting success without a row count
+                result.addFailure(indexes.get(i), "Could not find a User with id = " + userId);
+            } else {
+                result.addSucceeded(1);
+                evictPaymentStatus(userId);
+            }
+        }
+    }
+
+    /**
+     * Unsubscribes a User to a Plan, whatever its current version: the row is locked before it is read,
+     * so a concurrent change is waited for instead of ending in a conflict.
+     *
+     * @param userId id for the user
+     * @return new version of the user
      */
-    public void subscribeToPlan(Long userId, Long planId, LocalDate paidUntil) {
-        User user = findById(userId);
-        Plan plan = this.planService.findById(planId);
+    @Transactional
+    public Long unsubscribeToPlan(@ShardKey Long userId) {
+        return unsubscribeToPlan(userId, null);
+    }
 
-        user.setPlan(plan);
-        user.setPaidUntil(paidUntil);
+    /**
+     * Unsubscribes a User to a Plan with a conditional statement, reading its plan and version first
+     * with the row locked, like subscribeToPlan.
+     *
+     * @param userId id for the user
+     * @param expectedVersion version the caller read (If-Match), null to update whatever the version
+     * @return new version of the user
+     * @throws ApiException if user doesn't exist
+     * @throws ConcurrentUpdateException if the user is no longer at the expected version
+     */
+    @Transactional
+    public Long unsubscribeToPlan(@ShardKey Long userId, Long expectedVersion) throws ApiException {
+        SubscriptionState state = findSubscriptionState(userId, expectedVersion);
 
-        updateUser(user);
+        int updated = conditionalUpdate(CLEAR_SUBSCRIPTION_SQL, userId, state.getVersion());
+        Long version = checkUpdated(userId, updated, state.getVersion());
+
+        this.lapsedMemberService.track(userId, new PaymentStatus(null, null));
+        if (state.getPlanId() != null) this.paymentSnapshotService.record(Map.of(userId, new PaymentStatus(null, null)));
+        moveMember(state.getPlanId(), null);
+        evictPaymentStatus(userId);
+        this.memberChangeFeed.publish(new MemberChange(MemberChange.Type.UNSUBSCRIBED, userId, null, state.getPlanId(), null));
+        return version;
+    }
+
+    /**
+     * Runs a conditional update on a user, invalidating its cached state first.
+     *
+     * @param updateSql update statement without its where clause, the values to set as its parameters
+     * @param userId id for the user
+     * @param expectedVersion version the row must be at, null to update whatever the version
+     * @param values parameters of updateSql
+     * @return rows updated, 0 when the user is missing or at another version
+     */
+    private int conditionalUpdate(String updateSql, Long userId, Long expectedVersion, Object... values) {
+        this.userRepository.invalidateCached(List.of(userId));
+
+        Object[] parameters = Arrays.copyOf(values, values.length + (expectedVersion == null ? 1 : 2));
+        parameters[values.length] = userId;
+        if (expectedVersion == null) {
+            return this.jdbcTemplate.update(updateSql + " where id = ?", parameters);
+        }
+        parameters[values.length + 1] = expectedVersion;
+        return this.jdbcTemplate.update(updateSql + " where id = ? and version = ?", parameters);
+    }
+
+    /**
+     * Turns the row count of a conditional update into the new version, or into the reason nothing was updated.
+     *
+     * @param userId id for the user
+     * @param updated rows updated by the statement
+     * @param expectedVersion version the update was conditioned on, null for none
+     * @return new version of the user
+     * @throws ApiException if user doesn't exist
+     * @throws ConcurrentUpdateException if the user exists but is at another version
+     */
+    private Long checkUpdated(Long userId, int updated, Long expectedVersion) throws ApiException {
+        if (updated == 1) {
+            return expectedVersion != null ? expectedVersion + 1 : findVersion(userId);
+        }
+        if (!this.userRepository.existsById(userId)) {
+            throw new NotFoundException("User", "id", userId);
+        }
+        throw new ConcurrentUpdateException("The User with id = " + userId + " was changed by someone else, reload it and retry.");
     }
 
     /**
-     * Unsubscribes a User to a Plan.
+     * Reads the plan and version a conditional subscription update starts from, and locks the row until the
+     * transaction ends so the update can't meet another version than the one read.
      *
      * @param userId id for the user
+     * @param expectedVersion version the caller read (If-Match), null for whatever the current version is
+     * @return plan id and version of the user
+     * @throws ApiException if user doesn't exist
+     * @throws ConcurrentUpdateException if the user is no longer at the expected version
+     */
+    private SubscriptionState findSubscriptionState(Long userId, Long expectedVersion) throws ApiException {
+        SubscriptionState state = this.jdbcTemplate.query(SUBSCRIPTION_STATE_SQL,
+                        (rs, row) -> new SubscriptionState(rs.getObject(1, Long.class), rs.getLong(2)), userId)
+                .stream().findFirst()
+                .orElseThrow(() -> new NotFoundException("User", "id", userId));
+
+        if (expectedVersion != null && !expectedVersion.equals(state.getVersion())) {
+            throw new ConcurrentUpdateException("The User with id = " + userId + " was changed by someone else, reload it and retry.");
+        }
+        return state;
+    }
+
+    /**
+     * Locks the rows of the given users and reads their current plan, so the plan stats can be moved
+     * by the batch that follows.
+     *
+     * @param userIds ids for the users
+     * @return plan id by user id, users without a plan are left out
+     */
+    private Map<Long, Long> lockPlans(Set<Long> userIds) {
+        String placeholders = userIds.stream().map(userId -> "?").collect(Collectors.joining(", "));
+        Map<Long, Long> plans = new HashMap<>();
+
+        this.jdbcTemplate.query("select id, plan_id from " + User.TABLE_NAME + " where id in (" + placeholders + ") for update",
+                rs -> {
+                    Long planId = rs.getObject(2, Long.class);
+                    if (planId != null) plans.put(rs.getLong(1), planId);
+                },
+                userIds.toArray());
+        return plans;
+    }
+
+    /**
+     * Moves a member between the stats of two plans, in the caller's transaction.
+     *
+     * @param fromPlanId plan the member leaves, null for none
+     * @param toPlanId plan the member joins, null for none
+     */
+    private void moveMember(Long fromPlanId, Long toPlanId) {
+        if (Objects.equals(fromPlanId, toPlanId)) return;
+
+        Map<Long, Long> deltas = new HashMap<>();
+        if (fromPlanId != null) deltas.put(fromPlanId, -1L);
+        if (toPlanId != null) deltas.put(toPlanId, 1L);
+        this.planStatsService.addMembers(deltas);
+    }
+
+    /**
+     * Makes sure no other shard has members with the given usernames: the unique key of each shard only covers
+     * its own members. Two creates of the same username racing on two shards can still both succeed.
+     *
+     * @param usernames of the members about to be created on the current shard
+     * @throws ConflictException when a username is taken on another shard
+     */
+    private void checkUsernamesFree(Collection<String> usernames) throws ConflictException {
+        if (this.shardRouter.shards() == 1 || usernames.isEmpty()) return;
+
+        int current = ShardContext.current();
+        String sql = USERNAMES_SQL + usernames.stream().map(username -> "?").collect(Collectors.joining(", ")) + ")";
+        List<String> taken = concat(this.shardRouter.fanOut(shard -> shard == current ? List.<String>of()
+                : this.jdbcTemplate.queryForList(sql, String.class, usernames.toArray())));
+
+        if (!taken.isEmpty()) throw new ConflictException("Username already taken: " + String.join(", ", taken));
+    }
+
+    private static <T> Optional<T> firstFound(List<Optional<T>> found) {
+        return found.stream().filter(Optional::isPresent).map(Optional::get).findFirst();
+    }
+
+    private static <T> List<T> concat(List<List<T>> lists) {
+        if (lists.size() == 1) return lists.get(0);
+
+        return lists.stream().flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    private static PaymentStatus paymentStatusOf(User user) {
+        Plan plan = user.getPlan();
+
+        return new PaymentStatus(plan == null ? null : plan.getId(), user.getPaidUntil());
+    }
+
+    /**
+     * Fails right away when the user was recently found missing, so repeated lookups of members that
+     * don't exist (scanners, retry storms) don't reach the database.
+     *
+     * @param key id (Long) or username (String) of the user
+     * @return the generation of the key before the lookup, to hand to missing
+     * @throws NotFoundException when the key is in the missing users cache
+     */
+    private long checkNotMissing(Object key) throws NotFoundException {
+        long generation = missingGeneration(key);
+        Cache cache = this.cacheManager.getCache(CacheConfig.MISSING_USERS);
+
+        if (cache != null && cache.get(key) != null) throw notFound(key);
+        return generation;
+    }
+
+    /**
+     * Runs a lookup, and when it finds nothing on a replica (which may only be lagging) runs it again on the primary.
+     * Only a miss the primary agrees with is remembered.
+     *
+     * @param key id (Long) or username (String) of the user
+     * @param generation of the key, from checkNotMissing
+     * @param lookup the query, run in the caller's transaction and, after a miss on a replica, in a new one on the primary
+     * @return what the lookup found
+     * @throws NotFoundException when the user doesn't exist
      */
-    public void unsubscribeToPlan(Long userId) {
-        User user = findById(userId);
+    private <T> T findOrMissing(Object key, long generation, Supplier<Optional<T>> lookup) throws NotFoundException {
+        Optional<T> found = lookup.get();
+        if (found.isEmpty() && TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            TransactionTemplate primary = new TransactionTemplate(this.transactionTemplate.getTransactionManager());
+            primary.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW); // read-write, so routed to the primary
+            found = primary.execute(status -> lookup.get());
+        }
+        return found.orElseThrow(() -> missing(key, generation));
+    }
 
-        user.setPlan(null);
-        user.setPaidUntil(null);
+    /**
+     * Remembers a user as missing until the entry expires or the user is created. A user created since the
+     * lookup began (its generation moved) may have been forgotten before this put, so the put is taken back.
+     *
+     * @param key id (Long) or username (String) of the user
+     * @param generation of the key when the lookup began
+     * @return the exception to throw for the miss
+     */
+    private NotFoundException missing(Object key, long generation) {
+        Cache cache = this.cacheManager.getCache(CacheConfig.MISSING_USERS);
+
+        if (cache != null) {
+            cache.put(key, Boolean.TRUE);
+            if (missingGeneration(key) != generation) cache.evict(key);
+        }
+        return notFound(key);
+    }
+
+    /**
+     * Forgets new users from the missing users cache, after commit when inside a transaction. The generation
+     * of their keys moves first, so a lookup that missed them before the commit doesn't put them back.
+     *
+     * @param users just created
+     */
+    private void forgetMissing(List<User> users) {
+        Cache cache = this.cacheManager.getCache(CacheConfig.MISSING_USERS);
+
+        if (cache != null) Transactions.afterCommit(() -> users.forEach(user -> {
+            this.missingGenerations.incrementAndGet(missingStripe(user.getId()));
+            this.missingGenerations.incrementAndGet(missingStripe(user.getUsername()));
+            cache.evict(user.getId());
+            cache.evict(user.getUsername());
+        }));
+    }
+
+    private long missingGeneration(Object key) {
+        return this.missingGenerations.get(missingStripe(key));
+    }
+
+    private static int missingStripe(Object key) {
+        return Math.floorMod(key.hashCode(), MISSING_GENERATION_STRIPES);
+    }
+
+    private static NotFoundException notFound(Object key) {
+        return new NotFoundException("User", key instanceof String ? "username" : "id", key);
+    }
+
+    /**
+     * Evicts the cached payment status of a User, after commit when inside a transaction.
+     *
+     * @param userId id for the user
+     */
+    private void evictPaymentStatus(Long userId) {
+        Cache cache = this.cacheManager.getCache(CacheConfig.PAYMENT_STATUS);
 
-        updateUser(user);
+        if (cache != null) Transactions.afterCommit(() -> cache.evict(userId));
     }
 }
@@ -0,0 +1,80 @@
+package com.welberth.gymboapi.sharding;
+
+import java.util.function.Supplier;
+
+/**
+ * The shard the current thread works on. ShardRoutingDataSource sends the connections of the thread there,
+ * ShardedSequenceGenerator hands out the user ids of that shard. Threads that never set it work on the home
+ * shard, which also holds the master copy of the plans.
+ * <p>
+ * Set it before the transaction begins (ShardRoutingAspect, ShardRouter): a transaction keeps the connection
+ * it started with, changing the shard inside one has no effect on it.
+ */
+public final class ShardContext {
+
+    public static final int HOME_SHARD = 0;
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() { }
+
+    /**
+     * @return the shard of the current thread, HOME_SHARD when none was set
+     */
+    public static int current() {
+        Integer shard = CURRENT.get();
+
+        return shard == null ? HOME_SHARD : shard;
+    }
+
+    /**
+     * Runs work on a shard, then puts the previous shard of the thread back.
+     *
+     * @param shard shard to work on
+     * @param work to run
+     * @return what the work returned
+     */
+    public static <T> T call(int shard, Supplier<T> work) {
+        Integer previous = enter(shard);
+        try {
+            return work.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Runs work on a shard, then puts the previous shard of the thread back.
+     *
+     * @param shard shard to work on
+     * @param work to run
+     */
+    public static void run(int shard, Runnable work) {
+        Integer previous = enter(shard);
+        try {
+            work.run();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Switches the thread to a shard, for callers that can't pass their work as a Supplier (e.g. an aspect).
+     *
+     * @param shard shard to work on
+     * @return the previous shard, to give back to restore
+     */
+    static Integer enter(int shard) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        return previous;
+    }
+
+    static void restore(Integer previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
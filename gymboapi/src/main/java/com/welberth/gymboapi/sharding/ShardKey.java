@@ -0,0 +1,21 @@
+package com.welberth.gymboapi.sharding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the parameter a service method is routed by (ShardRoutingAspect). What it routes on depends on its type:
+ * <ul>
+ *     <li>Long - a member id, the call goes to the member's shard.</li>
+ *     <li>User - the member's id, or its gym when it has no id yet (a create).</li>
+ *     <li>Integer - a shard number, for calls that address a shard directly.</li>
+ * </ul>
+ */
+@Documented
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ShardKey {
+}
@@ -0,0 +1,204 @@
+package com.welberth.gymboapi.sharding;
+
+import com.welberth.gymboapi.exceptions.BadRequestException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Where members live when they are sharded by gym (ShardingConfig): a member is on shard floorMod(gymId, shards),
+ * and its id says so - the shard number sits above the ID_SHIFT low bits, the shard's own sequence value below
+ * (see ShardedSequenceGenerator). Any operation on one member goes to one shard without a lookup, and the ids of
+ * shard n are all lower than those of shard n + 1, so reading the shards in order gives the members in id order.
+ * <p>
+ * Queries over many members run on every shard: fanOut in parallel, readEach one shard after the other (cursors
+ * consumed on the caller's thread). With a single shard, sharding off, both run the query in place.
+ */
+@Component
+public class ShardRouter {
+
+    public static final int ID_SHIFT = 48;
+
+    public static final int MAX_SHARDS = 32; // ids stay under 2^53, exact as JSON numbers
+
+    private static final long LOCAL_ID_MASK = (1L << ID_SHIFT) - 1;
+
+    private final int shards;
+
+    private final PlatformTransactionManager transactionManager;
+
+    private final ExecutorService fanOutExecutor; // null with a single shard
+
+    public ShardRouter(@Value("${gymbo.sharding.urls:}") List<String> urls,
+                       @Value("${gymbo.sharding.fan-out-parallelism}") int fanOutParallelism,
+                       PlatformTransactionManager transactionManager) {
+        if (urls.size() > MAX_SHARDS) {
+            throw new IllegalStateException("At most " + MAX_SHARDS + " shards are supported, gymbo.sharding.urls lists " + urls.size());
+        }
+        this.shards = Math.max(1, urls.size());
+        this.transactionManager = transactionManager;
+        this.fanOutExecutor = this.shards == 1 ? null : Executors.newFixedThreadPool(Math.min(fanOutParallelism, this.shards));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (this.fanOutExecutor != null) this.fanOutExecutor.shutdown();
+    }
+
+    /**
+     * @return how many shards there are, 1 when sharding is off
+     */
+    public int shards() {
+        return this.shards;
+    }
+
+    /**
+     * Checks a shard number given by a client.
+     *
+     * @param shard shard number
+     * @return the shard number
+     * @throws BadRequestException when there is no such shard
+     */
+    public int checkShard(int shard) throws BadRequestException {
+        if (shard < 0 || shard >= this.shards) {
+            throw new BadRequestException("There is no shard " + shard + ", shards go from 0 to " + (this.shards - 1) + ".");
+        }
+        return shard;
+    }
+
+    /**
+     * @param gymId gym (location) of a member
+     * @return the shard the members of the gym live on
+     */
+    public int shardOfGym(long gymId) {
+        return Math.floorMod(gymId, this.shards);
+    }
+
+    /**
+     * @param userId id of a member
+     * @return the shard the member lives on, the home shard for ids no shard could have handed out
+     */
+    public int shardOfUser(long userId) {
+        long shard = userId >>> ID_SHIFT;
+
+        return shard < this.shards ? (int) shard : ShardContext.HOME_SHARD;
+    }
+
+    /**
+     * @param shard shard that handed out the id
+     * @param localId value of the shard's user id sequence
+     * @return the member id
+     */
+    public static long userId(int shard, long localId) {
+        if (localId < 0 || localId > LOCAL_ID_MASK) {
+            throw new IllegalStateException("User id sequence value " + localId + " is out of range on shard " + shard);
+        }
+        return ((long) shard << ID_SHIFT) | localId;
+    }
+
+    /**
+     * Runs a read on every shard, in parallel, each in a new transaction as read-only as the caller's.
+     *
+     * @param read the read, given the shard it runs on
+     * @return what the read returned on each shard, in shard order
+     */
+    public <T> List<T> fanOut(IntFunction<T> read) {
+        if (this.shards == 1) return Collections.singletonList(ShardContext.call(ShardContext.HOME_SHARD, () -> read.apply(ShardContext.HOME_SHARD)));
+
+        TransactionTemplate transaction = newTransaction();
+        List<Callable<T>> tasks = new ArrayList<>(this.shards);
+        for (int shard = 0; shard < this.shards; shard++) {
+            int target = shard;
+            tasks.add(() -> ShardContext.call(target, () -> transaction.execute(status -> read.apply(target))));
+        }
+
+        try {
+            List<T> results = new ArrayList<>(this.shards);
+            for (Future<T> result : this.fanOutExecutor.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Shard fan-out interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Shard fan-out failed", e.getCause());
+        }
+    }
+
+    /**
+     * Runs a read on every shard, one after the other in shard order on the caller's thread, each in a new
+     * transaction as read-only as the caller's.
+     *
+     * @param read the read, given the shard it runs on
+     */
+    public void readEach(IntConsumer read) {
+        if (this.shards == 1) {
+            ShardContext.run(ShardContext.HOME_SHARD, () -> read.accept(ShardContext.HOME_SHARD));
+            return;
+        }
+
+        TransactionTemplate transaction = newTransaction();
+        for (int shard = 0; shard < this.shards; shard++) {
+            int target = shard;
+            ShardContext.run(target, () -> transaction.executeWithoutResult(status -> read.accept(target)));
+        }
+    }
+
+    /**
+     * Runs work on every shard, one after the other in shard order, for work that opens its own transactions
+     * (scheduled jobs).
+     *
+     * @param work the work, given the shard it runs on
+     */
+    public void forEachShard(IntConsumer work) {
+        for (int shard = 0; shard < this.shards; shard++) {
+            int target = shard;
+            ShardContext.run(target, () -> work.accept(target));
+        }
+    }
+
+    /**
+     * Applies a write to every shard but the home one, each in its own transaction, one after the other.
+     * Used to keep the copies of replicated tables (plans) in line with the home shard.
+     *
+     * @param write the write, given the shard it runs on
+     */
+    public void replicate(IntConsumer write) {
+        TransactionTemplate transaction = new TransactionTemplate(this.transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        for (int shard = ShardContext.HOME_SHARD + 1; shard < this.shards; shard++) {
+            int target = shard;
+            ShardContext.run(target, () -> transaction.executeWithoutResult(status -> write.accept(target)));
+        }
+    }
+
+    /**
+     * A new transaction (the caller's, if any, is on one shard only) that is read-only when the caller's is.
+     */
+    private TransactionTemplate newTransaction() {
+        TransactionTemplate transaction = new TransactionTemplate(this.transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.setReadOnly(TransactionSynchronizationManager.isActualTransactionActive()
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+        return transaction;
+    }
+}
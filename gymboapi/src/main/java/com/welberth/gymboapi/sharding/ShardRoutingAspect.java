@@ -0,0 +1,69 @@
+package com.welberth.gymboapi.sharding;
+
+import com.welberth.gymboapi.models.User;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes the service calls on one member to the member's shard: the parameter marked @ShardKey picks the shard
+ * (see ShardKey), which is set for the whole call. Runs right after admission control and before the transaction
+ * advice, so the transaction and everything it calls (lapsed list, plan stats, payment changes) are on that shard.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class ShardRoutingAspect {
+
+    private static final int NO_KEY = -1;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    private final Map<Method, Integer> keyPositions = new ConcurrentHashMap<>();
+
+    @Around("execution(* com.welberth.gymboapi.services..*(.., @com.welberth.gymboapi.sharding.ShardKey (*), ..))")
+    public Object route(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        int position = this.keyPositions.computeIfAbsent(method, ShardRoutingAspect::keyPosition);
+        if (position == NO_KEY) return joinPoint.proceed();
+
+        Integer previous = ShardContext.enter(shardOf(joinPoint.getArgs()[position]));
+        try {
+            return joinPoint.proceed();
+        } finally {
+            ShardContext.restore(previous);
+        }
+    }
+
+    private int shardOf(Object key) {
+        if (key instanceof Long) return this.shardRouter.shardOfUser((Long) key);
+        if (key instanceof Integer) return this.shardRouter.checkShard((Integer) key);
+        if (key instanceof User) {
+            User user = (User) key;
+            return user.getId() != null ? this.shardRouter.shardOfUser(user.getId()) : this.shardRouter.shardOfGym(user.getGymId());
+        }
+        return ShardContext.current(); // null keys are rejected by the method itself
+    }
+
+    private static int keyPosition(Method method) {
+        Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof ShardKey) return i;
+            }
+        }
+        return NO_KEY;
+    }
+}
@@ -0,0 +1,43 @@
+package com.welberth.gymboapi.sharding;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends each connection to the database of the current shard (ShardContext), one target per shard.
+ * <p>
+ * Must sit behind a LazyConnectionDataSourceProxy, like ReadWriteRoutingDataSource: the transaction manager
+ * asks for a connection when the transaction begins, the shard is read when the first statement needs it.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    private final List<DataSource> shards;
+
+    public ShardRoutingDataSource(List<DataSource> shards) {
+        this.shards = List.copyOf(shards);
+
+        Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            targets.put(shard, shards.get(shard));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.get(ShardContext.HOME_SHARD));
+        setLenientFallback(false); // a shard that doesn't exist is a bug, not the home shard
+    }
+
+    /**
+     * @return the database of every shard, in shard order
+     */
+    public List<DataSource> getShards() {
+        return this.shards;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.current();
+    }
+}
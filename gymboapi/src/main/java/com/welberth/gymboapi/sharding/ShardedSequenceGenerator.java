@@ -0,0 +1,76 @@
+package com.welberth.gymboapi.sharding;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.boot.model.relational.Database;
+import org.hibernate.boot.model.relational.SqlStringGenerationContext;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pooled sequence ids (the same sequence, or sequence table on MySQL, on every shard) with the shard number on
+ * top, see ShardRouter.userId. Each shard gets its own copy of the generator: the pooled optimizer keeps a block
+ * of values in memory, a block read from one shard's sequence must only ever be used for that shard's rows.
+ * The value is read from the database of the current shard (ShardContext), the one the insert goes to.
+ * <p>
+ * On the home shard the ids are the plain sequence values, so the ids handed out before sharding stay valid.
+ */
+public class ShardedSequenceGenerator extends SequenceStyleGenerator {
+
+    private final Map<Integer, SequenceStyleGenerator> shardGenerators = new ConcurrentHashMap<>();
+
+    private Type type;
+
+    private Properties params;
+
+    private ServiceRegistry serviceRegistry;
+
+    private Database database;
+
+    private SqlStringGenerationContext context;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        super.configure(type, params, serviceRegistry);
+        this.type = type;
+        this.params = params;
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    public void registerExportables(Database database) {
+        super.registerExportables(database);
+        this.database = database;
+    }
+
+    @Override
+    public void initialize(SqlStringGenerationContext context) {
+        super.initialize(context);
+        this.context = context;
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) throws HibernateException {
+        int shard = ShardContext.current();
+        Serializable value = shard == ShardContext.HOME_SHARD
+                ? super.generate(session, object)
+                : this.shardGenerators.computeIfAbsent(shard, this::newShardGenerator).generate(session, object);
+
+        return ShardRouter.userId(shard, ((Number) value).longValue());
+    }
+
+    private SequenceStyleGenerator newShardGenerator(int shard) {
+        SequenceStyleGenerator generator = new SequenceStyleGenerator();
+        generator.configure(this.type, this.params, this.serviceRegistry);
+        generator.registerExportables(this.database); // finds the sequence the home generator registered
+        generator.initialize(this.context);
+        return generator;
+    }
+}
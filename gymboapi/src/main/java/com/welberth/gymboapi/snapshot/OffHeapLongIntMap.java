@@ -0,0 +1,199 @@
+package com.welberth.gymboapi.snapshot;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open addressing hash map from positive long keys to int values, stored in a direct buffer: no boxing,
+ * no per-entry objects, nothing for the garbage collector to trace however many entries it holds.
+ * <p>
+ * Slots are 16 bytes (key, value, padding so keys stay 8-byte aligned), a zero key marks an empty slot.
+ * Collisions are resolved by linear probing and removals shift the following entries back, so there are
+ * no tombstones. Reads are optimistic (StampedLock) and only take the read lock when a write got in the way.
+ */
+public final class OffHeapLongIntMap {
+
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    private static final int SLOT_BYTES = 16;
+
+    private static final int VALUE_OFFSET = 8;
+
+    private static final double MAX_LOAD = 0.6;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final StampedLock lock = new StampedLock();
+
+    private ByteBuffer slots;
+
+    private int size;
+
+    /**
+     * @param expectedSize entries the map is sized for, it grows past that when needed
+     */
+    public OffHeapLongIntMap(int expectedSize) {
+        this.slots = allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Finds the value of a key.
+     *
+     * @param key a positive key
+     * @return its value, MISSING when the key is not in the map
+     */
+    public int get(long key) {
+        long stamp = this.lock.tryOptimisticRead();
+        int value = find(this.slots, key);
+        if (this.lock.validate(stamp)) return value;
+
+        stamp = this.lock.readLock();
+        try {
+            return find(this.slots, key);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key a positive key
+     * @param value its value, anything but MISSING
+     */
+    public void put(long key, int value) {
+        if (key <= 0) throw new IllegalArgumentException("Keys must be positive: " + key);
+        if (value == MISSING) throw new IllegalArgumentException("MISSING can't be stored");
+
+        long stamp = this.lock.writeLock();
+        try {
+            if (this.size + 1 > this.slots.capacity() / SLOT_BYTES * MAX_LOAD) resize(capacityFor(this.size + 1));
+
+            int mask = mask(this.slots);
+            for (int slot = index(key, mask); ; slot = (slot + 1) & mask) {
+                long current = this.slots.getLong(slot * SLOT_BYTES);
+                if (current == 0) {
+                    this.slots.putInt(slot * SLOT_BYTES + VALUE_OFFSET, value);
+                    this.slots.putLong(slot * SLOT_BYTES, key);
+                    this.size++;
+                    return;
+                }
+                if (current == key) {
+                    this.slots.putInt(slot * SLOT_BYTES + VALUE_OFFSET, value);
+                    return;
+                }
+            }
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a key, if present.
+     *
+     * @param key a positive key
+     */
+    public void remove(long key) {
+        long stamp = this.lock.writeLock();
+        try {
+            int mask = mask(this.slots);
+            int slot = index(key, mask);
+            while (true) {
+                long current = this.slots.getLong(slot * SLOT_BYTES);
+                if (current == 0) return;
+                if (current == key) break;
+                slot = (slot + 1) & mask;
+            }
+            this.size--;
+
+            // shift back the entries of the same probe run that would no longer be reachable
+            int hole = slot;
+            for (int next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+                long moved = this.slots.getLong(next * SLOT_BYTES);
+                if (moved == 0) break;
+
+                int home = index(moved, mask);
+                boolean reachable = hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+                if (!reachable) {
+                    this.slots.putInt(hole * SLOT_BYTES + VALUE_OFFSET, this.slots.getInt(next * SLOT_BYTES + VALUE_OFFSET));
+                    this.slots.putLong(hole * SLOT_BYTES, moved);
+                    hole = next;
+                }
+            }
+            this.slots.putLong(hole * SLOT_BYTES, 0L);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return how many keys the map holds
+     */
+    public int size() {
+        long stamp = this.lock.readLock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return off-heap bytes taken by the slots
+     */
+    public long offHeapBytes() {
+        return this.slots.capacity();
+    }
+
+    /**
+     * Probes for a key. Bounded by the number of slots, so a torn optimistic read can't loop forever,
+     * and the mask comes from the buffer itself so it always matches the slots being read.
+     */
+    private static int find(ByteBuffer slots, long key) {
+        int mask = mask(slots);
+        int slot = index(key, mask);
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = slots.getLong(slot * SLOT_BYTES);
+            if (current == 0) return MISSING; // before the key check: an empty slot must not match key 0
+            if (current == key) return slots.getInt(slot * SLOT_BYTES + VALUE_OFFSET);
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    private void resize(int capacity) {
+        ByteBuffer old = this.slots;
+        ByteBuffer resized = allocate(capacity);
+        int mask = mask(resized);
+
+        for (int offset = 0; offset < old.capacity(); offset += SLOT_BYTES) {
+            long key = old.getLong(offset);
+            if (key == 0) continue;
+
+            int slot = index(key, mask);
+            while (resized.getLong(slot * SLOT_BYTES) != 0) slot = (slot + 1) & mask;
+            resized.putInt(slot * SLOT_BYTES + VALUE_OFFSET, old.getInt(offset + VALUE_OFFSET));
+            resized.putLong(slot * SLOT_BYTES, key);
+        }
+        this.slots = resized;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * SLOT_BYTES); // zero filled, so every slot starts empty
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < size) capacity <<= 1;
+        return capacity;
+    }
+
+    private static int mask(ByteBuffer slots) {
+        return slots.capacity() / SLOT_BYTES - 1;
+    }
+
+    private static int index(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads sequential ids over the table
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
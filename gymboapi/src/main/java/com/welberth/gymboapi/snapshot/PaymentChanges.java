@@ -0,0 +1,85 @@
+package com.welberth.gymboapi.snapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Payment changes between two snapshot versions, in the order they were made. Applying them in order to
+ * a snapshot at fromVersion gives the snapshot at toVersion; a member may appear more than once.
+ * <p>
+ * Layout, big-endian: magic "GYMD" (int), format (int), from version (long), to version (long),
+ * entry count (int), then the entries like in PaymentSnapshot, with REMOVED as paid until for
+ * members that left.
+ */
+public final class PaymentChanges {
+
+    public static final int MAGIC = 0x47594D44; // "GYMD"
+
+    public static final int FORMAT = 1;
+
+    public static final int HEADER_BYTES = 28;
+
+    public static final int REMOVED = OffHeapLongIntMap.MISSING;
+
+    private final long fromVersion;
+
+    private final long toVersion;
+
+    private final long[] userIds;
+
+    private final int[] paidUntil;
+
+    public PaymentChanges(long fromVersion, long toVersion, long[] userIds, int[] paidUntil) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.userIds = userIds;
+        this.paidUntil = paidUntil;
+    }
+
+    public long getFromVersion() {
+        return fromVersion;
+    }
+
+    public long getToVersion() {
+        return toVersion;
+    }
+
+    public int size() {
+        return userIds.length;
+    }
+
+    public long userIdAt(int index) {
+        return userIds[index];
+    }
+
+    public int paidUntilAt(int index) {
+        return paidUntil[index];
+    }
+
+    /**
+     * Writes the changes in the binary layout.
+     *
+     * @param out where to write, not closed
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(out);
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.putInt(MAGIC).putInt(FORMAT).putLong(this.fromVersion).putLong(this.toVersion).putInt(this.userIds.length);
+
+        for (int i = 0; i < this.userIds.length; i++) {
+            if (buffer.remaining() < PaymentSnapshot.ENTRY_BYTES) drain(buffer, channel);
+            buffer.putLong(this.userIds[i]).putInt(this.paidUntil[i]);
+        }
+        drain(buffer, channel);
+    }
+
+    private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,159 @@
+package com.welberth.gymboapi.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A payment snapshot file, memory-mapped: every subscribed member as (user id, paid until epoch day),
+ * sorted by user id so a turnstile can binary search it without parsing.
+ * <p>
+ * Layout, big-endian: magic "GYMS" (int), format (int), version (long), entry count (int), then
+ * the entries, 12 bytes each: user id (long), paid until as days since 1970-01-01 (int).
+ * The version is the last delta feed version the snapshot includes.
+ */
+public final class PaymentSnapshot {
+
+    public static final int MAGIC = 0x47594D53; // "GYMS"
+
+    public static final int FORMAT = 1;
+
+    public static final int HEADER_BYTES = 20;
+
+    public static final int ENTRY_BYTES = 12;
+
+    private static final int COUNT_OFFSET = 16;
+
+    private final long version;
+
+    private final int size;
+
+    private final MappedByteBuffer buffer;
+
+    private PaymentSnapshot(long version, int size, MappedByteBuffer buffer) {
+        this.version = version;
+        this.size = size;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps a snapshot file. The mapping stays valid after the file is replaced or deleted.
+     *
+     * @param path of the snapshot file
+     * @return the mapped snapshot
+     * @throws IOException if the file can't be read or is not a snapshot
+     */
+    public static PaymentSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+                throw new IOException("Not a payment snapshot: " + path);
+            }
+            int size = buffer.getInt(COUNT_OFFSET);
+            if (buffer.capacity() != HEADER_BYTES + (long) size * ENTRY_BYTES) {
+                throw new IOException("Truncated payment snapshot: " + path);
+            }
+            return new PaymentSnapshot(buffer.getLong(8), size, buffer);
+        }
+    }
+
+    /**
+     * Starts writing a snapshot file. Entries must be added in increasing user id order.
+     *
+     * @param path of the file to write, replaced if it exists
+     * @param version last delta feed version the snapshot includes
+     * @return writer to add the entries to, closing it completes the file
+     * @throws IOException if the file can't be created
+     */
+    public static Writer writer(Path path, long version) throws IOException {
+        return new Writer(path, version);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long userIdAt(int index) {
+        return this.buffer.getLong(HEADER_BYTES + index * ENTRY_BYTES);
+    }
+
+    public int paidUntilAt(int index) {
+        return this.buffer.getInt(HEADER_BYTES + index * ENTRY_BYTES + 8);
+    }
+
+    /**
+     * @return the whole file, as a read-only view of the mapping with its own position
+     */
+    public ByteBuffer bytes() {
+        return this.buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes a snapshot file through a fixed size buffer, so memory stays flat however many members there are.
+     */
+    public static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        private int size;
+
+        private long lastUserId;
+
+        private Writer(Path path, long version) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer.putInt(MAGIC).putInt(FORMAT).putLong(version).putInt(0); // count is filled in on close
+        }
+
+        /**
+         * Adds a member.
+         *
+         * @param userId id for the user, greater than the previous one
+         * @param paidUntil paid until, as days since 1970-01-01
+         */
+        public void add(long userId, int paidUntil) {
+            if (userId <= this.lastUserId) {
+                throw new IllegalArgumentException("Entries must be in increasing user id order: " + userId + " after " + this.lastUserId);
+            }
+            if (this.buffer.remaining() < ENTRY_BYTES) flush();
+
+            this.buffer.putLong(userId).putInt(paidUntil);
+            this.lastUserId = userId;
+            this.size++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                this.channel.write(ByteBuffer.allocate(4).putInt(0, this.size), COUNT_OFFSET);
+                this.channel.force(true);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                this.channel.close();
+            }
+        }
+
+        private void flush() {
+            this.buffer.flip();
+            try {
+                while (this.buffer.hasRemaining()) this.channel.write(this.buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.welberth.gymboapi.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helpers around the current Spring-managed transaction.
+ */
+public final class Transactions {
+
+    private Transactions() { }
+
+    /**
+     * Runs the action once the current transaction commits, or right away if there is no transaction.
+     * Used for cache evictions, so a concurrent read can't put the old row back before the change is visible.
+     *
+     * @param action to run after commit
+     */
+    public static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
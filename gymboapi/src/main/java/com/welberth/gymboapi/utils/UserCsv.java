@@ -0,0 +1,146 @@
+package com.welberth.gymboapi.utils;
+
+import com.welberth.gymboapi.dtos.UserResponse;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Reads and writes users as CSV (RFC 4180, one record per line): imports take a header row naming the
+ * columns (username, password, email, planId, paidUntil, gymId, in any order), exports write EXPORT_HEADER.
+ * A record never spans lines, so values can't hold line breaks: the export writes them as spaces.
+ */
+public final class UserCsv {
+
+    public static final String MEDIA_TYPE = "text/csv";
+
+    public static final String EXPORT_HEADER = "id,username,email,planId,paidUntil,gymId";
+
+    private static final List<String> REQUIRED_COLUMNS = List.of("username", "password", "email");
+
+    private UserCsv() { }
+
+    /**
+     * Builds a parser for the records following a header row.
+     *
+     * @param header first line of the file
+     * @return parses one record into a new User
+     * @throws IllegalArgumentException when a required column is missing
+     */
+    public static Function<String, User> parser(String header) {
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = split(header);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim(), i);
+        }
+        for (String required : REQUIRED_COLUMNS) {
+            if (!columns.containsKey(required)) throw new IllegalArgumentException("Missing CSV column " + required);
+        }
+
+        return record -> {
+            List<String> values = split(record);
+            if (values.size() != names.size()) {
+                throw new IllegalArgumentException("Expected " + names.size() + " columns, found " + values.size());
+            }
+
+            String planId = value(values, columns, "planId");
+            String paidUntil = value(values, columns, "paidUntil");
+            String gymId = value(values, columns, "gymId");
+            try {
+                User user = new User(null, value(values, columns, "username"), value(values, columns, "password"), value(values, columns, "email"),
+                        planId == null ? null : new Plan(Long.valueOf(planId), null, null, null),
+                        paidUntil == null ? null : LocalDate.parse(paidUntil));
+                if (gymId != null) user.setGymId(Long.parseLong(gymId));
+                return user;
+            } catch (NumberFormatException | DateTimeParseException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        };
+    }
+
+    /**
+     * Writes a user as one CSV record, in the EXPORT_HEADER columns.
+     *
+     * @param user to write
+     * @param out where to append the record, line break included
+     * @throws IOException if writing fails
+     */
+    public static void write(UserResponse user, Appendable out) throws IOException {
+        out.append(String.valueOf(user.getId())).append(',');
+        quote(user.getUsername(), out);
+        out.append(',');
+        quote(user.getEmail(), out);
+        out.append(',');
+        if (user.getPlanId() != null) out.append(String.valueOf(user.getPlanId()));
+        out.append(',');
+        if (user.getPaidUntil() != null) out.append(user.getPaidUntil().toString());
+        out.append(',');
+        out.append(String.valueOf(user.getGymId()));
+        out.append('\n');
+    }
+
+    /**
+     * Splits a record into its values, unquoting the quoted ones. Quoted values may hold commas
+     * and doubled quotes, but not line breaks.
+     */
+    static List<String> split(String record) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (c != '\r') {
+                value.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("Unterminated quoted value");
+
+        values.add(value.toString());
+        return values;
+    }
+
+    private static String value(List<String> values, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null) return null;
+
+        String value = values.get(index);
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Writes a value, quoted when it holds a comma or a quote. Line breaks become spaces, split reads one line at a time.
+     */
+    private static void quote(String value, Appendable out) throws IOException {
+        if (value == null) return;
+
+        String line = value.indexOf('\n') < 0 && value.indexOf('\r') < 0 ? value : value.replace('\r', ' ').replace('\n', ' ');
+        if (line.indexOf(',') < 0 && line.indexOf('"') < 0) {
+            out.append(line);
+        } else {
+            out.append('"').append(line.replace("\"", "\"\"")).append('"');
+        }
+    }
+}
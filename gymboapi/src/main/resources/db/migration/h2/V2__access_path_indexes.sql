@@ -0,0 +1,29 @@
+-- Pooled sequence ids, so inserts can be batched (ids no longer come back from the insert).
+create sequence plan_id_seq start with 1 increment by 10;
+create sequence user_id_seq start with 1 increment by 50;
+
+-- Members of a plan in id order (findByPlan_Id, the keyset pages and the stream) seek on (plan_id, id),
+-- paid_until rides along so payment checks per plan are answered from the index alone.
+create index idx_user_plan_id on user (plan_id, id, paid_until);
+
+-- The payment-expiry sweep seeks on (paid_until, id) from its checkpoint and records what it found.
+create index idx_user_paid_until on user (paid_until, id);
+
+create table lapsed_member (
+    user_id bigint not null,
+    detected_at timestamp not null,
+    paid_until date not null,
+    plan_id bigint,
+    primary key (user_id)
+);
+
+create table sweep_checkpoint (
+    name varchar(50) not null,
+    last_id bigint not null,
+    paid_until date not null,
+    updated_at timestamp not null,
+    primary key (name)
+);
+
+-- unsubscribeToPlan clears the plan, which the ddl-auto schema didn't allow.
+alter table user alter column plan_id set null;
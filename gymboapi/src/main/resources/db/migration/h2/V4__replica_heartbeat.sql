@@ -0,0 +1,7 @@
+-- Written to the primary by ReplicaLagMonitor, read back from the replica to measure replication lag.
+create table replica_heartbeat (
+    id int not null,
+    beat_at timestamp(6) not null,
+    primary key (id)
+);
+insert into replica_heartbeat (id, beat_at) values (1, current_timestamp);
@@ -0,0 +1,18 @@
+-- Member counts per plan, kept up to date by every write (PlanStatsService) and rebuilt by its reconciliation job.
+-- No foreign key to plan: a plan can be deleted without touching its stats, reconciliation drops the orphans.
+create table plan_stats (
+    plan_id bigint not null,
+    member_count bigint not null,
+    lapsed_count bigint not null,
+    reconciled_at timestamp(6),
+    primary key (plan_id)
+);
+
+-- lets the reconciliation count the lapsed members of a plan from the index alone
+create index idx_lapsed_member_plan_id on lapsed_member (plan_id, user_id);
+
+insert into plan_stats (plan_id, member_count, lapsed_count)
+select p.id,
+       (select count(*) from user u where u.plan_id = p.id),
+       (select count(*) from lapsed_member l where l.plan_id = p.id)
+from plan p;
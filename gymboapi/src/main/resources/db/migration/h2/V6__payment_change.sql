@@ -0,0 +1,16 @@
+-- Append-only log of payment status changes, feeding the payment snapshot and its delta feed (PaymentSnapshotService).
+-- version stays null until the change is published: a single writer stamps pending rows with the next snapshot version,
+-- so a change that commits late still gets a version after the ones already served.
+-- The id comes from a plain sequence: H2 identity columns can hand out duplicates when concurrent inserts roll back.
+create sequence payment_change_seq;
+
+create table payment_change (
+    id bigint default next value for payment_change_seq not null,
+    user_id bigint not null,
+    paid_until date,
+    version bigint,
+    changed_at timestamp(6) not null,
+    primary key (id)
+);
+
+create index idx_payment_change_version on payment_change (version, id);
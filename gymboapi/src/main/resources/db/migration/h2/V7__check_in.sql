@@ -0,0 +1,17 @@
+-- Append-only turnstile log, written in group commits by CheckInWriter. No foreign key to user:
+-- entries of unknown users are recorded too, and deleting a member keeps its attendance history.
+-- id from a plain sequence, like payment_change
+create sequence check_in_seq;
+
+create table check_in (
+    id bigint default next value for check_in_seq not null,
+    user_id bigint not null,
+    checked_in_at timestamp(6) not null,
+    result varchar(20) not null,
+    primary key (id)
+);
+
+-- attendance history of a member, newest first
+create index idx_check_in_user on check_in (user_id, checked_in_at);
+-- occupancy: recent entries, answered from the index alone
+create index idx_check_in_at on check_in (checked_in_at, result, user_id);
@@ -0,0 +1,3 @@
+-- Gym (location) of a member, the shard key when members are sharded (ShardRouter). Existing members are at gym 0,
+-- which maps to the home shard whatever the number of shards.
+alter table user add column gym_id bigint default 0 not null;
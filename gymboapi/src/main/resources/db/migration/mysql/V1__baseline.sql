@@ -0,0 +1,24 @@
+-- Schema as ddl-auto=update left it before the migrations, existing databases are baselined at this version.
+
+create table plan (
+    id bigint not null auto_increment,
+    description varchar(300) not null,
+    monthly_price float not null,
+    title varchar(50) not null,
+    primary key (id)
+) engine=InnoDB;
+
+create table user (
+    id bigint not null auto_increment,
+    email varchar(100) not null,
+    paid_until date,
+    password varchar(50) not null,
+    username varchar(100) not null,
+    plan_id bigint not null,
+    primary key (id)
+) engine=InnoDB;
+
+alter table plan add constraint UK_odey88p2tcew4eh1xfo3s4w1t unique (description);
+alter table plan add constraint UK_mhruqud4hbhbfcw2qvecrfhm6 unique (title);
+alter table user add constraint UK_sb8bbouer5wak8vyiiy4pf2bx unique (username);
+alter table user add constraint FKeos0c7nc1mvicjcxbkxxolohc foreign key (plan_id) references plan (id);
@@ -0,0 +1,33 @@
+-- Pooled sequence ids, so inserts can be batched (ids no longer come back from the insert).
+-- The sequence tables start past the rows that already have ids.
+create table plan_id_seq (next_val bigint) engine=InnoDB;
+insert into plan_id_seq select coalesce(max(id), 0) + 11 from plan;
+
+create table user_id_seq (next_val bigint) engine=InnoDB;
+insert into user_id_seq select coalesce(max(id), 0) + 51 from user;
+
+-- Members of a plan in id order (findByPlan_Id, the keyset pages and the stream) seek on (plan_id, id),
+-- paid_until rides along so payment checks per plan are answered from the index alone.
+create index idx_user_plan_id on user (plan_id, id, paid_until);
+
+-- The payment-expiry sweep seeks on (paid_until, id) from its checkpoint and records what it found.
+create index idx_user_paid_until on user (paid_until, id);
+
+create table lapsed_member (
+    user_id bigint not null,
+    detected_at datetime(6) not null,
+    paid_until date not null,
+    plan_id bigint,
+    primary key (user_id)
+) engine=InnoDB;
+
+create table sweep_checkpoint (
+    name varchar(50) not null,
+    last_id bigint not null,
+    paid_until date not null,
+    updated_at datetime(6) not null,
+    primary key (name)
+) engine=InnoDB;
+
+-- unsubscribeToPlan clears the plan, which the ddl-auto schema didn't allow.
+alter table user modify plan_id bigint null;
@@ -0,0 +1,3 @@
+-- Optimistic-lock versions (@Version), bumped on every update of the row. Also the source of the ETags.
+alter table user add column version bigint default 0 not null;
+alter table plan add column version bigint default 0 not null;
@@ -0,0 +1,13 @@
+-- Append-only log of payment status changes, feeding the payment snapshot and its delta feed (PaymentSnapshotService).
+-- version stays null until the change is published: a single writer stamps pending rows with the next snapshot version,
+-- so a change that commits late still gets a version after the ones already served.
+create table payment_change (
+    id bigint not null auto_increment,
+    user_id bigint not null,
+    paid_until date,
+    version bigint,
+    changed_at datetime(6) not null,
+    primary key (id)
+) engine=InnoDB;
+
+create index idx_payment_change_version on payment_change (version, id);
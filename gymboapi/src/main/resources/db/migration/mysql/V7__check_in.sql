@@ -0,0 +1,14 @@
+-- Append-only turnstile log, written in group commits by CheckInWriter. No foreign key to user:
+-- entries of unknown users are recorded too, and deleting a member keeps its attendance history.
+create table check_in (
+    id bigint not null auto_increment,
+    user_id bigint not null,
+    checked_in_at datetime(6) not null,
+    result varchar(20) not null,
+    primary key (id)
+) engine=InnoDB;
+
+-- attendance history of a member, newest first
+create index idx_check_in_user on check_in (user_id, checked_in_at);
+-- occupancy: recent entries, answered from the index alone
+create index idx_check_in_at on check_in (checked_in_at, result, user_id);
@@ -0,0 +1,153 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.exceptions.NotFoundException;
+import com.welberth.gymboapi.exceptions.ServiceOverloadedException;
+import com.welberth.gymboapi.execution.AdmissionControlAspect;
+import com.welberth.gymboapi.metrics.QueryCounter;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.UserService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the status every kind of error is answered with, that repeated misses don't reach the database, and that
+ * admission control rejects calls over its limit but lets the streaming exports through.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+class ApiErrorHandlingTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void errorsAreMappedToTheirStatus() throws Exception {
+        Long id = this.userService.createUser(new User(null, "errors-member", "secret1", "errors@gym.com", null, null)).getId();
+
+        HttpResponse<String> missing = send(HttpRequest.newBuilder(uri("/user/987654321")).GET());
+        assertEquals(404, missing.statusCode());
+        assertTrue(missing.body().contains("Could not find a User with id = 987654321"));
+
+        assertEquals(404, send(HttpRequest.newBuilder(uri("/user/errors-nobody")).GET()).statusCode());
+        assertEquals(404, send(HttpRequest.newBuilder(uri("/user/plan/" + id)).GET()).statusCode()); // not subscribed
+        assertEquals(400, send(HttpRequest.newBuilder(uri("/user/plan/subscribe/" + id))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"password\": \"secret1\", \"email\": \"errors@gym.com\"}"))).statusCode());
+        assertEquals(409, send(HttpRequest.newBuilder(uri("/user/" + id))
+                .header("Content-Type", "application/json")
+                .header("If-Match", "W/\"" + id + "-999\"")
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"password\": \"secret2\", \"email\": \"errors@gym.com\"}"))).statusCode());
+        assertEquals(410, send(HttpRequest.newBuilder(uri("/user/payment/snapshot/changes?since=" + Long.MAX_VALUE)).GET()).statusCode());
+    }
+
+    @Test
+    void repeatedMissesRunNoQuery() throws Exception {
+        assertThrows(NotFoundException.class, () -> this.userService.findResponseByUsername("errors-scanned"));
+
+        QueryCounter.start();
+        for (int i = 0; i < 10; i++) {
+            assertThrows(NotFoundException.class, () -> this.userService.findResponseByUsername("errors-scanned"));
+        }
+        assertEquals(0, QueryCounter.stop());
+
+        // creating the user clears the miss
+        this.userService.createUser(new User(null, "errors-scanned", "secret1", "scanned@gym.com", null, null));
+        assertEquals(200, send(HttpRequest.newBuilder(uri("/user/errors-scanned")).GET()).statusCode());
+    }
+
+    @Test
+    void callsOverTheConcurrencyLimitAreRejected() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        AdmissionControlAspect aspect = new AdmissionControlAspect(1, Duration.ofMillis(10), registry);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> holder = executor.submit(() -> admit(aspect, () -> {
+                entered.countDown();
+                release.await();
+                return "held";
+            }));
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            assertThrows(ServiceOverloadedException.class, () -> admit(aspect, () -> "admitted"));
+            assertEquals(1, registry.get("gymbo.admission.rejected").counter().count());
+            assertEquals(1, registry.get("gymbo.admission.in.flight").gauge().value());
+
+            release.countDown();
+            assertEquals("held", holder.get(10, TimeUnit.SECONDS));
+            assertEquals("admitted", admit(aspect, () -> "admitted"));
+            assertEquals(0, registry.get("gymbo.admission.in.flight").gauge().value());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void streamingHoldsNoAdmissionPermit() {
+        this.userService.createUser(new User(null, "errors-streamed", "secret1", "streamed@gym.com", null, null));
+
+        double[] inFlight = { -1 };
+        this.userService.streamResponses(user -> inFlight[0] = Math.max(inFlight[0],
+                this.meterRegistry.get("gymbo.admission.in.flight").gauge().value()));
+        assertEquals(0, inFlight[0]);
+    }
+
+    /**
+     * Runs body through the aspect, as if it were a UserService method.
+     */
+    private static Object admit(AdmissionControlAspect aspect, Callable<Object> body) throws Exception {
+        ProceedingJoinPoint joinPoint = (ProceedingJoinPoint) Proxy.newProxyInstance(ProceedingJoinPoint.class.getClassLoader(),
+                new Class<?>[] { ProceedingJoinPoint.class },
+                (proxy, method, args) -> method.getName().equals("proceed") ? body.call() : null);
+        try {
+            return aspect.admit(joinPoint);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + this.port + path);
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        return this.client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
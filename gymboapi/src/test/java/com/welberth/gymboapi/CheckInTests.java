@@ -0,0 +1,184 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.exceptions.ServiceOverloadedException;
+import com.welberth.gymboapi.execution.CheckInWriter;
+import com.welberth.gymboapi.models.CheckIn;
+import com.welberth.gymboapi.models.CheckInResult;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.CheckInService;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+import com.welberth.gymboapi.sharding.ShardRouter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the check-in write path: answers without waiting for the insert, group commits, backpressure,
+ * the journal replay of JOURNALED mode and that a group that can't be written doesn't stop the flusher.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class CheckInTests {
+
+    @Autowired
+    private CheckInService checkInService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @TempDir
+    Path journalDir;
+
+    @Test
+    void checkInsAreDecidedAndWrittenInGroups() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Check-in", "Check-in test plan", 25f));
+        Long paid = createMember("checkin-paid", plan, LocalDate.now().plusMonths(1));
+        Long due = createMember("checkin-due", plan, LocalDate.now().minusDays(1));
+        Long occupancyBefore = this.checkInService.findOccupancy().getMembers();
+
+        assertEquals(CheckInResult.ALLOWED, this.checkInService.checkIn(paid));
+        assertEquals(CheckInResult.ALLOWED, this.checkInService.checkIn(paid));
+        assertEquals(CheckInResult.PAYMENT_DUE, this.checkInService.checkIn(due));
+        assertEquals(CheckInResult.NOT_SUBSCRIBED, this.checkInService.checkIn(Long.MAX_VALUE));
+
+        List<CheckIn> history = awaitHistory(paid, 2);
+        assertEquals(CheckInResult.ALLOWED, history.get(0).getResult());
+        assertTrue(!history.get(0).getCheckedInAt().isBefore(history.get(1).getCheckedInAt())); // newest first
+        assertEquals(CheckInResult.PAYMENT_DUE, awaitHistory(due, 1).get(0).getResult());
+        assertEquals(occupancyBefore + 1, this.checkInService.findOccupancy().getMembers());
+    }
+
+    @Test
+    void fullQueueRejectsInsteadOfWaiting() throws Exception {
+        CheckInWriter writer = writer(CheckInWriter.Durability.BUFFERED, 2); // never started, nothing drains the queue
+
+        writer.append(new CheckIn(1L, Instant.now(), CheckInResult.ALLOWED));
+        writer.append(new CheckIn(1L, Instant.now(), CheckInResult.ALLOWED));
+        assertThrows(ServiceOverloadedException.class, () -> writer.append(new CheckIn(1L, Instant.now(), CheckInResult.ALLOWED)));
+    }
+
+    @Test
+    void journaledCheckInsSurviveACrash() throws Exception {
+        long userId = 900_000_001L;
+        CheckInWriter crashed = writer(CheckInWriter.Durability.JOURNALED, 100); // never started: stands for a process that died before flushing
+        for (int i = 0; i < 3; i++) {
+            crashed.append(new CheckIn(userId, Instant.now(), CheckInResult.ALLOWED));
+        }
+        assertEquals(0, countCheckIns(userId));
+
+        CheckInWriter restarted = writer(CheckInWriter.Durability.JOURNALED, 100);
+        restarted.start(); // replays the segment left behind
+        assertEquals(3, countCheckIns(userId));
+
+        restarted.append(new CheckIn(userId, Instant.now(), CheckInResult.ALLOWED));
+        restarted.close(); // graceful shutdown flushes the queue
+        assertEquals(4, countCheckIns(userId));
+    }
+
+    @Test
+    void aGroupThatCantBeWrittenDoesNotStopTheFlusher() throws Exception {
+        long poisoned = 900_000_002L;
+        long userId = 900_000_003L;
+        JdbcTemplate failing = new JdbcTemplate(this.jdbcTemplate.getDataSource()) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                if (batchArgs.stream().anyMatch(row -> row[0].equals(poisoned))) throw new IllegalStateException("not a DataAccessException");
+                return super.batchUpdate(sql, batchArgs);
+            }
+        };
+        CheckInWriter writer = new CheckInWriter(failing, this.transactionTemplate, this.shardRouter, this.meterRegistry,
+                CheckInWriter.Durability.JOURNALED, this.journalDir, 100, 50, Duration.ofMillis(50));
+        writer.start();
+        try {
+            writer.append(new CheckIn(poisoned, Instant.now(), CheckInResult.ALLOWED));
+            assertTrue(await(() -> listJournal().stream().anyMatch(name -> name.endsWith(".failed")))); // set aside, not replayed
+
+            writer.append(new CheckIn(userId, Instant.now(), CheckInResult.ALLOWED));
+            assertTrue(await(() -> countCheckIns(userId) == 1));
+        } finally {
+            writer.close();
+        }
+        assertEquals(0, countCheckIns(poisoned));
+    }
+
+    private CheckInWriter writer(CheckInWriter.Durability durability, int capacity) throws Exception {
+        return new CheckInWriter(this.jdbcTemplate, this.transactionTemplate, this.shardRouter, this.meterRegistry, durability,
+                this.journalDir, capacity, 50, Duration.ofMillis(50));
+    }
+
+    private List<CheckIn> awaitHistory(Long userId, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        List<CheckIn> history;
+        do {
+            history = this.checkInService.findHistory(userId, null, 10);
+            if (history.size() >= expected) return history;
+            Thread.sleep(20);
+        } while (System.nanoTime() < deadline);
+        return history;
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    private List<String> listJournal() {
+        try (Stream<Path> files = Files.list(this.journalDir)) {
+            return files.map(path -> path.getFileName().toString()).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int countCheckIns(long userId) {
+        return this.jdbcTemplate.queryForObject("select count(*) from check_in where user_id = ?", Integer.class, userId);
+    }
+
+    private Long createMember(String username, Plan plan, LocalDate paidUntil) {
+        return this.userService.createUser(new User(null, username, "secret-password", username + "@gym.bo",
+                new Plan(plan.getId(), null, null, null), paidUntil)).getId();
+    }
+}
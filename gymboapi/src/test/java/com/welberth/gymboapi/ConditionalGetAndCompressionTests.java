@@ -0,0 +1,129 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures what conditional GETs and compression save on the polled endpoints, against the real server.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+class ConditionalGetAndCompressionTests {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConditionalGetAndCompressionTests.class);
+
+    private static final int POLLS = 500;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    private final HttpClient client = HttpClient.newHttpClient(); // doesn't decompress, so the wire bytes are measured
+
+    @Test
+    void listEndpointIsCompressed() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Compression", "Compression test plan", 79.9f));
+        createMembers("compression", plan, 300);
+
+        HttpResponse<byte[]> plain = get("/user/list/" + plan.getId(), "Accept-Encoding", "identity");
+        HttpResponse<byte[]> gzip = get("/user/list/" + plan.getId(), "Accept-Encoding", "gzip");
+
+        LOGGER.info("list of 300 members: {} bytes plain, {} bytes gzip", plain.body().length, gzip.body().length);
+        assertEquals("gzip", gzip.headers().firstValue("Content-Encoding").orElse(null));
+        assertTrue(gzip.body().length * 3 < plain.body().length);
+    }
+
+    @Test
+    void unchangedUserAndPlanAreAnsweredWithNotModified() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Conditional", "Conditional GET test plan", 69.9f));
+        Long userId = createMembers("conditional", plan, 1).get(0);
+
+        HttpResponse<byte[]> first = get("/user/" + userId);
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        assertEquals(1, first.headers().allValues("ETag").size());
+
+        long[] full = poll("/user/" + userId, null);
+        long[] conditional = poll("/user/" + userId, etag);
+        LOGGER.info("{} polls of /user/{id}: 200 -> {} bytes, {} ms CPU; 304 -> {} bytes, {} ms CPU",
+                POLLS, full[0], full[1] / 1_000_000, conditional[0], conditional[1] / 1_000_000);
+
+        HttpResponse<byte[]> notModified = get("/user/" + userId, "If-None-Match", etag);
+        assertEquals(304, notModified.statusCode());
+        assertEquals(0, notModified.body().length);
+
+        String planEtag = get("/user/plan/" + userId).headers().firstValue("ETag").orElseThrow();
+        assertEquals(304, get("/user/plan/" + userId, "If-None-Match", planEtag).statusCode());
+
+        // any write bumps the version, so the old tag no longer matches
+        this.userService.subscribeToPlan(userId, plan.getId(), LocalDate.now().plusYears(1));
+        HttpResponse<byte[]> modified = get("/user/" + userId, "If-None-Match", etag);
+        assertEquals(200, modified.statusCode());
+        assertNotEquals(etag, modified.headers().firstValue("ETag").orElseThrow());
+    }
+
+    /**
+     * @return bytes received and process CPU nanoseconds spent over POLLS requests
+     */
+    private long[] poll(String path, String etag) throws Exception {
+        long bytes = 0;
+        long cpu = processCpuTime();
+        for (int i = 0; i < POLLS; i++) {
+            HttpResponse<byte[]> response = etag == null ? get(path) : get(path, "If-None-Match", etag);
+            bytes += response.body().length;
+        }
+        return new long[] { bytes, processCpuTime() - cpu };
+    }
+
+    private List<Long> createMembers(String prefix, Plan plan, int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(new User(null, prefix + "-" + i, "secret-password", prefix + "-" + i + "@gym.bo",
+                    new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1)));
+        }
+        this.userService.createUsers(users);
+
+        List<Long> ids = new ArrayList<>(count);
+        users.forEach(user -> ids.add(user.getId()));
+        return ids;
+    }
+
+    private HttpResponse<byte[]> get(String path, String... headers) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + this.port + path));
+        if (headers.length > 0) request.headers(headers);
+
+        return this.client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+}
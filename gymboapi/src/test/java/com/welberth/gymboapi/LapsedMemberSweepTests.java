@@ -0,0 +1,83 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.dtos.BulkResult;
+import com.welberth.gymboapi.models.LapsedMember;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.LapsedMemberService;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the payment-expiry sweep picks up members once as they lapse, and that renewing removes them.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class LapsedMemberSweepTests {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private LapsedMemberService lapsedMemberService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void sweepFindsNewlyLapsedMembersOnce() {
+        Plan plan = this.planService.createPlan(new Plan(null, "Sweep", "Payment-expiry sweep plan", 59.9f));
+        LocalDate today = LocalDate.now();
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            users.add(new User(null, "sweep-" + i, "secret-password", "sweep-" + i + "@gym.bo", new Plan(plan.getId(), null, null, null), today.plusMonths(1)));
+        }
+        BulkResult result = this.userService.createUsers(users);
+        assertEquals(5, result.getSucceeded());
+        assertEquals(0, this.lapsedMemberService.sweep(today));
+
+        // time passes for three of them
+        List<Long> expired = List.of(users.get(0).getId(), users.get(2).getId(), users.get(4).getId());
+        for (Long id : expired) {
+            this.jdbcTemplate.update("update " + User.TABLE_NAME + " set paid_until = ? where id = ?", Date.valueOf(today.minusDays(1)), id);
+        }
+
+        assertEquals(3, this.lapsedMemberService.sweep(today));
+        assertEquals(Set.copyOf(expired), lapsedIds());
+        assertEquals(0, this.lapsedMemberService.sweep(today)); // already behind the checkpoint
+
+        this.userService.subscribeToPlan(expired.get(0), plan.getId(), today.plusMonths(1));
+        assertFalse(lapsedIds().contains(expired.get(0)));
+
+        // a past date written directly is tracked without waiting for the sweep
+        this.userService.subscribeToPlan(users.get(1).getId(), plan.getId(), today.minusMonths(1));
+        assertTrue(lapsedIds().contains(users.get(1).getId()));
+    }
+
+    private Set<Long> lapsedIds() {
+        return this.lapsedMemberService.findPage(null, 1000).stream()
+                .map(LapsedMember::getUserId)
+                .collect(Collectors.toSet());
+    }
+}
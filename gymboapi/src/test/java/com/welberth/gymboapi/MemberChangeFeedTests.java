@@ -0,0 +1,254 @@
+package com.welberth.gymboapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.welberth.gymboapi.dtos.BulkResult;
+import com.welberth.gymboapi.dtos.MemberChange;
+import com.welberth.gymboapi.exceptions.ConcurrentUpdateException;
+import com.welberth.gymboapi.feed.MemberChangeFeed;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads the change feed over HTTP as an EventSource would, one event (a block of fields) at a time. The write
+ * callbacks are driven by a stubbed connection instead, to order them the way a container may.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+@Timeout(30)
+class MemberChangeFeedTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void followersGetTheCommittedChangesTheyFollow() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Feed", "Change feed test plan", 39.9f));
+        Long followed = createMember("feed-followed");
+        Long other = createMember("feed-other");
+
+        try (Stream<String> lines = open("/user/changes?userId=" + followed, null)) {
+            Iterator<String> stream = lines.iterator();
+            assertEquals(MemberChangeFeed.READY_EVENT, nextEvent(stream).get("event"));
+
+            this.userService.subscribeToPlan(other, plan.getId(), LocalDate.now().plusMonths(1)); // not followed
+            assertThrows(ConcurrentUpdateException.class, // rolled back, never published
+                    () -> this.userService.subscribeToPlan(followed, plan.getId(), LocalDate.now().plusMonths(1), 999L));
+            this.userService.subscribeToPlan(followed, plan.getId(), LocalDate.now().plusMonths(1));
+
+            String subscribed = nextEvent(stream).get("data");
+            assertTrue(subscribed.contains("\"type\":\"SUBSCRIBED\""));
+            assertTrue(subscribed.contains("\"userId\":" + followed));
+            assertTrue(subscribed.contains("\"planId\":" + plan.getId()));
+
+            this.userService.unsubscribeToPlan(followed);
+            String unsubscribed = nextEvent(stream).get("data");
+            assertTrue(unsubscribed.contains("\"type\":\"UNSUBSCRIBED\""));
+            assertTrue(unsubscribed.contains("\"previousPlanId\":" + plan.getId()));
+        }
+    }
+
+    @Test
+    void bulkCreatedMembersArePublished() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Feed bulk", "Change feed bulk test plan", 49.9f));
+        LocalDate paidUntil = LocalDate.now().plusMonths(1);
+
+        try (Stream<String> lines = open("/user/changes?planId=" + plan.getId(), null)) {
+            Iterator<String> stream = lines.iterator();
+            assertEquals(MemberChangeFeed.READY_EVENT, nextEvent(stream).get("event"));
+
+            BulkResult result = this.userService.createUsers(List.of(
+                    new User(null, "feed-bulk-1", "secret-password", "feed-bulk-1@gym.bo", plan, paidUntil),
+                    new User(null, "feed-bulk-2", "secret-password", "feed-bulk-2@gym.bo", plan, paidUntil)));
+            assertEquals(2, result.getSucceeded());
+
+            for (int i = 0; i < 2; i++) {
+                String subscribed = nextEvent(stream).get("data");
+                assertTrue(subscribed.contains("\"type\":\"SUBSCRIBED\""));
+                assertTrue(subscribed.contains("\"planId\":" + plan.getId()));
+            }
+        }
+    }
+
+    @Test
+    void reconnectingResumesFromTheLastEventId() throws Exception {
+        Long id = createMember("feed-resumed");
+
+        String lastEventId;
+        try (Stream<String> lines = open("/user/changes?userId=" + id, null)) {
+            lastEventId = nextEvent(lines.iterator()).get("id");
+        }
+
+        User user = new User(id, null, "new-password", "feed-resumed-2@gym.bo", null, null);
+        this.userService.updateUser(user); // while disconnected
+
+        try (Stream<String> lines = open("/user/changes?userId=" + id, lastEventId)) {
+            Map<String, String> missed = nextEvent(lines.iterator());
+            assertTrue(missed.get("data").contains("\"type\":\"UPDATED\""));
+        }
+        try (Stream<String> lines = open("/user/changes?userId=" + id, "another-instance-42")) {
+            assertEquals(MemberChangeFeed.RESET_EVENT, nextEvent(lines.iterator()).get("event"));
+        }
+    }
+
+    @Test
+    void aCallbackBeforeIsReadyReturnsDoesNotStallTheConnection() throws Exception {
+        MemberChangeFeed feed = new MemberChangeFeed(this.objectMapper, new SimpleMeterRegistry(),
+                100, 16, Duration.ofMinutes(1), Duration.ofMinutes(1), 1);
+        EagerCallbackOutputStream out = new EagerCallbackOutputStream();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/user/changes");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse() {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return out;
+            }
+        };
+
+        feed.subscribe(request, response, Set.of(), Set.of(), null);
+        feed.publish(new MemberChange(MemberChange.Type.SUBSCRIBED, 1L, 2L, null, null));
+        feed.publish(new MemberChange(MemberChange.Type.UPDATED, 1L, null, null, null));
+
+        assertTrue(await(() -> out.written().contains("\"type\":\"UPDATED\"")), out.written());
+        assertTrue(out.written().contains("event:" + MemberChangeFeed.READY_EVENT));
+        assertTrue(out.written().contains("\"type\":\"SUBSCRIBED\""));
+    }
+
+    private Long createMember(String username) {
+        return this.userService.createUser(new User(null, username, "secret-password", username + "@gym.bo", null, null)).getId();
+    }
+
+    private Stream<String> open(String path, String lastEventId) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + this.port + path)).GET();
+        if (lastEventId != null) request.header("Last-Event-ID", lastEventId);
+
+        HttpResponse<Stream<String>> response = this.client.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+        assertEquals(200, response.statusCode());
+        return response.body();
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the fields of the next event, skipping comments (heartbeats).
+     */
+    private static Map<String, String> nextEvent(Iterator<String> stream) {
+        Map<String, String> fields = new HashMap<>();
+        while (stream.hasNext()) {
+            String line = stream.next();
+            if (line.isEmpty()) {
+                if (!fields.isEmpty()) return fields;
+            } else if (!line.startsWith(":")) {
+                int colon = line.indexOf(':');
+                fields.merge(line.substring(0, colon), line.substring(colon + 1).stripLeading(), (a, b) -> a + "\n" + b);
+            }
+        }
+        throw new IllegalStateException("The feed ended");
+    }
+
+    /**
+     * A connection whose socket is full after every write, and whose container calls onWritePossible from within
+     * the isReady call that reports it, as one on another thread may before isReady returned.
+     */
+    private static final class EagerCallbackOutputStream extends ServletOutputStream {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        private WriteListener listener;
+
+        private boolean full;
+
+        @Override
+        public synchronized boolean isReady() {
+            if (!this.full) return true;
+
+            this.full = false; // drained right away
+            try {
+                this.listener.onWritePossible();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return false;
+        }
+
+        @Override
+        public synchronized void setWriteListener(WriteListener listener) {
+            this.listener = listener;
+            try {
+                listener.onWritePossible();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            this.written.write(b);
+            this.full = true;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            this.written.write(b, off, len);
+            this.full = true;
+        }
+
+        private synchronized String written() {
+            return this.written.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
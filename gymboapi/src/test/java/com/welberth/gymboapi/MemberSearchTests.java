@@ -0,0 +1,151 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.dtos.MemberMatch;
+import com.welberth.gymboapi.dtos.MemberSearchResponse;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.search.MemberSearchIndex;
+import com.welberth.gymboapi.services.MemberSearchService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the ranking and paging of the member search, that the index follows the writes, and that it still agrees
+ * with a plain scan once members were removed and changed.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+class MemberSearchTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private MemberSearchService memberSearchService;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void loadIndex() {
+        this.memberSearchService.rebuild(); // the scheduled load may still be running
+    }
+
+    @Test
+    void matchesAreRankedAndPaged() throws Exception {
+        this.userService.createUser(new User(null, "zz-mail", "secret1", "Lockerkey@gym.com", null, null));
+        this.userService.createUser(new User(null, "my-lockerkey", "secret1", "substring@gym.com", null, null));
+        this.userService.createUser(new User(null, "lockerkey-annex", "secret1", "prefix@gym.com", null, null));
+        this.userService.createUser(new User(null, "other", "secret1", "old.lockerkey@gym.com", null, null));
+        this.userService.createUser(new User(null, "LockerKey", "secret1", "exact@gym.com", null, null));
+
+        MemberSearchResponse all = this.memberSearchService.search("lockerKEY", 0, 10);
+        assertEquals(List.of("LockerKey", "lockerkey-annex", "zz-mail", "my-lockerkey", "other"), usernames(all));
+        assertEquals(5, all.getTotal());
+
+        MemberSearchResponse page = this.memberSearchService.search("lockerkey", 1, 2);
+        assertEquals(List.of("lockerkey-annex", "zz-mail"), usernames(page));
+        assertEquals(5, page.getTotal());
+
+        // under three characters only prefixes match: "lo" is not at the start of "my-lockerkey" nor of its email
+        List<String> prefixed = usernames(this.memberSearchService.search("lo", 0, 1000));
+        assertTrue(prefixed.containsAll(List.of("LockerKey", "lockerkey-annex", "zz-mail")));
+        assertTrue(!prefixed.contains("my-lockerkey") && !prefixed.contains("other"));
+
+        HttpResponse<String> response = this.client.send(HttpRequest.newBuilder(uri("/search/user?q=lockerkey&limit=1")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"username\":\"LockerKey\""));
+        assertTrue(response.body().contains("\"total\":5"));
+        assertEquals(400, this.client.send(HttpRequest.newBuilder(uri("/search/user?q=%20")).GET().build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    @Test
+    void indexFollowsWrites() throws Exception {
+        Long id = this.userService.createUser(new User(null, "turnstile-member", "secret1", "before.gate@gym.com", null, null)).getId();
+        assertEquals(List.of("turnstile-member"), usernames(this.memberSearchService.search("before.gate", 0, 10)));
+
+        this.userService.updateUser(new User(id, null, "secret2", "after.gate@gym.com", null, null));
+        assertEquals(0, this.memberSearchService.search("before.gate", 0, 10).getTotal());
+        assertEquals(List.of("turnstile-member"), usernames(this.memberSearchService.search("after.gate", 0, 10)));
+
+        List<User> imported = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            imported.add(new User(null, "imported-gate-" + i, "secret1", "imported" + i + "@gym.com", null, null));
+        }
+        this.userService.createUsers(imported);
+        assertEquals(3, this.memberSearchService.search("imported-gate", 0, 10).getTotal());
+
+        this.userService.deleteUser(id);
+        assertEquals(0, this.memberSearchService.search("turnstile", 0, 10).getTotal());
+
+        this.memberSearchService.rebuild(); // a fresh load agrees with the live writes
+        assertEquals(0, this.memberSearchService.search("turnstile", 0, 10).getTotal());
+        assertEquals(3, this.memberSearchService.search("imported-gate", 0, 10).getTotal());
+    }
+
+    @Test
+    void indexAgreesWithAScanAfterRemovalsAndChanges() {
+        int members = 40_000;
+        MemberSearchIndex index = new MemberSearchIndex(16, members);
+        Map<Long, String[]> live = new HashMap<>();
+        for (long i = 1; i <= members; i++) {
+            index.put(i, 0, "member" + i, "member" + i + "@gym" + (i % 100) + ".com");
+            live.put(i, new String[] { "member" + i, "member" + i + "@gym" + (i % 100) + ".com" });
+        }
+        for (long i = 1; i <= members; i += 4) {
+            index.remove(i); // leaves dead docs behind and compacts
+            live.remove(i);
+        }
+        for (long i = 2; i <= members; i += 8) {
+            index.put(i, 1, "member" + i, "Moved" + i + "@Annex.com");
+            live.put(i, new String[] { "member" + i, "moved" + i + "@annex.com" });
+        }
+        assertEquals(live.size(), index.size());
+
+        for (String query : new String[] { "member1234", "er99", "gym42", "annex", "me", "m", "mo", "member17@", "ber2", "nobody" }) {
+            Set<String> expected = live.values().stream()
+                    .filter(member -> query.length() < 3
+                            ? member[0].startsWith(query) || member[1].startsWith(query)
+                            : member[0].contains(query) || member[1].contains(query))
+                    .map(member -> member[0])
+                    .collect(Collectors.toSet());
+
+            MemberSearchResponse found = index.search(query, 0, members, Integer.MAX_VALUE);
+            assertEquals(expected.size(), found.getTotal(), query);
+            assertEquals(expected, new HashSet<>(usernames(found)), query);
+        }
+        assertEquals(List.of("member1234"), usernames(index.search("member1234", 0, 1, 2_000))); // the exact match ranks first
+    }
+
+    private static List<String> usernames(MemberSearchResponse response) {
+        return response.getMatches().stream().map(MemberMatch::getUsername).collect(Collectors.toList());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + this.port + path);
+    }
+}
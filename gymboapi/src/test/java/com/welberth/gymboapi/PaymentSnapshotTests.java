@@ -0,0 +1,122 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.exceptions.ApiException;
+import com.welberth.gymboapi.exceptions.SnapshotExpiredException;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PaymentSnapshotService;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+import com.welberth.gymboapi.snapshot.OffHeapLongIntMap;
+import com.welberth.gymboapi.snapshot.PaymentChanges;
+import com.welberth.gymboapi.snapshot.PaymentSnapshot;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the payment snapshot file, its delta feed and the off-heap map payment checks are answered from.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class PaymentSnapshotTests {
+
+    @Autowired
+    private PaymentSnapshotService paymentSnapshotService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private UserService userService;
+
+    @Test
+    void offHeapMapMatchesHashMap() {
+        OffHeapLongIntMap map = new OffHeapLongIntMap(0);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            long key = 1 + random.nextInt(5_000); // small key range: plenty of collisions, removals and regrowth
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = -1; key <= 5_000; key++) { // 0 and below can't be stored, their probe ends on an empty slot
+            assertEquals(expected.getOrDefault(key, OffHeapLongIntMap.MISSING), map.get(key));
+        }
+    }
+
+    @Test
+    void snapshotAndChangesFollowPaymentWrites() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Snapshot", "Payment snapshot test plan", 30f));
+        LocalDate paid = LocalDate.now().plusMonths(1);
+        Long renewing = createMember("snapshot-renewing", plan, paid);
+        Long leaving = createMember("snapshot-leaving", plan, LocalDate.now().minusDays(3));
+
+        PaymentSnapshot snapshot = this.paymentSnapshotService.rebuild();
+        assertEquals(paid.toEpochDay(), find(snapshot, renewing));
+        assertEquals(LocalDate.now().minusDays(3).toEpochDay(), find(snapshot, leaving));
+        ByteBuffer bytes = snapshot.bytes();
+        assertEquals(PaymentSnapshot.MAGIC, bytes.getInt(0));
+        assertEquals(PaymentSnapshot.HEADER_BYTES + snapshot.size() * PaymentSnapshot.ENTRY_BYTES, bytes.remaining());
+        for (int i = 1; i < snapshot.size(); i++) {
+            assertTrue(snapshot.userIdAt(i - 1) < snapshot.userIdAt(i));
+        }
+
+        assertTrue(this.userService.isPaymentUpToDate(renewing));
+        assertFalse(this.userService.isPaymentUpToDate(leaving));
+        assertThrows(ApiException.class, () -> this.userService.isPaymentUpToDate(0L)); // not a member, not a due payment
+
+        // local writes reach the map on commit, no refresh needed
+        LocalDate renewed = paid.plusYears(1);
+        this.userService.subscribeToPlan(renewing, plan.getId(), renewed);
+        this.userService.unsubscribeToPlan(leaving);
+        assertEquals(renewed.toEpochDay(), this.paymentSnapshotService.findPaidUntil(renewing));
+        assertEquals(OffHeapLongIntMap.MISSING, this.paymentSnapshotService.findPaidUntil(leaving));
+        assertThrows(ApiException.class, () -> this.userService.isPaymentUpToDate(leaving));
+
+        this.paymentSnapshotService.refresh();
+        PaymentChanges changes = this.paymentSnapshotService.findChanges(snapshot.getVersion());
+        assertTrue(changes.getToVersion() > snapshot.getVersion());
+        Map<Long, Integer> applied = new HashMap<>();
+        for (int i = 0; i < changes.size(); i++) {
+            applied.put(changes.userIdAt(i), changes.paidUntilAt(i));
+        }
+        assertEquals((int) renewed.toEpochDay(), applied.get(renewing));
+        assertEquals(PaymentChanges.REMOVED, applied.get(leaving));
+
+        assertThrows(SnapshotExpiredException.class, () -> this.paymentSnapshotService.findChanges(changes.getToVersion() + 1));
+    }
+
+    private Long createMember(String username, Plan plan, LocalDate paidUntil) {
+        return this.userService.createUser(new User(null, username, "secret-password", username + "@gym.bo",
+                new Plan(plan.getId(), null, null, null), paidUntil)).getId();
+    }
+
+    private static int find(PaymentSnapshot snapshot, long userId) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.userIdAt(i) == userId) return snapshot.paidUntilAt(i);
+        }
+        return OffHeapLongIntMap.MISSING;
+    }
+}
@@ -0,0 +1,61 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.dtos.PaymentStatus;
+import com.welberth.gymboapi.exceptions.NotFoundException;
+import com.welberth.gymboapi.metrics.QueryCounter;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that payment statuses are served by their Caffeine cache, read as a two-column projection, and
+ * evicted when the subscription changes.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class PaymentStatusCacheTests {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Test
+    void paymentStatusIsCachedUntilTheSubscriptionChanges() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Payment plan", "Payment status cache test plan", 35f));
+        Long id = this.userService.createUser(new User(null, "cached-payer", "secret1", "payer@gym.com", null, null)).getId();
+
+        assertNull(this.userService.findPaymentStatus(id).getPlanId());
+        assertThrows(NotFoundException.class, () -> this.userService.isPaymentUpToDate(id)); // not subscribed
+
+        LocalDate lapsed = LocalDate.now().minusDays(1);
+        this.userService.subscribeToPlan(id, plan.getId(), lapsed);
+        QueryCounter.start();
+        PaymentStatus status = this.userService.findPaymentStatus(id);
+        assertEquals(1, QueryCounter.stop()); // the subscription evicted the entry
+        assertEquals(plan.getId(), status.getPlanId());
+        assertEquals(lapsed, status.getPaidUntil());
+
+        QueryCounter.start();
+        this.userService.findPaymentStatus(id);
+        assertEquals(0, QueryCounter.stop());
+        assertEquals(plan.getId(), this.userService.findPlan(id).getId());
+
+        this.userService.unsubscribeToPlan(id);
+        assertNull(this.userService.findPaymentStatus(id).getPlanId());
+        assertThrows(NotFoundException.class, () -> this.userService.findPlan(id));
+    }
+}
@@ -0,0 +1,56 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.configs.CacheConfig;
+import com.welberth.gymboapi.exceptions.NotFoundException;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.services.PlanService;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that plan lookups by id and by title are served by their Caffeine caches, and that updating or
+ * deleting a plan leaves no stale entry behind.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class PlanCacheTests {
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Test
+    void planLookupsAreCachedUntilThePlanChanges() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Cached plan", "Plan cache test plan", 45f));
+        Cache byId = this.cacheManager.getCache(CacheConfig.PLANS);
+        Cache byTitle = this.cacheManager.getCache(CacheConfig.PLANS_BY_TITLE);
+
+        this.planService.findById(plan.getId());
+        this.planService.findByTitle("Cached plan");
+        assertEquals("Cached plan", byId.get(plan.getId(), Plan.class).getTitle());
+        assertNotNull(byTitle.get("Cached plan"));
+
+        this.planService.updatePlan(new Plan(plan.getId(), "Renamed plan", "Plan cache test plan", 50f));
+        assertNull(byId.get(plan.getId()));
+        assertNull(byTitle.get("Cached plan"));
+        assertEquals("Renamed plan", this.planService.findById(plan.getId()).getTitle());
+        assertEquals(plan.getId(), this.planService.findByTitle("Renamed plan").getId());
+        assertThrows(NotFoundException.class, () -> this.planService.findByTitle("Cached plan"));
+
+        this.planService.deletePlan(plan.getId());
+        assertThrows(NotFoundException.class, () -> this.planService.findById(plan.getId()));
+        assertThrows(NotFoundException.class, () -> this.planService.findByTitle("Renamed plan"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.welberth.gymboapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.welberth.gymboapi.controllers.UserController;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Walks the keyset-paged and streamed plan rosters over HTTP, against the real server.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+class PlanRosterTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void rosterPagesAndStreamListEveryMemberOnceInIdOrder() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Roster", "Roster test plan", 59.9f));
+        List<Long> members = createMembers("roster", plan, 250);
+
+        List<Long> paged = new ArrayList<>();
+        int pages = 0;
+        String path = "/user/list/" + plan.getId() + "/page?limit=100";
+        while (path != null) {
+            HttpResponse<byte[]> page = get(path);
+            assertEquals(200, page.statusCode());
+            pages++;
+            for (JsonNode user : this.objectMapper.readTree(page.body())) {
+                paged.add(user.get("id").asLong());
+            }
+            path = page.headers().firstValue(UserController.NEXT_CURSOR_HEADER)
+                    .map(cursor -> "/user/list/" + plan.getId() + "/page?limit=100&after=" + cursor)
+                    .orElse(null);
+        }
+        assertEquals(3, pages); // the last page isn't full, so it hands out no cursor
+        assertEquals(members, paged);
+
+        HttpResponse<byte[]> stream = get("/user/list/" + plan.getId() + "/stream");
+        assertEquals(200, stream.statusCode());
+        List<Long> streamed = new ArrayList<>();
+        for (String line : new String(stream.body(), StandardCharsets.UTF_8).split("\n")) {
+            streamed.add(this.objectMapper.readTree(line).get("id").asLong());
+        }
+        assertEquals(members, streamed);
+    }
+
+    private List<Long> createMembers(String prefix, Plan plan, int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(new User(null, prefix + "-" + i, "secret-password", prefix + "-" + i + "@gym.bo",
+                    new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1)));
+        }
+        this.userService.createUsers(users);
+
+        List<Long> ids = new ArrayList<>(count);
+        users.forEach(user -> ids.add(user.getId()));
+        return ids;
+    }
+
+    private HttpResponse<byte[]> get(String path) throws IOException, InterruptedException {
+        return this.client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + this.port + path)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
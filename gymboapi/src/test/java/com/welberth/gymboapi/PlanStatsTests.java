@@ -0,0 +1,100 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.dtos.PlanStatsResponse;
+import com.welberth.gymboapi.dtos.SubscriptionRequest;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.PlanStatsService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the plan stats follow every kind of membership write, and that the reconciliation
+ * puts them back when they drift.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class PlanStatsTests {
+
+    @Autowired
+    private PlanStatsService planStatsService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void statsFollowMembershipWrites() throws Exception {
+        Plan gold = this.planService.createPlan(new Plan(null, "Stats gold", "Plan stats gold plan", 100f));
+        Plan silver = this.planService.createPlan(new Plan(null, "Stats silver", "Plan stats silver plan", 50f));
+        LocalDate paid = LocalDate.now().plusMonths(1);
+
+        Long first = createMember("stats-first", gold, paid);
+        Long second = createMember("stats-second", gold, paid);
+        Long lapsed = createMember("stats-lapsed", gold, LocalDate.now().minusDays(1));
+        assertStats(gold, 3, 1, "200.00");
+
+        this.userService.subscribeToPlan(first, silver.getId(), paid);
+        assertStats(gold, 2, 1, "100.00");
+        assertStats(silver, 1, 0, "50.00");
+
+        this.userService.subscribeToPlans(List.of(
+                new SubscriptionRequest(second, silver.getId(), paid),
+                new SubscriptionRequest(lapsed, silver.getId(), paid)));
+        assertStats(gold, 0, 0, "0.00");
+        assertStats(silver, 3, 0, "150.00");
+
+        this.userService.unsubscribeToPlan(second);
+        this.userService.deleteUser(lapsed);
+        assertStats(silver, 1, 0, "50.00");
+    }
+
+    @Test
+    void reconciliationFixesDrift() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Stats drift", "Plan stats drift plan", 10f));
+        createMember("drift-paid", plan, LocalDate.now().plusMonths(1));
+        createMember("drift-lapsed", plan, LocalDate.now().minusDays(1));
+
+        this.jdbcTemplate.update("update plan_stats set member_count = 42, lapsed_count = 7 where plan_id = ?", plan.getId());
+        assertEquals(42, this.planStatsService.findStats(plan.getId()).getMembers());
+
+        assertTrue(this.planStatsService.reconcile() > 0);
+
+        PlanStatsResponse stats = assertStats(plan, 2, 1, "10.00");
+        assertNotNull(stats.getReconciledAt());
+    }
+
+    private Long createMember(String username, Plan plan, LocalDate paidUntil) {
+        return this.userService.createUser(new User(null, username, "secret-password", username + "@gym.bo",
+                new Plan(plan.getId(), null, null, null), paidUntil)).getId();
+    }
+
+    private PlanStatsResponse assertStats(Plan plan, long members, long lapsed, String revenue) throws Exception {
+        PlanStatsResponse stats = this.planStatsService.findStats(plan.getId());
+
+        assertEquals(members, stats.getMembers());
+        assertEquals(lapsed, stats.getLapsedMembers());
+        assertEquals(members - lapsed, stats.getActiveMembers());
+        assertEquals(new BigDecimal(revenue), stats.getMonthlyRevenue());
+        return stats;
+    }
+}
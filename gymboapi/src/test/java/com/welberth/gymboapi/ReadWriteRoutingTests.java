@@ -0,0 +1,152 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.configs.CacheConfig;
+import com.welberth.gymboapi.datasource.ReplicaLagMonitor;
+import com.welberth.gymboapi.models.LapsedMember;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.LapsedMemberService;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Routes against two separate in-memory H2 databases standing in for the primary and the replica. Nothing
+ * replicates between them, so a row written to one side only shows which database a call was sent to.
+ */
+@SpringBootTest(properties = {
+        "gymbo.datasource.replica.url=jdbc:h2:mem:gymbo-replica;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "gymbo.datasource.replica.heartbeat-interval=3600000" // heartbeats are driven by the test
+})
+@ActiveProfiles("h2")
+class ReadWriteRoutingTests {
+
+    private static final long REPLICA_ONLY_USER_ID = 987_654_321L;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primary;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replica;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private LapsedMemberService lapsedMemberService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @BeforeEach
+    void migrateReplica() {
+        Flyway.configure().dataSource(this.replica).locations("classpath:db/migration/h2").load().migrate();
+
+        JdbcTemplate replicaJdbc = new JdbcTemplate(this.replica);
+        replicaJdbc.update("delete from " + LapsedMember.TABLE_NAME + " where user_id = ?", REPLICA_ONLY_USER_ID);
+        replicaJdbc.update("insert into " + LapsedMember.TABLE_NAME + " (user_id, plan_id, paid_until, detected_at) values (?, null, ?, ?)",
+                REPLICA_ONLY_USER_ID, Date.valueOf(LocalDate.now()), Timestamp.from(Instant.now()));
+    }
+
+    @Test
+    void readOnlyTransactionsGoToAFreshReplica() {
+        replicateHeartbeat(Instant.now());
+
+        assertTrue(this.replicaLagMonitor.isReplicaUsable());
+        assertTrue(lapsedIdsContainReplicaOnlyRow());
+    }
+
+    @Test
+    void readsFallBackToThePrimaryWhileTheReplicaLags() {
+        replicateHeartbeat(Instant.now().minus(1, ChronoUnit.HOURS));
+
+        assertFalse(this.replicaLagMonitor.isReplicaUsable());
+        assertFalse(lapsedIdsContainReplicaOnlyRow());
+    }
+
+    @Test
+    void writesGoToThePrimary() {
+        replicateHeartbeat(Instant.now());
+
+        Plan plan = this.planService.createPlan(new Plan(null, "Routing", "Read/write routing test plan", 19.9f));
+        Long id = this.userService.createUser(new User(null, "routed-write", "secret-password", "routed@gym.bo",
+                new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1))).getId();
+
+        String countSql = "select count(*) from " + User.TABLE_NAME + " where id = ?";
+        assertEquals(1, new JdbcTemplate(this.primary).queryForObject(countSql, Integer.class, id));
+        assertEquals(0, new JdbcTemplate(this.replica).queryForObject(countSql, Integer.class, id));
+    }
+
+    @Test
+    void lookupsThatFillCachesReadThePrimary() {
+        replicateHeartbeat(Instant.now());
+
+        Plan plan = this.planService.createPlan(new Plan(null, "Cached routing", "Cached lookups routing test plan", 29.9f));
+        Long id = this.userService.createUser(new User(null, "routed-cached", "secret-password", "routed-cached@gym.bo",
+                new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1))).getId();
+        for (String name : new String[] { CacheConfig.PLANS, CacheConfig.PLANS_BY_TITLE, CacheConfig.PAYMENT_STATUS }) {
+            this.cacheManager.getCache(name).clear();
+        }
+
+        // neither row is on the replica, a lookup sent there would be a miss
+        assertEquals(plan.getId(), this.planService.findById(plan.getId()).getId());
+        assertEquals(plan.getId(), this.planService.findByTitle("Cached routing").getId());
+        assertEquals(plan.getId(), this.userService.findPaymentStatus(id).getPlanId());
+        assertEquals(plan.getId(), this.userService.findPlan(id).getId());
+    }
+
+    @Test
+    void missesOnTheReplicaAreConfirmedOnThePrimary() {
+        replicateHeartbeat(Instant.now());
+
+        Long id = this.userService.createUser(new User(null, "routed-lagging", "secret-password", "routed-lagging@gym.bo", null, null)).getId();
+
+        // the replica hasn't got the user (as if lagging), the primary has
+        assertEquals(id, this.userService.findResponseById(id).getId());
+        assertEquals(id, this.userService.findResponseByUsername("routed-lagging").getId());
+        assertEquals(this.userService.findById(id).getVersion(), this.userService.findVersion(id));
+        assertNull(this.cacheManager.getCache(CacheConfig.MISSING_USERS).get(id));
+    }
+
+    /**
+     * Copies a heartbeat to the replica as replication would, then lets the monitor look at it.
+     */
+    private void replicateHeartbeat(Instant beatAt) {
+        new JdbcTemplate(this.replica).update("update replica_heartbeat set beat_at = ? where id = 1", Timestamp.from(beatAt));
+        this.replicaLagMonitor.check();
+    }
+
+    private boolean lapsedIdsContainReplicaOnlyRow() {
+        return this.lapsedMemberService.findPage(REPLICA_ONLY_USER_ID - 1, 1).stream()
+                .anyMatch(member -> member.getUserId() == REPLICA_ONLY_USER_ID);
+    }
+}
@@ -0,0 +1,74 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.metrics.QueryCountFilter;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.UserService;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks what a request records: the service timers and the queries-per-request distribution, and that both
+ * are scraped from /actuator/prometheus, against the real server.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMetrics
+@ActiveProfiles("h2")
+class RequestMetricsTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void servicesAndQueriesPerRequestAreMeasured() throws Exception {
+        Long userId = this.userService.createUser(new User(null, "measured", "secret-password", "measured@gym.bo", null, null)).getId();
+        DistributionSummary queries = this.meterRegistry.find(QueryCountFilter.METRIC_NAME).tag("uri", "/user/{id:\\d+}").summary();
+        long before = queries == null ? 0 : queries.count();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, get("/user/" + userId).statusCode());
+        }
+
+        queries = this.meterRegistry.find(QueryCountFilter.METRIC_NAME).tag("uri", "/user/{id:\\d+}").summary();
+        assertEquals(before + 3, queries.count());
+        assertTrue(queries.max() >= 1); // the version lookup at least
+        Timer findResponse = this.meterRegistry.find("gymbo.service")
+                .tags("class", UserService.class.getName(), "method", "findResponseById").timer();
+        assertTrue(findResponse.count() >= 3);
+
+        String scraped = new String(get("/actuator/prometheus").body(), StandardCharsets.UTF_8);
+        assertTrue(scraped.contains("gymbo_db_queries_per_request_bucket"));
+        assertTrue(scraped.contains("gymbo_service_seconds_count{class=\"" + UserService.class.getName() + "\""));
+    }
+
+    private HttpResponse<byte[]> get(String path) throws IOException, InterruptedException {
+        return this.client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + this.port + path)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
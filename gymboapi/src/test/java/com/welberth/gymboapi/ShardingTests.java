@@ -0,0 +1,135 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.dtos.UserResponse;
+import com.welberth.gymboapi.exceptions.ConflictException;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.PlanStatsService;
+import com.welberth.gymboapi.services.UserService;
+import com.welberth.gymboapi.sharding.ShardRouter;
+import com.welberth.gymboapi.sharding.ShardRoutingDataSource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Shards members over two separate in-memory H2 databases. Nothing but the plan copies is shared between them,
+ * so a row found on one side only shows which shard a call was sent to.
+ */
+@SpringBootTest(properties = {
+        "gymbo.sharding.urls=jdbc:h2:mem:gymbo-shard0;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1,"
+                + "jdbc:h2:mem:gymbo-shard1;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1"
+})
+@ActiveProfiles("h2")
+class ShardingTests {
+
+    private static final String COUNT_USER_SQL = "select count(*) from " + User.TABLE_NAME + " where id = ?";
+
+    @Autowired
+    private ShardRoutingDataSource shardRoutingDataSource;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private PlanStatsService planStatsService;
+
+    @Test
+    void membersAreWrittenToTheShardOfTheirGym() {
+        Plan plan = createPlan("Shard routing");
+        Long home = createMember("sharded-home", plan, 2);
+        Long other = createMember("sharded-other", plan, 3);
+
+        assertEquals(0, this.shardRouter.shardOfUser(home));
+        assertEquals(1, this.shardRouter.shardOfUser(other));
+        assertEquals(1, shard(0).queryForObject(COUNT_USER_SQL, Integer.class, home));
+        assertEquals(0, shard(1).queryForObject(COUNT_USER_SQL, Integer.class, home));
+        assertEquals(0, shard(0).queryForObject(COUNT_USER_SQL, Integer.class, other));
+        assertEquals(1, shard(1).queryForObject(COUNT_USER_SQL, Integer.class, other));
+
+        assertEquals("sharded-other", this.userService.findById(other).getUsername());
+        assertEquals(other, this.userService.findByUsername("sharded-other").getId());
+    }
+
+    @Test
+    void plansAreCopiedToEveryShard() {
+        Plan plan = createPlan("Shard copies");
+        plan.setDescription("Updated on the home shard");
+        this.planService.updatePlan(plan);
+
+        String descriptionSql = "select description from plan where id = ?";
+        assertEquals("Updated on the home shard", shard(0).queryForObject(descriptionSql, String.class, plan.getId()));
+        assertEquals("Updated on the home shard", shard(1).queryForObject(descriptionSql, String.class, plan.getId()));
+    }
+
+    @Test
+    void planQueriesMergeEveryShard() {
+        Plan plan = createPlan("Shard merge");
+        Long first = createMember("merged-a", plan, 0);
+        Long second = createMember("merged-b", plan, 1);
+        Long third = createMember("merged-c", plan, 2);
+
+        assertEquals(List.of(first, third, second), this.userService.findByPlanId(plan.getId()).stream()
+                .map(User::getId).collect(Collectors.toList()));
+        assertEquals(List.of(first, third), ids(this.userService.findResponsesByPlanId(plan.getId(), 0L, 2)));
+        assertEquals(List.of(second), ids(this.userService.findResponsesByPlanId(plan.getId(), third, 2)));
+
+        this.planStatsService.reconcile();
+        assertEquals(3, this.planStatsService.findStats(plan.getId()).getMembers());
+    }
+
+    @Test
+    void usernamesAreUniqueAcrossShards() {
+        Plan plan = createPlan("Shard usernames");
+        createMember("unique-everywhere", plan, 0);
+
+        User clash = new User(null, "unique-everywhere", "secret-password", "clash@gym.bo",
+                new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1));
+        clash.setGymId(1);
+        assertThrows(ConflictException.class, () -> this.userService.createUser(clash));
+    }
+
+    @Test
+    void plansWithMembersOnAnotherShardAreNotDeleted() {
+        Plan plan = createPlan("Shard delete");
+        createMember("keeps-the-plan", plan, 1);
+
+        assertThrows(ConflictException.class, () -> this.planService.deletePlan(plan.getId()));
+    }
+
+    private Plan createPlan(String title) {
+        return this.planService.createPlan(new Plan(null, title, title + " test plan", 29.9f));
+    }
+
+    private Long createMember(String username, Plan plan, long gymId) {
+        User user = new User(null, username, "secret-password", username + "@gym.bo",
+                new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1));
+        user.setGymId(gymId);
+        return this.userService.createUser(user).getId();
+    }
+
+    private JdbcTemplate shard(int shard) {
+        return new JdbcTemplate(this.shardRoutingDataSource.getShards().get(shard));
+    }
+
+    private static List<Long> ids(List<UserResponse> responses) {
+        return responses.stream().map(UserResponse::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,93 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.dtos.BulkResult;
+import com.welberth.gymboapi.metrics.QueryCounter;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that createUsers inserts through JDBC batches rather than a statement per member, and that a bad row
+ * doesn't abort the batch. The insert throughput itself is measured by the JMH benchmarks.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class UserBulkCreateTests {
+
+    private static final int ROWS = 2000; // two chunks of gymbo.bulk.chunk-size
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size}")
+    private int jdbcBatchSize;
+
+    @Test
+    void bulkCreateSendsJdbcBatches() {
+        Plan plan = this.planService.createPlan(new Plan(null, "Batches", "Bulk create batches plan", 99.9f));
+        List<User> users = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            users.add(newUser("batched-" + i, plan));
+        }
+
+        Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        long inserts = statistics.getEntityInsertCount();
+        long statements = statistics.getPrepareStatementCount();
+        QueryCounter.start();
+        BulkResult result = this.userService.createUsers(users);
+        int queries = QueryCounter.stop();
+
+        assertEquals(ROWS, result.getSucceeded());
+        assertEquals(0, result.getFailures().size());
+        assertEquals(ROWS, statistics.getEntityInsertCount() - inserts);
+        // one insert per JDBC batch and one id block per batch at most, plus a few statements per chunk
+        int batches = ROWS / this.jdbcBatchSize;
+        assertTrue(queries <= 2 * batches + 10, queries + " statements for " + batches + " batches");
+        assertTrue(statistics.getPrepareStatementCount() - statements <= 2 * batches + 10);
+    }
+
+    @Test
+    void bulkCreateReportsRejectedRowsWithoutAbortingTheBatch() {
+        Plan plan = this.planService.createPlan(new Plan(null, "Rejects", "Bulk create rejects plan", 49.9f));
+
+        List<User> users = List.of(
+                newUser("rejects-1", plan),
+                newUser("rejects-1", plan), // duplicate username, fails on insert
+                newUser("x", plan), // too short, fails validation
+                newUser("rejects-2", plan));
+        BulkResult result = this.userService.createUsers(users);
+
+        assertEquals(2, result.getSucceeded());
+        assertEquals(2, result.getFailures().size());
+        assertEquals(2, result.getFailures().get(0).getIndex());
+        assertEquals(1, result.getFailures().get(1).getIndex());
+    }
+
+    private static User newUser(String username, Plan plan) {
+        return new User(null, username, "secret-password", username + "@gym.bo", new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1));
+    }
+
+}
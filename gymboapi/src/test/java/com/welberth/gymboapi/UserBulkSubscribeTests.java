@@ -0,0 +1,110 @@
+package com.welberth.gymboapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.welberth.gymboapi.dtos.SubscriptionRequest;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Applies bulk subscriptions through PUT /user/plan/subscribe: chunking, the row-by-row retry of a chunk
+ * that fails as a whole, and the failure report, against the real server.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+class UserBulkSubscribeTests {
+
+    private static final int SUBSCRIPTIONS = 2_100; // more than two chunks of gymbo.bulk.chunk-size
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void bulkSubscribeRetriesAFailedChunkRowByRow() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Bulk", "Bulk subscribe test plan", 29.9f));
+        long[] members = new long[4];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = this.userService.createUser(new User(null, "bulk-" + i, "secret-password", "bulk-" + i + "@gym.bo", null, null)).getId();
+        }
+        LocalDate start = LocalDate.now().plusMonths(1);
+
+        List<SubscriptionRequest> rows = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIPTIONS; i++) { // three chunks, each renewing the first three members over and over
+            rows.add(new SubscriptionRequest(members[i % 3], plan.getId(), start.plusDays(i)));
+        }
+        rows.set(5, new SubscriptionRequest(987654321L, plan.getId(), start)); // no such member, updates nothing
+        rows.set(6, new SubscriptionRequest(members[0], 987654321L, start)); // no such plan, rejected up front
+        rows.set(1500, new SubscriptionRequest(members[3], plan.getId(), start)); // shares the failing chunk
+        rows.set(1501, new SubscriptionRequest(members[1], plan.getId(), LocalDate.of(3000, 1, 1))); // fails the whole chunk
+
+        JsonNode result;
+        this.jdbcTemplate.execute("alter table " + User.TABLE_NAME + " add constraint chk_bulk_test check (paid_until < date '2999-01-01')");
+        try {
+            HttpResponse<String> response = this.client.send(HttpRequest.newBuilder(uri("/user/plan/subscribe"))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(this.objectMapper.writeValueAsString(rows)))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            result = this.objectMapper.readTree(response.body());
+        } finally {
+            this.jdbcTemplate.execute("alter table " + User.TABLE_NAME + " drop constraint chk_bulk_test");
+        }
+
+        assertEquals(SUBSCRIPTIONS, result.get("received").asInt());
+        assertEquals(SUBSCRIPTIONS - 3, result.get("succeeded").asInt());
+        assertEquals(3, result.get("failed").asInt());
+        Map<Integer, String> reasons = new HashMap<>();
+        result.get("failures").forEach(failure -> reasons.put(failure.get("index").asInt(), failure.get("reason").asText()));
+        assertEquals(Set.of(5, 6, 1501), reasons.keySet());
+        assertTrue(reasons.get(5).contains("987654321"));
+        assertTrue(reasons.get(6).contains("Plan"));
+        assertTrue(reasons.get(1501).startsWith("Row could not be saved"));
+
+        assertEquals(start, this.userService.findById(members[3]).getPaidUntil()); // applied on the retry
+        for (int i = 0; i < 3; i++) {
+            int last = SUBSCRIPTIONS - 3 + i; // the last row of each member wins
+            assertEquals(start.plusDays(last), this.userService.findById(members[last % 3]).getPaidUntil());
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + this.port + path);
+    }
+}
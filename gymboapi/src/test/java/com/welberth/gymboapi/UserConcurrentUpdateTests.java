@@ -0,0 +1,155 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.exceptions.ConcurrentUpdateException;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Stresses the conditional updates: many writers renewing the same few members, each one extending
+ * paid until by a day from the version it read. No renewal may be lost, contended ones must fail with
+ * ConcurrentUpdateException and succeed on retry, while writes that name no version wait their turn.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class UserConcurrentUpdateTests {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserConcurrentUpdateTests.class);
+
+    private static final int WRITERS = 8;
+
+    private static final int MEMBERS = 4;
+
+    private static final int RENEWALS_PER_WRITER = 200;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void contendedRenewalsAreNeverLost() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Contention", "Concurrent update test plan", 39.9f));
+        LocalDate start = LocalDate.now().plusMonths(1);
+
+        long[] ids = new long[MEMBERS];
+        for (int i = 0; i < MEMBERS; i++) {
+            ids[i] = this.userService.createUser(new User(null, "contended-" + i, "secret-password", "contended-" + i + "@gym.bo",
+                    new Plan(plan.getId(), null, null, null), start)).getId();
+        }
+
+        AtomicIntegerArray renewals = new AtomicIntegerArray(MEMBERS);
+        AtomicLong conflicts = new AtomicLong();
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        long begin = System.nanoTime();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            futures.add(writers.submit(() -> {
+                for (int r = 0; r < RENEWALS_PER_WRITER; r++) {
+                    int member = ThreadLocalRandom.current().nextInt(MEMBERS);
+                    while (true) {
+                        Map<String, Object> row = this.jdbcTemplate.queryForMap(
+                                "select paid_until, version from " + User.TABLE_NAME + " where id = ?", ids[member]);
+                        LocalDate paidUntil = ((Date) row.get("paid_until")).toLocalDate();
+                        long version = ((Number) row.get("version")).longValue();
+
+                        try {
+                            this.userService.subscribeToPlan(ids[member], plan.getId(), paidUntil.plusDays(1), version);
+                            renewals.incrementAndGet(member);
+                            break;
+                        } catch (ConcurrentUpdateException e) {
+                            conflicts.incrementAndGet(); // someone renewed first, read again and retry
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        writers.shutdown();
+
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        int total = WRITERS * RENEWALS_PER_WRITER;
+        LOGGER.info("{} writers on {} members: {} renewals/s, {} conflicts retried ({} per renewal)",
+                WRITERS, MEMBERS, Math.round(total / seconds), conflicts.get(), String.format("%.2f", conflicts.get() / (double) total));
+
+        for (int i = 0; i < MEMBERS; i++) {
+            LocalDate paidUntil = this.jdbcTemplate.queryForObject(
+                    "select paid_until from " + User.TABLE_NAME + " where id = ?", LocalDate.class, ids[i]);
+            assertEquals(start.plusDays(renewals.get(i)), paidUntil);
+        }
+    }
+
+    @Test
+    void unversionedWritesWaitInsteadOfConflicting() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Unversioned", "Unversioned update test plan", 19.9f));
+        Long id = this.userService.createUser(new User(null, "unversioned", "secret-password", "unversioned@gym.bo",
+                new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1))).getId();
+        Long version = this.userService.findVersion(id);
+
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            futures.add(writers.submit(() -> {
+                for (int r = 0; r < RENEWALS_PER_WRITER / 4; r++) {
+                    if ((writer + r) % 2 == 0) {
+                        this.userService.subscribeToPlan(id, plan.getId(), LocalDate.now().plusDays(r));
+                    } else {
+                        this.userService.unsubscribeToPlan(id);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES); // a conflict would surface here as a ConcurrentUpdateException
+        }
+        writers.shutdown();
+
+        assertEquals(version + WRITERS * (RENEWALS_PER_WRITER / 4), this.userService.findVersion(id));
+    }
+
+    @Test
+    void staleVersionIsRejected() {
+        Plan plan = this.planService.createPlan(new Plan(null, "Stale", "Stale version test plan", 29.9f));
+        Long id = this.userService.createUser(new User(null, "stale-version", "secret-password", "stale@gym.bo",
+                new Plan(plan.getId(), null, null, null), LocalDate.now().plusMonths(1))).getId();
+
+        Long version = this.userService.findVersion(id);
+        assertEquals(version + 1, this.userService.unsubscribeToPlan(id, version));
+        assertThrows(ConcurrentUpdateException.class, () -> this.userService.subscribeToPlan(id, plan.getId(), LocalDate.now(), version));
+    }
+}
@@ -0,0 +1,127 @@
+package com.welberth.gymboapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.welberth.gymboapi.dtos.UserResponse;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.utils.UserCsv;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips members through the streaming import and export endpoints, against the real server.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+class UserImportExportTests {
+
+    private static final int ROWS = 2_500; // more than two chunks of gymbo.bulk.chunk-size
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void csvImportRejectsBadRowsAndExportStreamsTheRest() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Import", "Import test plan", 19.9f));
+        LocalDate paidUntil = LocalDate.now().plusMonths(1);
+
+        StringBuilder csv = new StringBuilder("email,username,password,planId,paidUntil\n"); // any column order
+        for (int i = 0; i < ROWS; i++) {
+            csv.append("imported-").append(i).append("@gym.bo,imported-").append(i).append(",\"secret, password\",")
+                    .append(plan.getId()).append(',').append(paidUntil).append('\n');
+        }
+        csv.append('\n'); // skipped, but still counts as a line
+        csv.append("short@gym.bo,x,secret-password,,\n"); // fails validation, username too short
+        csv.append("x@gym.bo,imported-unparsable,secret-password,not-a-number,\n"); // fails parsing
+        csv.append("\"unterminated@gym.bo,imported-x,secret-password,,\n");
+
+        HttpResponse<String> imported = this.client.send(HttpRequest.newBuilder(uri("/user/import"))
+                .header("Content-Type", "text/csv")
+                .POST(HttpRequest.BodyPublishers.ofString(csv.toString()))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, imported.statusCode());
+
+        JsonNode result = this.objectMapper.readTree(imported.body());
+        assertEquals(ROWS + 3, result.get("received").asInt());
+        assertEquals(ROWS, result.get("succeeded").asInt());
+        assertEquals(3, result.get("failed").asInt());
+        Set<Integer> rejected = new HashSet<>();
+        result.get("failures").forEach(failure -> rejected.add(failure.get("index").asInt()));
+        assertEquals(Set.of(ROWS + 1, ROWS + 2, ROWS + 3), rejected); // by line, after the header
+
+        HttpResponse<InputStream> exported = this.client.send(HttpRequest.newBuilder(uri("/user/export"))
+                .header("Accept", "text/csv")
+                .build(), HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, exported.statusCode());
+
+        int members = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(exported.body(), StandardCharsets.UTF_8))) {
+            assertEquals("id,username,email,planId,paidUntil,gymId", reader.readLine());
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.contains(",imported-") && line.contains("," + plan.getId() + "," + paidUntil + ",")) members++;
+            }
+        }
+        assertEquals(ROWS, members);
+    }
+
+    @Test
+    void exportedRecordsStayOnOneLine() throws Exception {
+        StringBuilder out = new StringBuilder();
+        UserCsv.write(new UserResponse(7L, "two\nlines", "comma,quote\"@gym.bo", null, null, 3), out);
+
+        assertEquals("7,two lines,\"comma,quote\"\"@gym.bo\",,,3\n", out.toString());
+    }
+
+    @Test
+    void ndjsonImportReportsRejectedRows() throws Exception {
+        String ndjson = "{\"username\":\"ndjson-ok\",\"password\":\"secret-password\",\"email\":\"ndjson-ok@gym.bo\"}\n"
+                + "{\"username\":\"ndjson-broken\"\n"
+                + "\n"
+                + "{\"username\":\"ndjson-invalid\",\"password\":\"secret-password\"}\n";
+
+        HttpResponse<String> imported = this.client.send(HttpRequest.newBuilder(uri("/user/import"))
+                .header("Content-Type", "application/x-ndjson")
+                .POST(HttpRequest.BodyPublishers.ofString(ndjson))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, imported.statusCode());
+
+        JsonNode result = this.objectMapper.readTree(imported.body());
+        assertEquals(3, result.get("received").asInt());
+        assertEquals(1, result.get("succeeded").asInt());
+        assertEquals(1, result.get("failures").get(0).get("index").asInt());
+        assertEquals(3, result.get("failures").get(1).get("index").asInt()); // the blank line keeps its number
+        assertTrue(result.get("failures").get(1).get("reason").asText().contains("email"));
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + this.port + path);
+    }
+}
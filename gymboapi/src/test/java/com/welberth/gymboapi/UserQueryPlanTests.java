@@ -0,0 +1,49 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.models.User;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the hot user queries seek on the indexes created by the migrations instead of scanning the table.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class UserQueryPlanTests {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserQueryPlanTests.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void planMembersSeekOnPlanIndex() {
+        String plan = explain("select id, paid_until from " + User.TABLE_NAME + " where plan_id = 1 and id > 0 order by id limit 100");
+
+        assertTrue(plan.contains("idx_user_plan_id"), plan);
+    }
+
+    @Test
+    void expirySweepSeeksOnPaidUntilIndex() {
+        String plan = explain("select id, plan_id, paid_until from " + User.TABLE_NAME
+                + " where paid_until <= date '2030-01-01' and (paid_until > date '2020-01-01' or (paid_until = date '2020-01-01' and id > 0))"
+                + " order by paid_until, id limit 100");
+
+        assertTrue(plan.contains("idx_user_paid_until"), plan);
+    }
+
+    private String explain(String sql) {
+        String plan = this.jdbcTemplate.queryForObject("explain " + sql, String.class);
+        LOGGER.info("{}", plan);
+
+        return plan;
+    }
+}
@@ -0,0 +1,91 @@
+package com.welberth.gymboapi;
+
+import com.welberth.gymboapi.dtos.SubscriptionRequest;
+import com.welberth.gymboapi.exceptions.ApiException;
+import com.welberth.gymboapi.metrics.QueryCounter;
+import com.welberth.gymboapi.models.Plan;
+import com.welberth.gymboapi.models.User;
+import com.welberth.gymboapi.services.PlanService;
+import com.welberth.gymboapi.services.UserService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that username lookups are served by the second-level cache, and that every kind of user
+ * write leaves no stale entry behind.
+ */
+@SpringBootTest
+@ActiveProfiles("h2")
+class UserSecondLevelCacheTests {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void repeatedLookupRunsNoQuery() throws Exception {
+        Long id = this.userService.createUser(new User(null, "cached-login", "secret1", "cached@gym.com", null, null)).getId();
+        this.userService.findByUsername("cached-login"); // fills the cache in case the insert didn't
+
+        Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        long naturalIdHits = statistics.getNaturalIdCacheHitCount();
+
+        QueryCounter.start();
+        assertEquals(id, this.userService.findByUsername("cached-login").getId());
+        assertEquals(0, QueryCounter.stop());
+        assertTrue(statistics.getNaturalIdCacheHitCount() > naturalIdHits);
+
+        assertNotNull(this.meterRegistry.find("hibernate.second.level.cache.requests").tag("region", User.CACHE_REGION).meter());
+    }
+
+    @Test
+    void writesInvalidateCachedUsers() throws Exception {
+        Plan plan = this.planService.createPlan(new Plan(null, "Cache plan", "Second-level cache plan", 30f));
+        LocalDate paid = LocalDate.now().plusMonths(1);
+        Long id = this.userService.createUser(new User(null, "cached-member", "secret1", "before@gym.com", null, null)).getId();
+        this.userService.findByUsername("cached-member");
+
+        this.userService.updateUser(new User(id, null, "secret2", "after@gym.com", null, null));
+        assertEquals("after@gym.com", this.userService.findByUsername("cached-member").getEmail());
+
+        this.userService.subscribeToPlan(id, plan.getId(), paid);
+        User subscribed = this.userService.findByUsername("cached-member");
+        assertEquals(plan.getId(), subscribed.getPlan().getId());
+        assertEquals(paid, subscribed.getPaidUntil());
+
+        this.userService.subscribeToPlans(List.of(new SubscriptionRequest(id, plan.getId(), paid.plusMonths(1))));
+        assertEquals(paid.plusMonths(1), this.userService.findById(id).getPaidUntil());
+
+        this.userService.unsubscribeToPlan(id);
+        assertNull(this.userService.findByUsername("cached-member").getPlan());
+
+        this.userService.deleteUser(id);
+        assertThrows(ApiException.class, () -> this.userService.findByUsername("cached-member"));
+        assertThrows(ApiException.class, () -> this.userService.findById(id));
+    }
+}